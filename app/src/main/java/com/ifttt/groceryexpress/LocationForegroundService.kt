@@ -44,6 +44,9 @@ class LocationForegroundService : Service(), CoroutineScope {
 
     private lateinit var parentJob: Job
 
+    @Volatile
+    private var pollingDelay = LOCATION_POLLING_DELAY
+
     override val coroutineContext: CoroutineContext
         get() = Dispatchers.Main + parentJob
 
@@ -79,7 +82,8 @@ class LocationForegroundService : Service(), CoroutineScope {
 
         val locationManager = getSystemService(LOCATION_SERVICE) as LocationManager
         // Poll LocationManager for the device's current location, and update ConnectLocation
-        // with any missed geo-fence events from Awareness API.
+        // with any missed geo-fence events from Awareness API. The further the device is from the
+        // geo-fences, the less often the location is polled.
         launch(Dispatchers.IO) {
             while (ContextCompat.checkSelfPermission(
                     this@LocationForegroundService,
@@ -90,12 +94,20 @@ class LocationForegroundService : Service(), CoroutineScope {
                     accuracy = Criteria.ACCURACY_FINE
                 }, object : LocationListener {
                     override fun onLocationChanged(location: Location) {
-                        ConnectLocation.getInstance().reportEvent(
+                        val connectLocation = ConnectLocation.getInstance()
+                        connectLocation.reportEvent(
                             this@LocationForegroundService,
                             location.latitude,
                             location.longitude,
                             null
                         )
+
+                        val distance = connectLocation.getDistanceToNearestBoundary(
+                            this@LocationForegroundService,
+                            location.latitude,
+                            location.longitude
+                        )
+                        pollingDelay = pollingDelayFor(distance)
                     }
 
                     override fun onStatusChanged(
@@ -116,7 +128,7 @@ class LocationForegroundService : Service(), CoroutineScope {
 
                 }, Looper.getMainLooper())
 
-                delay(LOCATION_POLLING_DELAY)
+                delay(pollingDelay)
             }
         }
 
@@ -130,9 +142,19 @@ class LocationForegroundService : Service(), CoroutineScope {
 
     companion object {
         private const val LOCATION_POLLING_DELAY = 2 * 60L * 1000L
+        private const val MIN_LOCATION_POLLING_DELAY = 30L * 1000L
+        private const val MAX_LOCATION_POLLING_DELAY = 15 * 60L * 1000L
+
+        // Assumed top speed of the device, used to estimate how soon it can reach a geo-fence.
+        private const val MAX_SPEED_METERS_PER_SECOND = 30.0
         private const val FOREGROUND_SERVICE_NOTIFICATION_ID = 1001
         private const val NOTIFICATION_CHANNEL_ID = "location_foreground_service"
 
+        private fun pollingDelayFor(distanceMeters: Double): Long {
+            val millis = distanceMeters / MAX_SPEED_METERS_PER_SECOND * 1000
+            return millis.toLong().coerceIn(MIN_LOCATION_POLLING_DELAY, MAX_LOCATION_POLLING_DELAY)
+        }
+
         fun startForegroundService(context: Context) {
             if (SDK_INT < O) {
                 return
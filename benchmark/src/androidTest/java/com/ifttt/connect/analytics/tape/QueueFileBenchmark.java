@@ -0,0 +1,98 @@
+package com.ifttt.connect.analytics.tape;
+
+import android.content.Context;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public final class QueueFileBenchmark {
+
+    /** Roughly the size of a serialized analytics event. */
+    private static final byte[] ELEMENT = new byte[256];
+
+    /** Number of elements kept in the queue, same as the analytics queue flush size. */
+    private static final int QUEUE_SIZE = 5;
+
+    @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private File file;
+    private QueueFile queueFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = ApplicationProvider.getApplicationContext();
+        file = new File(context.getCacheDir(), "benchmark-queue-file");
+        file.delete();
+        queueFile = new QueueFile.Builder(file).build();
+    }
+
+    @Test
+    public void add() throws IOException {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            queueFile.add(ELEMENT);
+            if (queueFile.size() == QUEUE_SIZE) {
+                state.pauseTiming();
+                queueFile.clear();
+                state.resumeTiming();
+            }
+        }
+    }
+
+    @Test
+    public void peek() throws IOException {
+        fill();
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            queueFile.peek();
+        }
+    }
+
+    @Test
+    public void iterate() throws IOException {
+        fill();
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (byte[] ignored : queueFile) {
+                // Read every element.
+            }
+        }
+    }
+
+    @Test
+    public void remove() throws IOException {
+        fill();
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            queueFile.remove();
+
+            state.pauseTiming();
+            queueFile.add(ELEMENT);
+            state.resumeTiming();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queueFile.close();
+        file.delete();
+    }
+
+    private void fill() throws IOException {
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queueFile.add(ELEMENT);
+        }
+    }
+}
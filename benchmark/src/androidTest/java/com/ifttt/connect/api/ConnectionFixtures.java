@@ -0,0 +1,81 @@
+package com.ifttt.connect.api;
+
+/**
+ * Generated Connection payloads for benchmarks, shaped like the responses of the show Connection API.
+ */
+final class ConnectionFixtures {
+
+    /**
+     * @param featureCount number of features, each with one enabled user feature that has a location trigger and an
+     * action with text, collection and checkbox fields.
+     * @return Connection JSON string.
+     */
+    static String connectionJson(int featureCount) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"type\":\"connection\",\"id\":\"aVxGRrtD\",\"name\":\"Benchmark connection\",")
+            .append("\"description\":\"Connection used for benchmarks\",")
+            .append("\"published_at\":\"2017-02-16T11:10:43-08:00\",\"user_status\":\"enabled\",")
+            .append("\"url\":\"https://ifttt.com/connect/aVxGRrtD\",\"services\":[");
+        for (int i = 0; i < 2; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"service_id\":\"service_").append(i)
+                .append("\",\"service_name\":\"Service\",\"service_short_name\":\"Service\",\"is_primary\":")
+                .append(i == 0)
+                .append(",\"monochrome_icon_url\":\"https://assets.ifttt.com/icons/monochrome_regular.png\",")
+                .append("\"color_icon_url\":\"https://assets.ifttt.com/icons/on_color_regular.png\",")
+                .append("\"brand_color\":\"#00abec\",\"url\":\"https://ifttt.com/service\"}");
+        }
+        builder.append("],\"cover_image\":{\"480w_url\":\"https://assets.ifttt.com/480.jpg\",")
+            .append("\"720w_url\":\"https://assets.ifttt.com/720.jpg\",")
+            .append("\"1080w_url\":\"https://assets.ifttt.com/1080.jpg\",")
+            .append("\"1440w_url\":\"https://assets.ifttt.com/1440.jpg\",")
+            .append("\"2880w_url\":\"https://assets.ifttt.com/2880.jpg\",")
+            .append("\"4320w_url\":\"https://assets.ifttt.com/4320.jpg\"},\"features\":[");
+        for (int i = 0; i < featureCount; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"feature_").append(i)
+                .append("\",\"title\":\"Feature ").append(i)
+                .append("\",\"description\":\"Feature description\",")
+                .append("\"icon_url\":\"https://ifttt.com/value-prop-icons/babble.png\",\"fields\":[],")
+                .append("\"feature_triggers\":[{\"id\":\"trigger_").append(i)
+                .append("\",\"trigger_id\":\"enter_region_location\",\"service_id\":\"location\",")
+                .append("\"label\":\"You enter an area\",\"run_url\":null,\"fields\":[{\"id\":\"location\",")
+                .append("\"label\":\"Locate an area\",\"type\":\"LOCATION_ENTER\",\"required\":true,")
+                .append("\"hidden\":false,\"default_value\":null}]}],\"feature_queries\":[],")
+                .append("\"feature_actions\":[{\"id\":\"action_").append(i)
+                .append("\",\"action_id\":\"upload_file\",\"service_id\":\"google_drive\",")
+                .append("\"label\":\"Upload file\",\"fields\":[{\"id\":\"path\",\"label\":\"Path\",")
+                .append("\"type\":\"TEXT_FIELD\",\"required\":true,\"hidden\":false,\"default_value\":\"/\"}]}]}");
+        }
+        builder.append("],\"user_connection\":{\"user_features\":[");
+        for (int i = 0; i < featureCount; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"user_feature_").append(i)
+                .append("\",\"feature_id\":\"feature_").append(i)
+                .append("\",\"enabled\":true,\"user_feature_triggers\":[{\"feature_trigger_id\":\"trigger_")
+                .append(i).append("\",\"id\":\"").append(1000 + i)
+                .append("\",\"user_fields\":[{\"field_id\":\"location\",\"field_type\":\"LOCATION_ENTER\",")
+                .append("\"value\":{\"lat\":37.7749,\"lng\":-122.4194,\"radius\":100.0,")
+                .append("\"address\":\"San Francisco, CA\"}}]}],\"user_feature_queries\":[],")
+                .append("\"user_feature_actions\":[{\"feature_action_id\":\"action_").append(i)
+                .append("\",\"id\":\"").append(2000 + i)
+                .append("\",\"user_fields\":[{\"field_id\":\"path\",\"field_type\":\"TEXT_FIELD\",")
+                .append("\"value\":\"/IFTTT\"},{\"field_id\":\"collection\",\"field_type\":\"COLLECTION_SELECT\",")
+                .append("\"value\":{\"group\":\"group\",\"label\":\"Label\",\"value\":\"value\"}},")
+                .append("{\"field_id\":\"checkbox\",\"field_type\":\"CHECKBOX_MULTI\",\"value\":[")
+                .append("{\"label\":\"One\",\"value\":\"1\"},{\"label\":\"Two\",\"value\":\"2\"}]}]}]}");
+        }
+        builder.append("]}}");
+        return builder.toString();
+    }
+
+    private ConnectionFixtures() {
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,49 @@
+package com.ifttt.connect.api;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.adapters.Rfc3339DateJsonAdapter;
+import java.io.IOException;
+import java.util.Date;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public final class ConnectionJsonAdapterBenchmark {
+
+    @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    // Same configuration as ConnectionApiClient.
+    private final JsonAdapter<Connection> adapter = new Moshi.Builder().add(new HexColorJsonAdapter())
+        .add(Date.class, new Rfc3339DateJsonAdapter().nullSafe())
+        .add(new ConnectionJsonAdapter())
+        .add(new UserTokenJsonAdapter())
+        .build()
+        .adapter(Connection.class);
+
+    @Test
+    public void parseSmallConnection() throws IOException {
+        parse(ConnectionFixtures.connectionJson(2));
+    }
+
+    @Test
+    public void parseMediumConnection() throws IOException {
+        parse(ConnectionFixtures.connectionJson(20));
+    }
+
+    @Test
+    public void parseLargeConnection() throws IOException {
+        parse(ConnectionFixtures.connectionJson(500));
+    }
+
+    private void parse(String json) throws IOException {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            adapter.fromJson(json);
+        }
+    }
+}
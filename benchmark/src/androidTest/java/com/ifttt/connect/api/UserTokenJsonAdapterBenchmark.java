@@ -0,0 +1,32 @@
+package com.ifttt.connect.api;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link UserTokenJsonAdapter} only supports writing the user token request body, so this benchmark measures
+ * serialization.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class UserTokenJsonAdapterBenchmark {
+
+    @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final JsonAdapter<String> adapter = new Moshi.Builder().add(new UserTokenJsonAdapter())
+        .build()
+        .adapter(String.class, UserTokenJsonAdapter.UserTokenRequest.class);
+
+    @Test
+    public void writeUserTokenRequest() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            adapter.toJson("a3f1c2d8e9b04a7f8c6d5e4f3a2b1c0d");
+        }
+    }
+}
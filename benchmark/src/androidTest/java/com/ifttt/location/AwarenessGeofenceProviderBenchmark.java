@@ -0,0 +1,76 @@
+package com.ifttt.location;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.gms.awareness.fence.AwarenessFence;
+import com.ifttt.connect.api.Connection;
+import com.ifttt.connect.api.Feature;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static android.os.Build.VERSION.SDK_INT;
+import static android.os.Build.VERSION_CODES.S;
+
+@RunWith(AndroidJUnit4.class)
+public final class AwarenessGeofenceProviderBenchmark {
+
+    private static final AwarenessGeofenceProvider.DiffCallback NO_OP_CALLBACK
+        = new AwarenessGeofenceProvider.DiffCallback() {
+        @Override
+        public void onAddFence(String key, AwarenessFence fence, PendingIntent pendingIntent) {
+        }
+
+        @Override
+        public void onRemoveFence(String key) {
+        }
+    };
+
+    @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void diff10Fences() {
+        diff(10);
+    }
+
+    @Test
+    public void diff100Fences() {
+        diff(100);
+    }
+
+    @Test
+    public void diff1000Fences() {
+        diff(1000);
+    }
+
+    private void diff(int fenceCount) {
+        Context context = ApplicationProvider.getApplicationContext();
+        // The PendingIntent is only passed through to the callback.
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
+            0,
+            new Intent(context, AwarenessEnterReceiver.class),
+            SDK_INT >= S ? PendingIntent.FLAG_MUTABLE : 0
+        );
+        List<Feature> features = GeofenceFixtures.features(fenceCount);
+        Set<String> registeredFenceKeys = new HashSet<>(GeofenceFixtures.registeredFenceKeys(fenceCount));
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            AwarenessGeofenceProvider.diffFences(Connection.Status.enabled,
+                features,
+                registeredFenceKeys,
+                pendingIntent,
+                pendingIntent,
+                NO_OP_CALLBACK
+            );
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ifttt.location;
+
+import android.content.Context;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.ifttt.location.GeofenceFixtures.CENTER_LAT;
+import static com.ifttt.location.GeofenceFixtures.CENTER_LNG;
+
+@RunWith(AndroidJUnit4.class)
+public final class BackupGeofenceMonitorBenchmark {
+
+    private static final BackupGeofenceMonitor.TransitionListener NO_OP_LISTENER
+        = new BackupGeofenceMonitor.TransitionListener() {
+        @Override
+        public void onTransition(int fenceId, LocationEventUploader.EventType eventType) {
+        }
+
+        @Override
+        public void onTransitionSkipped(int fenceId, String reason) {
+        }
+    };
+
+    @Rule public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final Context context = ApplicationProvider.getApplicationContext();
+
+    @Test
+    public void check10Fences() {
+        check(10, false);
+    }
+
+    @Test
+    public void check100Fences() {
+        check(100, false);
+    }
+
+    @Test
+    public void check1000Fences() {
+        check(1000, false);
+    }
+
+    @Test
+    public void check1000FencesMoving() {
+        check(1000, true);
+    }
+
+    @After
+    public void tearDown() {
+        BackupGeofenceMonitor.get(context).clear();
+    }
+
+    /**
+     * @param moving if true, alternate between a location inside the center fence and a location outside of it, so
+     * that every check changes a geofence state. Otherwise the same location is checked, which is the steady state.
+     */
+    private void check(int fenceCount, boolean moving) {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(context);
+        monitor.clear();
+        monitor.updateMonitoredGeofences(GeofenceFixtures.features(fenceCount));
+
+        BenchmarkState state = benchmarkRule.getState();
+        boolean inside = false;
+        while (state.keepRunning()) {
+            double lat = CENTER_LAT + (inside ? 0D : 0.001D);
+            monitor.checkMonitoredGeofences(lat, CENTER_LNG, NO_OP_LISTENER);
+            if (moving) {
+                inside = !inside;
+            }
+        }
+    }
+}
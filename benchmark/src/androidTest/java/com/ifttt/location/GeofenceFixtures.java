@@ -0,0 +1,82 @@
+package com.ifttt.location;
+
+import com.ifttt.connect.api.Feature;
+import com.ifttt.connect.api.LocationFieldValue;
+import com.ifttt.connect.api.UserFeature;
+import com.ifttt.connect.api.UserFeatureField;
+import com.ifttt.connect.api.UserFeatureStep;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.ifttt.connect.api.FeatureStep.StepType.Trigger;
+import static com.ifttt.location.GeofenceProvider.FIELD_TYPE_LOCATION_ENTER;
+import static com.ifttt.location.GeofenceProvider.FIELD_TYPE_LOCATION_ENTER_EXIT;
+import static com.ifttt.location.GeofenceProvider.FIELD_TYPE_LOCATION_EXIT;
+
+/**
+ * Generated location features for benchmarks.
+ */
+final class GeofenceFixtures {
+
+    static final double CENTER_LAT = 37.7749D;
+    static final double CENTER_LNG = -122.4194D;
+
+    /** Distance between two neighbouring fences in degrees, roughly 500m. */
+    private static final double SPACING_DEGREES = 0.0045D;
+
+    /**
+     * @param fenceCount number of geofences. Fences are laid out on a square grid around
+     * ({@link #CENTER_LAT}, {@link #CENTER_LNG}), with a 100m radius, and cycle through the enter, exit and
+     * enter-or-exit field types.
+     */
+    static List<Feature> features(int fenceCount) {
+        String[] fieldTypes = {
+            FIELD_TYPE_LOCATION_ENTER, FIELD_TYPE_LOCATION_EXIT, FIELD_TYPE_LOCATION_ENTER_EXIT
+        };
+        int columns = (int) Math.ceil(Math.sqrt(fenceCount));
+
+        List<Feature> features = new ArrayList<>(fenceCount);
+        for (int i = 0; i < fenceCount; i++) {
+            double lat = CENTER_LAT + (i / columns - columns / 2) * SPACING_DEGREES;
+            double lng = CENTER_LNG + (i % columns - columns / 2) * SPACING_DEGREES;
+            UserFeatureField<LocationFieldValue> field = new UserFeatureField<>(new LocationFieldValue(lat,
+                lng,
+                100D,
+                ""
+            ), fieldTypes[i % fieldTypes.length], "location");
+            UserFeatureStep step = new UserFeatureStep(Trigger,
+                "step_" + i,
+                "trigger_" + i,
+                Collections.singletonList(field)
+            );
+            UserFeature userFeature = new UserFeature("user_feature_" + i,
+                "feature_" + i,
+                true,
+                Collections.singletonList(step)
+            );
+            features.add(new Feature("feature_" + i,
+                "Feature " + i,
+                "description",
+                "icon_url",
+                Collections.singletonList(userFeature)
+            ));
+        }
+        return features;
+    }
+
+    /**
+     * @return registered fence keys for the given number of geofences, as returned by the Awareness API.
+     */
+    static List<String> registeredFenceKeys(int fenceCount) {
+        List<String> keys = new ArrayList<>(fenceCount);
+        for (int i = 0; i < fenceCount; i++) {
+            keys.add(LocationEventUploadHelper.getIftttFenceKey("step_" + i));
+        }
+        return keys;
+    }
+
+    private GeofenceFixtures() {
+        throw new AssertionError();
+    }
+}
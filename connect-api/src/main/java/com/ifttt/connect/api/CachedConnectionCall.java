@@ -0,0 +1,174 @@
+package com.ifttt.connect.api;
+
+import com.squareup.moshi.JsonAdapter;
+import java.io.IOException;
+import javax.annotation.Nullable;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * {@link Call} implementation for the show Connection API that revalidates the payload stored in a
+ * {@link ConnectionCache} with an If-None-Match request. If the server responds with a 304, or with the payload of the
+ * same ETag, the cached {@link Connection} instance is returned, without parsing the payload.
+ */
+final class CachedConnectionCall implements Call<Connection> {
+
+    private final OkHttpClient okHttpClient;
+    private final HttpUrl baseUrl;
+    private final String connectionId;
+    private final UserTokenProvider userTokenProvider;
+    private final ConnectionCache connectionCache;
+    private final JsonAdapter<Connection> connectionJsonAdapter;
+
+    @Nullable private volatile okhttp3.Call rawCall;
+    private volatile boolean canceled;
+    private boolean executed;
+
+    CachedConnectionCall(
+        OkHttpClient okHttpClient,
+        HttpUrl baseUrl,
+        String connectionId,
+        UserTokenProvider userTokenProvider,
+        ConnectionCache connectionCache,
+        JsonAdapter<Connection> connectionJsonAdapter
+    ) {
+        this.okHttpClient = okHttpClient;
+        this.baseUrl = baseUrl;
+        this.connectionId = connectionId;
+        this.userTokenProvider = userTokenProvider;
+        this.connectionCache = connectionCache;
+        this.connectionJsonAdapter = connectionJsonAdapter;
+    }
+
+    /**
+     * @return the cached entry for the connection and the current user token, or null if there is none. This may read
+     * from disk, and should not be called on the main thread.
+     */
+    @Nullable
+    ConnectionCache.Entry cachedEntry() {
+        return connectionCache.get(connectionId, userToken());
+    }
+
+    @Override
+    public Response<Connection> execute() throws IOException {
+        synchronized (this) {
+            if (executed) {
+                throw new IllegalStateException("Already executed.");
+            }
+            executed = true;
+        }
+
+        String userToken = userToken();
+        ConnectionCache.Entry entry = connectionCache.get(connectionId, userToken);
+
+        Request.Builder requestBuilder = new Request.Builder().url(request().url());
+        if (entry != null) {
+            requestBuilder.header("If-None-Match", entry.etag);
+        }
+
+        okhttp3.Call call = okHttpClient.newCall(requestBuilder.build());
+        rawCall = call;
+        if (canceled) {
+            call.cancel();
+        }
+
+        try (okhttp3.Response response = call.execute()) {
+            ResponseBody body = response.body();
+            if (response.code() == 304 && entry != null) {
+                // Retrofit only accepts 2xx raw responses for successful results.
+                return Response.success(entry.connection,
+                    response.newBuilder().code(200).message("OK").body(null).build()
+                );
+            }
+
+            if (!response.isSuccessful()) {
+                ResponseBody errorBody = ResponseBody.create(body.bytes(), body.contentType());
+                return Response.error(errorBody, response.newBuilder().body(null).build());
+            }
+
+            String etag = response.header("ETag");
+            if (entry != null && entry.etag.equals(etag)) {
+                // The server ignored If-None-Match, but the payload hasn't changed.
+                return Response.success(entry.connection, response.newBuilder().body(null).build());
+            }
+
+            String json = body.string();
+            Connection connection = connectionJsonAdapter.fromJson(json);
+            if (connection != null && etag != null) {
+                connectionCache.put(connectionId, userToken, etag, json, connection);
+            }
+
+            return Response.success(connection, response.newBuilder().body(null).build());
+        }
+    }
+
+    @Override
+    public void enqueue(Callback<Connection> callback) {
+        okHttpClient.dispatcher().executorService().execute(() -> {
+            try {
+                Response<Connection> response = execute();
+                CachedConnectionPendingResult.MAIN_HANDLER.post(() -> callback.onResponse(this, response));
+            } catch (Throwable t) {
+                CachedConnectionPendingResult.MAIN_HANDLER.post(() -> callback.onFailure(this, t));
+            }
+        });
+    }
+
+    @Override
+    public synchronized boolean isExecuted() {
+        return executed;
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        okhttp3.Call call = rawCall;
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    @Override
+    public Call<Connection> clone() {
+        return new CachedConnectionCall(okHttpClient,
+            baseUrl,
+            connectionId,
+            userTokenProvider,
+            connectionCache,
+            connectionJsonAdapter
+        );
+    }
+
+    @Override
+    public Request request() {
+        HttpUrl url = baseUrl.newBuilder().encodedPath("/v2/connections").addPathSegment(connectionId).build();
+        return new Request.Builder().url(url).build();
+    }
+
+    @Override
+    public Timeout timeout() {
+        okhttp3.Call call = rawCall;
+        return call != null ? call.timeout() : Timeout.NONE;
+    }
+
+    @Nullable
+    private String userToken() {
+        try {
+            return userTokenProvider.getUserToken();
+        } catch (Exception e) {
+            // Same as TokenInterceptor, the request is made without a token.
+            return null;
+        }
+    }
+}
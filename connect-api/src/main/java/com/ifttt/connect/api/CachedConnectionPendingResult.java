@@ -0,0 +1,83 @@
+package com.ifttt.connect.api;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.squareup.moshi.JsonAdapter;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import retrofit2.Call;
+
+/**
+ * {@link PendingResult} for the show Connection API when the connection cache is enabled. When executed, the cached
+ * {@link Connection}, if any, is delivered to the callback first, and the payload is then revalidated in the
+ * background. The callback is called again only if the server returned a different payload.
+ */
+final class CachedConnectionPendingResult implements PendingResult<Connection> {
+
+    static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final CachedConnectionCall call;
+    private final Executor executor;
+    private final JsonAdapter<ErrorResponse> errorResponseJsonAdapter;
+
+    CachedConnectionPendingResult(
+        CachedConnectionCall call, Executor executor, JsonAdapter<ErrorResponse> errorResponseJsonAdapter
+    ) {
+        this.call = call;
+        this.executor = executor;
+        this.errorResponseJsonAdapter = errorResponseJsonAdapter;
+    }
+
+    @Override
+    public Call<Connection> getCall() {
+        return call;
+    }
+
+    @Override
+    public void execute(ResultCallback<Connection> callback) {
+        executor.execute(() -> {
+            ConnectionCache.Entry entry = call.cachedEntry();
+            if (entry != null) {
+                MAIN_HANDLER.post(() -> {
+                    if (!call.isCanceled()) {
+                        callback.onSuccess(entry.connection);
+                    }
+                });
+            }
+
+            new ApiPendingResult<>(call, errorResponseJsonAdapter).execute(new ResultCallback<Connection>() {
+                @Override
+                public void onSuccess(Connection result) {
+                    // An unchanged payload, with a 304 response or the same ETag, returns the same instance that has
+                    // already been delivered.
+                    if (entry == null || result != entry.connection) {
+                        callback.onSuccess(result);
+                    }
+                }
+
+                @Override
+                public void onFailure(ErrorResponse errorResponse) {
+                    // Keep showing the cached copy if revalidation fails.
+                    if (entry == null) {
+                        callback.onFailure(errorResponse);
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * @return the cached Connection for the current user token, or null if there is none. This may read from disk, and
+     * should not be called on the main thread.
+     */
+    @Nullable
+    Connection cachedConnection() {
+        ConnectionCache.Entry entry = call.cachedEntry();
+        return entry != null ? entry.connection : null;
+    }
+
+    @Override
+    public void cancel() {
+        call.cancel();
+    }
+}
@@ -6,9 +6,11 @@ import android.provider.Settings;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 import com.squareup.moshi.adapters.Rfc3339DateJsonAdapter;
+import java.io.File;
 import java.util.Date;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nullable;
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import retrofit2.Retrofit;
@@ -27,22 +29,27 @@ public final class ConnectionApiClient {
 
     private final String anonymousId;
     private final String inviteCode;
+    @Nullable private final File connectionCacheDirectory;
+    @Nullable private final ConnectionCache connectionCache;
 
     public final UserTokenProvider userTokenProvider;
 
     private ConnectionApiClient(
-        RetrofitConnectionApi retrofitConnectionApi,
-        JsonAdapter<ErrorResponse> errorResponseJsonAdapter,
+        ConnectionApi connectionApi,
         TokenInterceptor tokenInterceptor,
         String anonymousId,
         String inviteCode,
+        @Nullable File connectionCacheDirectory,
+        @Nullable ConnectionCache connectionCache,
         UserTokenProvider userTokenProvider
     ) {
+        this.connectionApi = connectionApi;
         this.tokenInterceptor = tokenInterceptor;
         this.anonymousId = anonymousId;
         this.inviteCode = inviteCode;
+        this.connectionCacheDirectory = connectionCacheDirectory;
+        this.connectionCache = connectionCache;
         this.userTokenProvider = userTokenProvider;
-        connectionApi = new ConnectionApiImpl(retrofitConnectionApi, errorResponseJsonAdapter);
     }
 
     /**
@@ -68,6 +75,17 @@ public final class ConnectionApiClient {
         return tokenInterceptor;
     }
 
+    /**
+     * Remove all of the Connections stored by the disk cache, see {@link Builder#setConnectionCache(File)}. Call this
+     * method when the user token is cleared, so that the Connections of the previous user are not kept on disk. No-op if
+     * the cache is not enabled.
+     */
+    public void clearConnectionCache() {
+        if (connectionCache != null) {
+            connectionCache.clear();
+        }
+    }
+
     /**
      * @param newUserTokenProvider a new {@link UserTokenProvider} instance to replace with the current one.
      *
@@ -80,7 +98,11 @@ public final class ConnectionApiClient {
             userTokenProvider = newUserTokenProvider;
         }
 
-        return new Builder(anonymousId, userTokenProvider).setInviteCode(inviteCode);
+        Builder builder = new Builder(anonymousId, userTokenProvider).setInviteCode(inviteCode);
+        if (connectionCacheDirectory != null) {
+            builder.setConnectionCache(connectionCacheDirectory);
+        }
+        return builder;
     }
 
     /**
@@ -91,6 +113,7 @@ public final class ConnectionApiClient {
         private final String anonymousId;
 
         @Nullable private String inviteCode;
+        @Nullable private File connectionCacheDirectory;
 
         private final UserTokenProvider userTokenProvider;
 
@@ -119,6 +142,24 @@ public final class ConnectionApiClient {
             return this;
         }
 
+        /**
+         * Enable the disk cache for {@link ConnectionApi#showConnection(String)}. Connection payloads are stored in
+         * the given directory, keyed by the connection id and the user token, and are revalidated with the server
+         * using their ETag. If the Connection has not changed, the cached copy is returned without downloading or
+         * parsing the payload again.
+         *
+         * With the cache enabled, {@link PendingResult#execute(PendingResult.ResultCallback)} delivers the cached
+         * Connection first if there is one, and calls the callback again only if the revalidation returned a
+         * different Connection. Revalidation failures are not reported if a cached Connection has been delivered.
+         *
+         * @param directory A directory that is exclusively used for the connection cache, e.g a sub-directory of
+         * {@link Context#getCacheDir()}.
+         */
+        public Builder setConnectionCache(File directory) {
+            this.connectionCacheDirectory = directory;
+            return this;
+        }
+
         public ConnectionApiClient build() {
             return buildWithBaseUrl("https://connect.ifttt.com");
         }
@@ -131,9 +172,10 @@ public final class ConnectionApiClient {
                 .build();
             JsonAdapter<ErrorResponse> errorResponseJsonAdapter = moshi.adapter(ErrorResponse.class);
             TokenInterceptor tokenInterceptor = new TokenInterceptor(userTokenProvider);
-            OkHttpClient.Builder builder
-                = new OkHttpClient.Builder().addInterceptor(new SdkInfoInterceptor(anonymousId)).addInterceptor(
-                tokenInterceptor);
+            OkHttpClient.Builder builder = SdkHttpClient.get()
+                .newBuilder()
+                .addInterceptor(new SdkInfoInterceptor(anonymousId))
+                .addInterceptor(tokenInterceptor);
 
             if (inviteCode != null) {
                 builder.addInterceptor(new InviteCodeInterceptor(inviteCode));
@@ -145,17 +187,36 @@ public final class ConnectionApiClient {
 
             RetrofitConnectionApi retrofitConnectionApi = retrofit.create(RetrofitConnectionApi.class);
 
-            return new ConnectionApiClient(retrofitConnectionApi,
-                errorResponseJsonAdapter,
+            ConnectionApi connectionApi;
+            ConnectionCache connectionCache;
+            if (connectionCacheDirectory != null) {
+                JsonAdapter<Connection> connectionJsonAdapter = moshi.adapter(Connection.class);
+                connectionCache = new ConnectionCache(connectionCacheDirectory, connectionJsonAdapter);
+                connectionApi = new CachedConnectionApiImpl(retrofitConnectionApi,
+                    errorResponseJsonAdapter,
+                    connectionJsonAdapter,
+                    okHttpClient,
+                    HttpUrl.get(baseUrl),
+                    userTokenProvider,
+                    connectionCache
+                );
+            } else {
+                connectionCache = null;
+                connectionApi = new ConnectionApiImpl(retrofitConnectionApi, errorResponseJsonAdapter);
+            }
+
+            return new ConnectionApiClient(connectionApi,
                 tokenInterceptor,
                 anonymousId,
                 inviteCode,
+                connectionCacheDirectory,
+                connectionCache,
                 userTokenProvider
             );
         }
     }
 
-    private static final class ConnectionApiImpl implements ConnectionApi {
+    private static class ConnectionApiImpl implements ConnectionApi {
 
         private final RetrofitConnectionApi retrofitConnectionApi;
         private final JsonAdapter<ErrorResponse> errorResponseJsonAdapter;
@@ -187,4 +248,47 @@ public final class ConnectionApiClient {
             return new ApiPendingResult<>(retrofitConnectionApi.user(), errorResponseJsonAdapter);
         }
     }
+
+    private static final class CachedConnectionApiImpl extends ConnectionApiImpl {
+
+        private final JsonAdapter<ErrorResponse> errorResponseJsonAdapter;
+        private final JsonAdapter<Connection> connectionJsonAdapter;
+        private final OkHttpClient okHttpClient;
+        private final HttpUrl baseUrl;
+        private final UserTokenProvider userTokenProvider;
+        private final ConnectionCache connectionCache;
+
+        CachedConnectionApiImpl(
+            RetrofitConnectionApi retrofitConnectionApi,
+            JsonAdapter<ErrorResponse> errorResponseJsonAdapter,
+            JsonAdapter<Connection> connectionJsonAdapter,
+            OkHttpClient okHttpClient,
+            HttpUrl baseUrl,
+            UserTokenProvider userTokenProvider,
+            ConnectionCache connectionCache
+        ) {
+            super(retrofitConnectionApi, errorResponseJsonAdapter);
+            this.errorResponseJsonAdapter = errorResponseJsonAdapter;
+            this.connectionJsonAdapter = connectionJsonAdapter;
+            this.okHttpClient = okHttpClient;
+            this.baseUrl = baseUrl;
+            this.userTokenProvider = userTokenProvider;
+            this.connectionCache = connectionCache;
+        }
+
+        @Override
+        public PendingResult<Connection> showConnection(String id) {
+            CachedConnectionCall call = new CachedConnectionCall(okHttpClient,
+                baseUrl,
+                id,
+                userTokenProvider,
+                connectionCache,
+                connectionJsonAdapter
+            );
+            return new CachedConnectionPendingResult(call,
+                okHttpClient.dispatcher().executorService(),
+                errorResponseJsonAdapter
+            );
+        }
+    }
 }
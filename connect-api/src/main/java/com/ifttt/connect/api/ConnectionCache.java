@@ -0,0 +1,166 @@
+package com.ifttt.connect.api;
+
+import com.squareup.moshi.JsonAdapter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+/**
+ * Disk cache of the Connection payloads returned by {@link ConnectionApi#showConnection(String)}, keyed by the
+ * connection id and the user token the payload was fetched with. Each entry stores the ETag of the response as well as
+ * the raw JSON, so that the payload can be revalidated with an If-None-Match request.
+ *
+ * Entries that have been read or written in this process are also kept in memory along with the parsed
+ * {@link Connection}, so that a 304 response can be served without parsing the payload again.
+ *
+ * At most {@link #MAX_DISK_ENTRIES} entries are kept on disk, the entries that were least recently loaded or written
+ * are removed first.
+ */
+final class ConnectionCache {
+
+    static final int MAX_DISK_ENTRIES = 32;
+
+    private static final int MAX_MEMORY_ENTRIES = 16;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final JsonAdapter<Connection> connectionJsonAdapter;
+    private final LinkedHashMap<String, Entry> memoryEntries = new LinkedHashMap<String, Entry>(MAX_MEMORY_ENTRIES,
+        0.75F,
+        true
+    ) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+
+    ConnectionCache(File directory, JsonAdapter<Connection> connectionJsonAdapter) {
+        this.directory = directory;
+        this.connectionJsonAdapter = connectionJsonAdapter;
+    }
+
+    /**
+     * @return the cached entry for the connection and user token, or null if there is no valid entry. This may read
+     * and parse the payload from disk, and should not be called on the main thread.
+     */
+    @Nullable
+    synchronized Entry get(String connectionId, @Nullable String userToken) {
+        String key = key(connectionId, userToken);
+        Entry entry = memoryEntries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        File file = new File(directory, key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            String etag = source.readUtf8LineStrict();
+            Connection connection = connectionJsonAdapter.fromJson(source);
+            if (connection == null) {
+                return null;
+            }
+
+            entry = new Entry(etag, connection);
+            memoryEntries.put(key, entry);
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            // Corrupted entry, it will be replaced by the next successful response.
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Store the response payload for the connection and user token.
+     *
+     * @return the new cache entry.
+     */
+    synchronized Entry put(
+        String connectionId, @Nullable String userToken, String etag, String json, Connection connection
+    ) {
+        String key = key(connectionId, userToken);
+        Entry entry = new Entry(etag, connection);
+        memoryEntries.put(key, entry);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            return entry;
+        }
+
+        // Write to a temporary file first, so that a partial write never replaces a valid entry.
+        File file = new File(directory, key);
+        File tempFile = new File(directory, key + TEMP_FILE_SUFFIX);
+        try (BufferedSink sink = Okio.buffer(Okio.sink(tempFile))) {
+            sink.writeUtf8(etag).writeByte('\n').writeUtf8(json);
+        } catch (IOException e) {
+            tempFile.delete();
+            return entry;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+        trimToSize();
+        return entry;
+    }
+
+    /**
+     * Remove all of the cached entries.
+     */
+    synchronized void clear() {
+        memoryEntries.clear();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Remove the oldest entries from disk and memory until there are at most {@link #MAX_DISK_ENTRIES} entries.
+     */
+    private void trimToSize() {
+        File[] files = directory.listFiles((dir, name) -> !name.endsWith(TEMP_FILE_SUFFIX));
+        if (files == null || files.length <= MAX_DISK_ENTRIES) {
+            return;
+        }
+
+        Arrays.sort(files, (first, second) -> Long.compare(first.lastModified(), second.lastModified()));
+        for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+            // File names are the cache keys.
+            memoryEntries.remove(files[i].getName());
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Cache key for the connection and user token. The token is hashed so that it is never written to disk.
+     */
+    private static String key(String connectionId, @Nullable String userToken) {
+        return ByteString.encodeUtf8(connectionId + "\n" + (userToken == null ? "" : userToken)).sha256().hex();
+    }
+
+    static final class Entry {
+        final String etag;
+        final Connection connection;
+
+        Entry(String etag, Connection connection) {
+            this.etag = etag;
+            this.connection = connection;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.ifttt.connect.api;
 
+import android.graphics.Color;
 import com.squareup.moshi.FromJson;
-import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.JsonReader;
 import com.squareup.moshi.JsonWriter;
 import com.squareup.moshi.ToJson;
@@ -9,8 +9,8 @@ import com.squareup.moshi.ToJson;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -19,10 +19,14 @@ import javax.annotation.Nullable;
 
 /**
  * JSON adapter for single Connection object from {@link ConnectionApi#showConnection(String)}.
+ *
+ * The whole Connection graph is decoded in a single pass over the {@link JsonReader}, without reflective delegate
+ * adapters. Feature steps and their fields are not exposed through {@link Feature}, so they are skipped instead of
+ * being decoded.
  */
 final class ConnectionJsonAdapter {
 
-    private final JsonReader.Options connectionOptions = JsonReader.Options.of("id",
+    private static final JsonReader.Options CONNECTION_OPTIONS = JsonReader.Options.of("id",
         "name",
         "description",
         "user_status",
@@ -32,29 +36,57 @@ final class ConnectionJsonAdapter {
         "features",
         "user_connection"
     );
-    private final JsonReader.Options userConnectionOptions = JsonReader.Options.of("user_features");
-    private final JsonReader.Options userFeatureOptions = JsonReader.Options.of("id",
+    private static final JsonReader.Options SERVICE_OPTIONS = JsonReader.Options.of("service_id",
+        "service_name",
+        "service_short_name",
+        "is_primary",
+        "monochrome_icon_url",
+        "brand_color",
+        "url"
+    );
+    private static final JsonReader.Options COVER_IMAGE_OPTIONS = JsonReader.Options.of("480w_url",
+        "720w_url",
+        "1080w_url",
+        "1440w_url",
+        "2880w_url",
+        "4320w_url"
+    );
+    private static final JsonReader.Options FEATURE_OPTIONS = JsonReader.Options.of("id",
+        "title",
+        "description",
+        "icon_url"
+    );
+    private static final JsonReader.Options USER_CONNECTION_OPTIONS = JsonReader.Options.of("user_features");
+    private static final JsonReader.Options USER_FEATURE_OPTIONS = JsonReader.Options.of("id",
         "feature_id",
         "enabled",
         "user_feature_triggers",
         "user_feature_queries",
         "user_feature_actions"
     );
-    private final JsonReader.Options triggerOptions = JsonReader.Options.of("feature_trigger_id", "id", "user_fields");
-    private final JsonReader.Options queryOptions = JsonReader.Options.of("feature_query_id", "id", "user_fields");
-    private final JsonReader.Options actionOptions = JsonReader.Options.of("feature_action_id", "id", "user_fields");
-    private final JsonReader.Options fieldOptions = JsonReader.Options.of("field_id", "field_type", "value");
+    private static final JsonReader.Options TRIGGER_OPTIONS = JsonReader.Options.of("feature_trigger_id",
+        "id",
+        "user_fields"
+    );
+    private static final JsonReader.Options QUERY_OPTIONS = JsonReader.Options.of("feature_query_id",
+        "id",
+        "user_fields"
+    );
+    private static final JsonReader.Options ACTION_OPTIONS = JsonReader.Options.of("feature_action_id",
+        "id",
+        "user_fields"
+    );
+    private static final JsonReader.Options FIELD_OPTIONS = JsonReader.Options.of("field_id", "field_type", "value");
+    private static final JsonReader.Options LOCATION_OPTIONS = JsonReader.Options.of("lat",
+        "lng",
+        "radius",
+        "address"
+    );
+    private static final JsonReader.Options COLLECTION_OPTIONS = JsonReader.Options.of("group", "label", "value");
+    private static final JsonReader.Options CHECKBOX_OPTIONS = JsonReader.Options.of("label", "value");
 
     @FromJson
-    Connection fromJson(
-        JsonReader jsonReader,
-        JsonAdapter<List<FeatureJson>> delegate,
-        JsonAdapter<LocationFieldValue> locationDelegate,
-        JsonAdapter<CoverImage> coverImageDelegate,
-        JsonAdapter<List<Service>> servicesDelegate,
-        JsonAdapter<CollectionFieldValue> collectionFieldDelegate,
-        JsonAdapter<List<CheckBoxValue>> checkBoxValueDelegate
-    ) throws IOException {
+    Connection fromJson(JsonReader jsonReader) throws IOException {
         String id = null;
         String name = null;
         String description = null;
@@ -62,13 +94,12 @@ final class ConnectionJsonAdapter {
         String url = null;
         List<Service> services = null;
         CoverImage coverImage = null;
-        List<FeatureJson> featureJsonList = new ArrayList<>();
-        List<Feature> features = new ArrayList<>();
-        Map<String, List<UserFeature>> userFeatureGroup = new LinkedHashMap<>();
+        List<FeatureJson> featureJsonList = null;
+        Map<String, List<UserFeature>> userFeatureGroup = null;
 
         jsonReader.beginObject();
         while (jsonReader.hasNext()) {
-            int connectionIndex = jsonReader.selectName(connectionOptions);
+            int connectionIndex = jsonReader.selectName(CONNECTION_OPTIONS);
             switch (connectionIndex) {
                 case 0:
                     id = jsonReader.nextString();
@@ -83,6 +114,7 @@ final class ConnectionJsonAdapter {
                     if (jsonReader.peek() == JsonReader.Token.STRING) {
                         userStatus = Connection.Status.valueOf(jsonReader.nextString());
                     } else {
+                        jsonReader.skipValue();
                         userStatus = Connection.Status.unknown;
                     }
                     break;
@@ -90,23 +122,19 @@ final class ConnectionJsonAdapter {
                     url = jsonReader.nextString();
                     break;
                 case 5:
-                    services = servicesDelegate.fromJson(jsonReader);
+                    services = readServices(jsonReader);
                     break;
                 case 6:
-                    coverImage = coverImageDelegate.fromJson(jsonReader);
+                    coverImage = readCoverImage(jsonReader);
                     break;
                 case 7:
-                    featureJsonList = delegate.fromJson(jsonReader);
+                    featureJsonList = readFeatures(jsonReader);
                     break;
                 case 8:
-                    checkNonNull(featureJsonList);
-                    userFeatureGroup = fromJsonToUserFeature(jsonReader,
-                        locationDelegate,
-                        checkBoxValueDelegate,
-                        collectionFieldDelegate
-                    );
+                    userFeatureGroup = readUserConnection(jsonReader);
                     break;
                 default:
+                    jsonReader.skipName();
                     jsonReader.skipValue();
             }
         }
@@ -118,13 +146,17 @@ final class ConnectionJsonAdapter {
         checkNonNull(url);
         checkNonNull(services);
 
-        for (FeatureJson featureJson : featureJsonList) {
-            features.add(new Feature(featureJson.id,
-                featureJson.title,
-                featureJson.description,
-                featureJson.icon_url,
-                userFeatureGroup.get(featureJson.id)
-            ));
+        // Features and user features can appear in either order, they can only be joined once both are read.
+        List<Feature> features = new ArrayList<>(featureJsonList == null ? 0 : featureJsonList.size());
+        if (featureJsonList != null) {
+            for (FeatureJson featureJson : featureJsonList) {
+                features.add(new Feature(featureJson.id,
+                    featureJson.title,
+                    featureJson.description,
+                    featureJson.iconUrl,
+                    userFeatureGroup == null ? null : userFeatureGroup.get(featureJson.id)
+                ));
+            }
         }
 
         return new Connection(id, name, description, userStatus, url, services, coverImage, features);
@@ -135,17 +167,125 @@ final class ConnectionJsonAdapter {
         throw new UnsupportedOperationException();
     }
 
-    private Map<String, List<UserFeature>> fromJsonToUserFeature(
-        JsonReader jsonReader,
-        JsonAdapter<LocationFieldValue> locationDelegate,
-        JsonAdapter<List<CheckBoxValue>> checkBoxValueDelegate,
-        JsonAdapter<CollectionFieldValue> collectionFieldDelegate
-    ) throws IOException {
-        ArrayList<UserFeature> userFeatures = new ArrayList<>();
+    private static List<Service> readServices(JsonReader jsonReader) throws IOException {
+        List<Service> services = new ArrayList<>();
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            String id = null;
+            String name = null;
+            String shortName = null;
+            boolean isPrimary = false;
+            String monochromeIconUrl = null;
+            int brandColor = 0;
+            String url = null;
+
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.selectName(SERVICE_OPTIONS)) {
+                    case 0:
+                        id = nextStringOrNull(jsonReader);
+                        break;
+                    case 1:
+                        name = nextStringOrNull(jsonReader);
+                        break;
+                    case 2:
+                        shortName = nextStringOrNull(jsonReader);
+                        break;
+                    case 3:
+                        isPrimary = jsonReader.nextBoolean();
+                        break;
+                    case 4:
+                        monochromeIconUrl = nextStringOrNull(jsonReader);
+                        break;
+                    case 5:
+                        brandColor = Color.parseColor(jsonReader.nextString());
+                        break;
+                    case 6:
+                        url = nextStringOrNull(jsonReader);
+                        break;
+                    default:
+                        jsonReader.skipName();
+                        jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+
+            services.add(new Service(id, name, shortName, isPrimary, monochromeIconUrl, brandColor, url));
+        }
+        jsonReader.endArray();
+        return services;
+    }
+
+    @Nullable
+    private static CoverImage readCoverImage(JsonReader jsonReader) throws IOException {
+        if (jsonReader.peek() == JsonReader.Token.NULL) {
+            return jsonReader.nextNull();
+        }
+
+        String[] urls = new String[6];
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            int index = jsonReader.selectName(COVER_IMAGE_OPTIONS);
+            if (index == -1) {
+                jsonReader.skipName();
+                jsonReader.skipValue();
+                continue;
+            }
+
+            urls[index] = nextStringOrNull(jsonReader);
+        }
+        jsonReader.endObject();
+
+        return new CoverImage(urls[0], urls[1], urls[2], urls[3], urls[4], urls[5]);
+    }
+
+    private static List<FeatureJson> readFeatures(JsonReader jsonReader) throws IOException {
+        List<FeatureJson> featureJsonList = new ArrayList<>();
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            String id = null;
+            String title = null;
+            String description = null;
+            String iconUrl = null;
+
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.selectName(FEATURE_OPTIONS)) {
+                    case 0:
+                        id = nextStringOrNull(jsonReader);
+                        break;
+                    case 1:
+                        title = nextStringOrNull(jsonReader);
+                        break;
+                    case 2:
+                        description = nextStringOrNull(jsonReader);
+                        break;
+                    case 3:
+                        iconUrl = nextStringOrNull(jsonReader);
+                        break;
+                    default:
+                        jsonReader.skipName();
+                        jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+
+            featureJsonList.add(new FeatureJson(id, title, description, iconUrl));
+        }
+        jsonReader.endArray();
+        return featureJsonList;
+    }
+
+    /**
+     * Read the user features, grouped by their feature id.
+     */
+    private static Map<String, List<UserFeature>> readUserConnection(JsonReader jsonReader) throws IOException {
+        Map<String, List<UserFeature>> userFeatureGroup = new HashMap<>();
         jsonReader.beginObject();
         while (jsonReader.hasNext()) {
-            int index = jsonReader.selectName(userConnectionOptions);
+            int index = jsonReader.selectName(USER_CONNECTION_OPTIONS);
             if (index != 0) {
+                jsonReader.skipName();
                 jsonReader.skipValue();
                 continue;
             }
@@ -159,7 +299,7 @@ final class ConnectionJsonAdapter {
 
                 jsonReader.beginObject();
                 while (jsonReader.hasNext()) {
-                    int featureIndex = jsonReader.selectName(userFeatureOptions);
+                    int featureIndex = jsonReader.selectName(USER_FEATURE_OPTIONS);
                     switch (featureIndex) {
                         case 0:
                             id = jsonReader.nextString();
@@ -171,39 +311,16 @@ final class ConnectionJsonAdapter {
                             enabled = jsonReader.nextBoolean();
                             break;
                         case 3:
-                            // Triggers
-                            parseUserSteps(jsonReader,
-                                FeatureStep.StepType.Trigger,
-                                triggerOptions,
-                                locationDelegate,
-                                collectionFieldDelegate,
-                                checkBoxValueDelegate,
-                                steps
-                            );
+                            readUserSteps(jsonReader, FeatureStep.StepType.Trigger, TRIGGER_OPTIONS, steps);
                             break;
                         case 4:
-                            // Queries
-                            parseUserSteps(jsonReader,
-                                FeatureStep.StepType.Query,
-                                queryOptions,
-                                locationDelegate,
-                                collectionFieldDelegate,
-                                checkBoxValueDelegate,
-                                steps
-                            );
+                            readUserSteps(jsonReader, FeatureStep.StepType.Query, QUERY_OPTIONS, steps);
                             break;
                         case 5:
-                            // Actions.
-                            parseUserSteps(jsonReader,
-                                FeatureStep.StepType.Action,
-                                actionOptions,
-                                locationDelegate,
-                                collectionFieldDelegate,
-                                checkBoxValueDelegate,
-                                steps
-                            );
+                            readUserSteps(jsonReader, FeatureStep.StepType.Action, ACTION_OPTIONS, steps);
                             break;
                         default:
+                            jsonReader.skipName();
                             jsonReader.skipValue();
                     }
                 }
@@ -212,31 +329,22 @@ final class ConnectionJsonAdapter {
                 checkNonNull(id);
                 checkNonNull(featureId);
 
+                List<UserFeature> userFeatures = userFeatureGroup.get(featureId);
+                if (userFeatures == null) {
+                    userFeatures = new ArrayList<>(1);
+                    userFeatureGroup.put(featureId, userFeatures);
+                }
                 userFeatures.add(new UserFeature(id, featureId, enabled, steps));
             }
             jsonReader.endArray();
         }
         jsonReader.endObject();
 
-        Map<String, List<UserFeature>> userFeatureGroup = new LinkedHashMap<>();
-        for (UserFeature userFeature : userFeatures) {
-            if (userFeatureGroup.get(userFeature.featureId) == null) {
-                userFeatureGroup.put(userFeature.featureId, new ArrayList<>());
-            }
-            userFeatureGroup.get(userFeature.featureId).add(userFeature);
-        }
-
         return userFeatureGroup;
     }
 
-    private void parseUserSteps(
-        JsonReader jsonReader,
-        FeatureStep.StepType type,
-        JsonReader.Options options,
-        JsonAdapter<LocationFieldValue> locationDelegate,
-        JsonAdapter<CollectionFieldValue> collectionFieldDelegate,
-        JsonAdapter<List<CheckBoxValue>> checkboxFieldDelegate,
-        List<UserFeatureStep> steps
+    private static void readUserSteps(
+        JsonReader jsonReader, FeatureStep.StepType type, JsonReader.Options options, List<UserFeatureStep> steps
     ) throws IOException {
         jsonReader.beginArray();
         while (jsonReader.hasNext()) {
@@ -245,8 +353,8 @@ final class ConnectionJsonAdapter {
             String id = null;
             List<UserFeatureField> fields = new ArrayList<>();
             while (jsonReader.hasNext()) {
-                int triggerIndex = jsonReader.selectName(options);
-                switch (triggerIndex) {
+                int stepIndex = jsonReader.selectName(options);
+                switch (stepIndex) {
                     case 0:
                         stepId = jsonReader.nextString();
                         break;
@@ -256,63 +364,15 @@ final class ConnectionJsonAdapter {
                     case 2:
                         jsonReader.beginArray();
                         while (jsonReader.hasNext()) {
-                            String fieldId = null;
-                            String fieldType = null;
-                            jsonReader.beginObject();
-                            while (jsonReader.hasNext()) {
-                                int fieldIndex = jsonReader.selectName(fieldOptions);
-                                switch (fieldIndex) {
-                                    case 0:
-                                        fieldId = jsonReader.nextString();
-                                        break;
-                                    case 1:
-                                        fieldType = jsonReader.nextString();
-                                        break;
-                                    case 2:
-                                        checkNonNull(fieldId);
-                                        checkNonNull(fieldType);
-
-                                        if (FIELD_TYPES_LOCATION.contains(fieldType)) {
-                                            LocationFieldValue locationFieldValue
-                                                = locationDelegate.fromJson(jsonReader);
-                                            checkNonNull(locationFieldValue);
-
-                                            fields.add(new UserFeatureField<>(locationFieldValue, fieldType, fieldId));
-                                        } else if (FIELD_TYPES_COLLECTION.contains(fieldType)) {
-                                            CollectionFieldValue collectionFieldValue
-                                                = collectionFieldDelegate.fromJson(jsonReader);
-                                            checkNonNull(collectionFieldDelegate);
-
-                                            fields.add(new UserFeatureField<>(collectionFieldValue,
-                                                fieldType,
-                                                fieldId
-                                            ));
-                                        } else if (FIELD_TYPE_CHECKBOX.equals(fieldType)) {
-                                            List<CheckBoxValue> checkBoxFieldValue =
-                                                    checkboxFieldDelegate.fromJson(jsonReader);
-                                            checkNonNull(checkBoxFieldValue);
-
-                                            fields.add(new UserFeatureField<>(
-                                                new CheckBoxFieldValue(checkBoxFieldValue),
-                                                fieldType,
-                                                fieldId
-                                            ));
-                                        } else {
-                                            fields.add(new UserFeatureField<>(new StringFieldValue(jsonReader.nextString()),
-                                                fieldType,
-                                                fieldId
-                                            ));
-                                        }
-                                        break;
-                                    default:
-                                        jsonReader.skipValue();
-                                }
+                            UserFeatureField field = readUserField(jsonReader);
+                            if (field != null) {
+                                fields.add(field);
                             }
-                            jsonReader.endObject();
                         }
                         jsonReader.endArray();
                         break;
                     default:
+                        jsonReader.skipName();
                         jsonReader.skipValue();
                 }
             }
@@ -324,90 +384,158 @@ final class ConnectionJsonAdapter {
         jsonReader.endArray();
     }
 
-    private static final class FeatureJson {
-        final String id;
-        final String title;
-        final String description;
-        final String icon_url;
-        final List<FeatureTrigger> feature_triggers;
-        final List<FeatureQuery> feature_queries;
-        final List<FeatureAction> feature_actions;
-
-        FeatureJson(
-            String id,
-            String title,
-            String description,
-            String icon_url,
-            List<FeatureTrigger> feature_triggers,
-            List<FeatureQuery> feature_queries,
-            List<FeatureAction> feature_actions
-        ) {
-            this.id = id;
-            this.title = title;
-            this.description = description;
-            this.icon_url = icon_url;
-            this.feature_triggers = feature_triggers;
-            this.feature_queries = feature_queries;
-            this.feature_actions = feature_actions;
+    /**
+     * Read a single user field, or return null if the field has no value.
+     */
+    @Nullable
+    private static UserFeatureField readUserField(JsonReader jsonReader) throws IOException {
+        String fieldId = null;
+        String fieldType = null;
+        UserFeatureField field = null;
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.selectName(FIELD_OPTIONS)) {
+                case 0:
+                    fieldId = jsonReader.nextString();
+                    break;
+                case 1:
+                    fieldType = jsonReader.nextString();
+                    break;
+                case 2:
+                    // The value type depends on the field type, which must come first.
+                    checkNonNull(fieldId);
+                    checkNonNull(fieldType);
+
+                    if (FIELD_TYPES_LOCATION.contains(fieldType)) {
+                        field = new UserFeatureField<>(readLocation(jsonReader), fieldType, fieldId);
+                    } else if (FIELD_TYPES_COLLECTION.contains(fieldType)) {
+                        field = new UserFeatureField<>(readCollection(jsonReader), fieldType, fieldId);
+                    } else if (FIELD_TYPE_CHECKBOX.equals(fieldType)) {
+                        field = new UserFeatureField<>(new CheckBoxFieldValue(readCheckBoxValues(jsonReader)),
+                            fieldType,
+                            fieldId
+                        );
+                    } else {
+                        field = new UserFeatureField<>(new StringFieldValue(jsonReader.nextString()),
+                            fieldType,
+                            fieldId
+                        );
+                    }
+                    break;
+                default:
+                    jsonReader.skipName();
+                    jsonReader.skipValue();
+            }
         }
+        jsonReader.endObject();
+
+        return field;
     }
 
-    private static final class FeatureTrigger {
-        final String label;
-        final String id;
-        final String trigger_id;
-        final String service_id;
-        final List<Field> fields;
+    private static LocationFieldValue readLocation(JsonReader jsonReader) throws IOException {
+        double lat = 0D;
+        double lng = 0D;
+        Double radius = null;
+        String address = null;
 
-        FeatureTrigger(String label, String id, String trigger_id, String service_id, List<Field> fields) {
-            this.label = label;
-            this.id = id;
-            this.trigger_id = trigger_id;
-            this.service_id = service_id;
-            this.fields = fields;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.selectName(LOCATION_OPTIONS)) {
+                case 0:
+                    lat = jsonReader.nextDouble();
+                    break;
+                case 1:
+                    lng = jsonReader.nextDouble();
+                    break;
+                case 2:
+                    if (jsonReader.peek() == JsonReader.Token.NULL) {
+                        radius = jsonReader.nextNull();
+                    } else {
+                        radius = jsonReader.nextDouble();
+                    }
+                    break;
+                case 3:
+                    address = nextStringOrNull(jsonReader);
+                    break;
+                default:
+                    jsonReader.skipName();
+                    jsonReader.skipValue();
+            }
         }
+        jsonReader.endObject();
+
+        return new LocationFieldValue(lat, lng, radius, address);
     }
 
-    private static final class FeatureQuery {
-        final String label;
-        final String id;
-        final String query_id;
-        final String service_id;
-        final List<Field> fields;
+    @Nullable
+    private static CollectionFieldValue readCollection(JsonReader jsonReader) throws IOException {
+        if (jsonReader.peek() == JsonReader.Token.NULL) {
+            return jsonReader.nextNull();
+        }
 
-        FeatureQuery(String label, String id, String query_id, String service_id, List<Field> fields) {
-            this.label = label;
-            this.id = id;
-            this.query_id = query_id;
-            this.service_id = service_id;
-            this.fields = fields;
+        String group = null;
+        String label = null;
+        String value = null;
+
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            switch (jsonReader.selectName(COLLECTION_OPTIONS)) {
+                case 0:
+                    group = nextStringOrNull(jsonReader);
+                    break;
+                case 1:
+                    label = nextStringOrNull(jsonReader);
+                    break;
+                case 2:
+                    value = nextStringOrNull(jsonReader);
+                    break;
+                default:
+                    jsonReader.skipName();
+                    jsonReader.skipValue();
+            }
         }
+        jsonReader.endObject();
+
+        return new CollectionFieldValue(group, label, value);
     }
 
-    private static final class FeatureAction {
-        final String label;
-        final String id;
-        final String action_id;
-        final String service_id;
-        final List<Field> fields;
+    private static List<CheckBoxValue> readCheckBoxValues(JsonReader jsonReader) throws IOException {
+        List<CheckBoxValue> values = new ArrayList<>();
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            String label = null;
+            String value = null;
 
-        FeatureAction(String label, String id, String action_id, String service_id, List<Field> fields) {
-            this.label = label;
-            this.id = id;
-            this.action_id = action_id;
-            this.service_id = service_id;
-            this.fields = fields;
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                switch (jsonReader.selectName(CHECKBOX_OPTIONS)) {
+                    case 0:
+                        label = nextStringOrNull(jsonReader);
+                        break;
+                    case 1:
+                        value = nextStringOrNull(jsonReader);
+                        break;
+                    default:
+                        jsonReader.skipName();
+                        jsonReader.skipValue();
+                }
+            }
+            jsonReader.endObject();
+
+            values.add(new CheckBoxValue(label, value));
         }
+        jsonReader.endArray();
+        return values;
     }
 
-    private static final class Field {
-        final String id;
-        final String type;
-
-        Field(String id, String type) {
-            this.id = id;
-            this.type = type;
+    @Nullable
+    private static String nextStringOrNull(JsonReader jsonReader) throws IOException {
+        if (jsonReader.peek() == JsonReader.Token.NULL) {
+            return jsonReader.nextNull();
         }
+
+        return jsonReader.nextString();
     }
 
     private static void checkNonNull(@Nullable Object object) {
@@ -416,6 +544,23 @@ final class ConnectionJsonAdapter {
         }
     }
 
+    /**
+     * Feature values read before the user features they are joined with, see {@link #fromJson(JsonReader)}.
+     */
+    private static final class FeatureJson {
+        final String id;
+        final String title;
+        final String description;
+        final String iconUrl;
+
+        FeatureJson(String id, String title, String description, String iconUrl) {
+            this.id = id;
+            this.title = title;
+            this.description = description;
+            this.iconUrl = iconUrl;
+        }
+    }
+
     private static final Set<String> FIELD_TYPES_LOCATION = new HashSet<>(Arrays.asList("LOCATION_ENTER",
         "LOCATION_EXIT",
         "LOCATION_ENTER_OR_EXIT",
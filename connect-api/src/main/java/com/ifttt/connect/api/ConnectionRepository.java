@@ -0,0 +1,507 @@
+package com.ifttt.connect.api;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Process-wide, in-memory repository of {@link Connection} objects, used to share Connection data between the SDK
+ * components that show or use the same connection.
+ *
+ * - The most recently used Connections are kept in memory, up to a fixed number of Connections.
+ * - Concurrent requests for the same connection id share a single {@link ConnectionApi#showConnection(String)} call.
+ * - Connections older than the time-to-live are stale. {@link #showConnection(ConnectionApiClient, String)} still
+ * delivers them first and revalidates them in the background, {@link #getConnection(ConnectionApiClient, String)}
+ * fetches them again before delivering a single result.
+ *
+ * Connections are keyed by their id and the user token of the client they were fetched with, so that a Connection
+ * fetched for one user is never delivered to another. Call {@link #clear()} when the user logs out, to drop the
+ * Connections of the previous user from memory.
+ */
+public final class ConnectionRepository {
+
+    private static final int MAX_SIZE = 16;
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static ConnectionRepository INSTANCE;
+
+    private final long ttlMillis;
+    private final Executor executor;
+    private final JsonAdapter<ErrorResponse> errorResponseJsonAdapter = new Moshi.Builder().build()
+        .adapter(ErrorResponse.class);
+
+    private final LinkedHashMap<Key, CachedConnection> connections;
+    private final Map<Key, Fetch> fetches = new HashMap<>();
+
+    /**
+     * @return the process-wide ConnectionRepository instance.
+     */
+    public static synchronized ConnectionRepository getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new ConnectionRepository(MAX_SIZE,
+                TTL_MILLIS,
+                SdkHttpClient.get().dispatcher().executorService()
+            );
+        }
+
+        return INSTANCE;
+    }
+
+    ConnectionRepository(int maxSize, long ttlMillis, Executor executor) {
+        this.ttlMillis = ttlMillis;
+        this.executor = executor;
+        this.connections = new LinkedHashMap<Key, CachedConnection>(maxSize, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedConnection> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the Connection with the given id.
+     *
+     * When executed with {@link PendingResult#execute(PendingResult.ResultCallback)}, a Connection from the repository
+     * for the current user token of the client is delivered to the callback first. If it is stale, or if there is none, the Connection is fetched using
+     * the client, and the callback is called again if the fetched Connection is different. Fetch failures are only
+     * reported if no Connection has been delivered. Cancelling the PendingResult only cancels the underlying API call
+     * if no other caller is waiting for it.
+     *
+     * When executed synchronously with {@link PendingResult#getCall()}, a fresh Connection from the repository is
+     * returned without making an API call.
+     *
+     * @param client ConnectionApiClient to use to fetch the Connection.
+     * @param connectionId Connection id.
+     */
+    public PendingResult<Connection> showConnection(ConnectionApiClient client, String connectionId) {
+        return new RepositoryPendingResult(new RepositoryCall(client, connectionId), true);
+    }
+
+    /**
+     * Get the Connection with the given id, for callers that act on the Connection and need a single result.
+     *
+     * When executed with {@link PendingResult#execute(PendingResult.ResultCallback)}, the callback is called exactly
+     * once: with a fresh Connection from the repository, or with the result of fetching the Connection using the
+     * client. Stale Connections are never delivered.
+     *
+     * When executed synchronously with {@link PendingResult#getCall()}, it behaves the same as
+     * {@link #showConnection(ConnectionApiClient, String)}.
+     *
+     * @param client ConnectionApiClient to use to fetch the Connection.
+     * @param connectionId Connection id.
+     */
+    public PendingResult<Connection> getConnection(ConnectionApiClient client, String connectionId) {
+        return new RepositoryPendingResult(new RepositoryCall(client, connectionId), false);
+    }
+
+    /**
+     * Remove the Connection with the given id from the repository, for all users, so that it is fetched again the
+     * next time it is requested. Call this method when the Connection has been changed, e.g. disabled or re-enabled.
+     * Ongoing fetches still deliver their result to their callers, but the result is not stored in the repository.
+     */
+    public synchronized void invalidate(String connectionId) {
+        Iterator<Key> iterator = connections.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().connectionId.equals(connectionId)) {
+                iterator.remove();
+            }
+        }
+
+        Iterator<Key> fetchIterator = fetches.keySet().iterator();
+        while (fetchIterator.hasNext()) {
+            if (fetchIterator.next().connectionId.equals(connectionId)) {
+                fetchIterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all Connections from the repository.
+     */
+    public synchronized void clear() {
+        connections.clear();
+    }
+
+    @Nullable
+    private synchronized CachedConnection cached(Key key) {
+        return connections.get(key);
+    }
+
+    private synchronized Fetch join(ConnectionApiClient client, Key key) {
+        Fetch fetch = fetches.get(key);
+        if (fetch == null) {
+            fetch = new Fetch(key, client.api().showConnection(key.connectionId));
+            fetches.put(key, fetch);
+            executor.execute(fetch);
+        }
+
+        fetch.subscribers++;
+        return fetch;
+    }
+
+    private synchronized void leave(Fetch fetch) {
+        fetch.subscribers--;
+        if (fetch.subscribers == 0 && fetches.get(fetch.key) == fetch) {
+            fetches.remove(fetch.key);
+            fetch.call.cancel();
+        }
+    }
+
+    private synchronized void complete(Fetch fetch, @Nullable Connection connection) {
+        if (fetches.get(fetch.key) != fetch) {
+            // The Connection was invalidated while it was fetched, the result may be out of date.
+            return;
+        }
+
+        fetches.remove(fetch.key);
+        if (connection != null) {
+            connections.put(fetch.key, new CachedConnection(connection, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * Repository key of a Connection: the connection id and the user token it is fetched with.
+     */
+    private static final class Key {
+        final String connectionId;
+        @Nullable final String userToken;
+
+        Key(String connectionId, @Nullable String userToken) {
+            this.connectionId = connectionId;
+            this.userToken = userToken;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key that = (Key) o;
+            return connectionId.equals(that.connectionId) && Objects.equals(userToken, that.userToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(connectionId, userToken);
+        }
+    }
+
+    private final class CachedConnection {
+        final Connection connection;
+        final long fetchedAt;
+
+        CachedConnection(Connection connection, long fetchedAt) {
+            this.connection = connection;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean isStale() {
+            return SystemClock.elapsedRealtime() - fetchedAt >= ttlMillis;
+        }
+    }
+
+    /**
+     * A single showConnection call shared by all callers requesting the same connection at the same time. The call is
+     * made with the client's own {@link PendingResult}, so that the client's connection cache, if enabled, revalidates
+     * the payload.
+     */
+    private final class Fetch implements Runnable {
+        final Key key;
+        final Call<Connection> call;
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        int subscribers;
+
+        @Nullable private Response<Connection> response;
+        @Nullable private byte[] errorBody;
+        @Nullable private MediaType errorContentType;
+        @Nullable private IOException exception;
+
+        Fetch(Key key, PendingResult<Connection> pendingResult) {
+            this.key = key;
+            this.call = pendingResult.getCall();
+        }
+
+        @Override
+        public void run() {
+            Connection connection = null;
+            try {
+                response = call.execute();
+                if (response.isSuccessful()) {
+                    connection = response.body();
+                } else if (response.errorBody() != null) {
+                    // Error bodies can only be read once, buffer it for every subscriber.
+                    errorContentType = response.errorBody().contentType();
+                    errorBody = response.errorBody().bytes();
+                }
+            } catch (IOException e) {
+                exception = e;
+            } catch (RuntimeException e) {
+                exception = new IOException(e);
+            } finally {
+                complete(this, connection);
+                latch.countDown();
+            }
+        }
+
+        Response<Connection> await() throws IOException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            if (exception != null) {
+                throw exception;
+            }
+
+            if (response.isSuccessful()) {
+                return response;
+            }
+
+            ResponseBody body = ResponseBody.create(errorBody == null ? new byte[0] : errorBody, errorContentType);
+            return Response.error(body, response.raw());
+        }
+    }
+
+    /**
+     * {@link Call} implementation that returns a fresh Connection from the repository, or joins the ongoing
+     * {@link Fetch} for the connection.
+     */
+    private final class RepositoryCall implements Call<Connection> {
+
+        private final ConnectionApiClient client;
+        private final String connectionId;
+
+        @Nullable private Key key;
+        @Nullable private Fetch fetch;
+        private boolean executed;
+        private boolean canceled;
+
+        RepositoryCall(ConnectionApiClient client, String connectionId) {
+            this.client = client;
+            this.connectionId = connectionId;
+        }
+
+        /**
+         * @return the repository key for the connection and the current user token of the client. This may call the
+         * {@link UserTokenProvider}, and should not be called on the main thread.
+         */
+        synchronized Key key() {
+            if (key == null) {
+                String userToken;
+                try {
+                    userToken = client.userTokenProvider.getUserToken();
+                } catch (Exception e) {
+                    // Same as TokenInterceptor, the request is made without a token.
+                    userToken = null;
+                }
+                key = new Key(connectionId, userToken);
+            }
+            return key;
+        }
+
+        /**
+         * @return the Connection stored in the client's connection cache for the current user token, or null if the
+         * cache is not enabled or has no entry. This may read from disk, and should not be called on the main thread.
+         */
+        @Nullable
+        Connection diskCached() {
+            PendingResult<Connection> pendingResult = client.api().showConnection(connectionId);
+            if (pendingResult instanceof CachedConnectionPendingResult) {
+                return ((CachedConnectionPendingResult) pendingResult).cachedConnection();
+            }
+            return null;
+        }
+
+        @Override
+        public Response<Connection> execute() throws IOException {
+            Fetch fetch;
+            synchronized (this) {
+                if (executed) {
+                    throw new IllegalStateException("Already executed.");
+                }
+                executed = true;
+
+                if (canceled) {
+                    throw new IOException("Canceled");
+                }
+
+                CachedConnection cached = cached(key());
+                if (cached != null && !cached.isStale()) {
+                    return Response.success(cached.connection);
+                }
+
+                fetch = join(client, key());
+                this.fetch = fetch;
+            }
+
+            try {
+                return fetch.await();
+            } finally {
+                synchronized (this) {
+                    if (!canceled) {
+                        leave(fetch);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void enqueue(Callback<Connection> callback) {
+            executor.execute(() -> {
+                try {
+                    Response<Connection> response = execute();
+                    MAIN_HANDLER.post(() -> {
+                        if (!isCanceled()) {
+                            callback.onResponse(this, response);
+                        }
+                    });
+                } catch (IOException e) {
+                    MAIN_HANDLER.post(() -> callback.onFailure(this, e));
+                }
+            });
+        }
+
+        @Override
+        public synchronized boolean isExecuted() {
+            return executed;
+        }
+
+        @Override
+        public synchronized void cancel() {
+            if (canceled) {
+                return;
+            }
+
+            canceled = true;
+            if (fetch != null && fetch.latch.getCount() > 0) {
+                leave(fetch);
+            }
+        }
+
+        @Override
+        public synchronized boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public Call<Connection> clone() {
+            return new RepositoryCall(client, connectionId);
+        }
+
+        @Override
+        public Request request() {
+            return client.api().showConnection(connectionId).getCall().request();
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+    }
+
+    private final class RepositoryPendingResult implements PendingResult<Connection> {
+
+        private final RepositoryCall call;
+
+        /*
+         * True if a stale Connection, or the client's cached copy, is delivered before it is revalidated.
+         * */
+        private final boolean deliverStale;
+
+        RepositoryPendingResult(RepositoryCall call, boolean deliverStale) {
+            this.call = call;
+            this.deliverStale = deliverStale;
+        }
+
+        @Override
+        public Call<Connection> getCall() {
+            return call;
+        }
+
+        @Override
+        public void execute(ResultCallback<Connection> callback) {
+            // The user token, and therefore the repository key, can only be read off the main thread.
+            executor.execute(() -> {
+                CachedConnection cached = cached(call.key());
+                if (cached != null && !cached.isStale()) {
+                    deliver(callback, cached.connection);
+                    return;
+                }
+
+                Connection stale = deliverStale ? staleConnection(cached) : null;
+                if (stale != null) {
+                    deliver(callback, stale);
+                }
+
+                new ApiPendingResult<>(call, errorResponseJsonAdapter).execute(new ResultCallback<Connection>() {
+                    @Override
+                    public void onSuccess(Connection result) {
+                        // A 304 response from the client's cache returns the instance that has already been delivered.
+                        if (result != stale) {
+                            callback.onSuccess(result);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(ErrorResponse errorResponse) {
+                        // Keep the stale Connection if revalidation fails.
+                        if (stale == null && !call.isCanceled()) {
+                            callback.onFailure(errorResponse);
+                        }
+                    }
+                });
+            });
+        }
+
+        @Override
+        public void cancel() {
+            call.cancel();
+        }
+
+        @Nullable
+        private Connection staleConnection(@Nullable CachedConnection cached) {
+            if (cached != null) {
+                return cached.connection;
+            }
+
+            // On a cold start, render the Connection from the client's disk cache while it is revalidated.
+            return call.diskCached();
+        }
+
+        private void deliver(ResultCallback<Connection> callback, Connection connection) {
+            MAIN_HANDLER.post(() -> {
+                if (!call.isCanceled()) {
+                    callback.onSuccess(connection);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.ifttt.connect.api;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Interceptor that compresses the request bodies of the SDK upload endpoints with gzip. Compression is disabled by
+ * default, and can be enabled with {@link #setEnabled(boolean)}.
+ *
+ * Bodies smaller than {@link #setMinimumSize(long)} are sent as is. If a server rejects a compressed body with
+ * <code>415 Unsupported Media Type</code>, the request is sent again uncompressed, and later requests to the same host
+ * are not compressed.
+ */
+public final class GzipRequestInterceptor implements Interceptor {
+
+    /**
+     * Default minimum body size in bytes for a request to be compressed.
+     */
+    public static final long DEFAULT_MINIMUM_SIZE = 1024;
+
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+
+    private static GzipRequestInterceptor INSTANCE;
+
+    private final Set<String> unsupportedHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    private volatile boolean enabled;
+    private volatile long minimumSize = DEFAULT_MINIMUM_SIZE;
+
+    /**
+     * @return the interceptor instance used by the SDK upload clients.
+     */
+    public static synchronized GzipRequestInterceptor get() {
+        if (INSTANCE == null) {
+            INSTANCE = new GzipRequestInterceptor();
+        }
+
+        return INSTANCE;
+    }
+
+    GzipRequestInterceptor() {
+    }
+
+    /**
+     * @param enabled true to compress request bodies.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param minimumSize minimum body size in bytes for a request to be compressed. Bodies of unknown length are always
+     * compressed.
+     */
+    public void setMinimumSize(long minimumSize) {
+        if (minimumSize < 0) {
+            throw new IllegalArgumentException("minimumSize < 0");
+        }
+        this.minimumSize = minimumSize;
+    }
+
+    /**
+     * @return total number of bytes of request bodies that have been compressed, before compression.
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * @return total number of bytes of request bodies that have been compressed, after compression.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (!enabled
+            || body == null
+            || body.isOneShot()
+            || request.header("Content-Encoding") != null
+            || unsupportedHosts.contains(request.url().host())) {
+            return chain.proceed(request);
+        }
+
+        long contentLength = body.contentLength();
+        if (contentLength >= 0 && contentLength < minimumSize) {
+            return chain.proceed(request);
+        }
+
+        Response response = chain.proceed(request.newBuilder()
+            .header("Content-Encoding", "gzip")
+            .method(request.method(), new GzipRequestBody(body))
+            .build());
+        if (response.code() != HTTP_UNSUPPORTED_MEDIA_TYPE) {
+            return response;
+        }
+
+        // The server doesn't accept compressed bodies.
+        response.close();
+        unsupportedHosts.add(request.url().host());
+        return chain.proceed(request);
+    }
+
+    private final class GzipRequestBody extends RequestBody {
+
+        private final RequestBody body;
+
+        GzipRequestBody(RequestBody body) {
+            this.body = body;
+        }
+
+        @Nullable
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            // Unknown until the body has been compressed.
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            CountingSink compressed = new CountingSink(sink);
+            CountingSink uncompressed = new CountingSink(new GzipSink(compressed));
+            try (BufferedSink gzipSink = Okio.buffer(uncompressed)) {
+                body.writeTo(gzipSink);
+            }
+
+            uncompressedBytes.addAndGet(uncompressed.count);
+            compressedBytes.addAndGet(compressed.count);
+        }
+    }
+
+    private static final class CountingSink extends ForwardingSink {
+
+        long count;
+
+        CountingSink(Sink delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            count += byteCount;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.ifttt.connect.api;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Holder of the {@link OkHttpClient} shared by all network clients in the SDK. Each SDK module derives its own client
+ * from this instance using {@link OkHttpClient#newBuilder()}, so that all SDK traffic shares the same connection pool,
+ * dispatcher threads and TLS session cache.
+ *
+ * If your app already has an {@link OkHttpClient}, you can use {@link #set(OkHttpClient)} to let the SDK share its
+ * resources as well.
+ */
+public final class SdkHttpClient {
+
+    private static OkHttpClient INSTANCE;
+
+    /**
+     * @return the {@link OkHttpClient} instance to be used as the base of all SDK network clients.
+     */
+    public static synchronized OkHttpClient get() {
+        if (INSTANCE == null) {
+            INSTANCE = new OkHttpClient();
+        }
+
+        return INSTANCE;
+    }
+
+    /**
+     * Set an {@link OkHttpClient} instance to be used as the base of all SDK network clients. This should be called
+     * before setting up the ConnectButton or the ConnectLocation SDK, clients that have been created prior to this
+     * call will continue to use the previous instance.
+     *
+     * @param okHttpClient OkHttpClient instance from your app.
+     */
+    public static synchronized void set(OkHttpClient okHttpClient) {
+        if (okHttpClient == null) {
+            throw new NullPointerException("okHttpClient == null");
+        }
+
+        INSTANCE = okHttpClient;
+    }
+
+    private SdkHttpClient() {
+        throw new AssertionError();
+    }
+}
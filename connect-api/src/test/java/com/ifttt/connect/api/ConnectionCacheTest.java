@@ -0,0 +1,163 @@
+package com.ifttt.connect.api;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import retrofit2.Response;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public final class ConnectionCacheTest {
+
+    private final MockWebServer server = new MockWebServer();
+
+    private File directory;
+    private String json;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+
+        Context context = ApplicationProvider.getApplicationContext();
+        directory = new File(context.getCacheDir(), "connection_cache_test");
+
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream("connection.json");
+        json = Okio.buffer(Okio.source(inputStream)).readUtf8();
+    }
+
+    @Test
+    public void shouldRevalidateWithEtag() throws Exception {
+        ConnectionApiClient client = client("token");
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+        server.enqueue(new MockResponse().setResponseCode(304));
+
+        Response<Connection> first = client.api().showConnection("id").getCall().execute();
+        Response<Connection> second = client.api().showConnection("id").getCall().execute();
+
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isNull();
+        RecordedRequest revalidation = server.takeRequest();
+        assertThat(revalidation.getPath()).isEqualTo("/v2/connections/id");
+        assertThat(revalidation.getHeader("If-None-Match")).isEqualTo("\"v1\"");
+
+        assertThat(second.isSuccessful()).isTrue();
+        assertThat(second.body()).isSameInstanceAs(first.body());
+    }
+
+    @Test
+    public void shouldReturnCachedConnectionForSameEtag() throws Exception {
+        ConnectionApiClient client = client("token");
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody(json));
+
+        Response<Connection> first = client.api().showConnection("id").getCall().execute();
+        Response<Connection> second = client.api().showConnection("id").getCall().execute();
+        Response<Connection> third = client.api().showConnection("id").getCall().execute();
+
+        // The same instance is not delivered to the callback again.
+        assertThat(second.body()).isSameInstanceAs(first.body());
+        assertThat(third.body()).isNotSameInstanceAs(first.body());
+    }
+
+    @Test
+    public void shouldLoadCachedConnectionFromDisk() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+        server.enqueue(new MockResponse().setResponseCode(304));
+
+        Connection connection = client("token").api().showConnection("id").getCall().execute().body();
+        Response<Connection> cached = client("token").api().showConnection("id").getCall().execute();
+
+        server.takeRequest();
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isEqualTo("\"v1\"");
+        assertThat(cached.body()).isNotNull();
+        assertThat(cached.body().id).isEqualTo(connection.id);
+    }
+
+    @Test
+    public void shouldKeyByUserToken() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody(json));
+
+        client("token").api().showConnection("id").getCall().execute();
+        client("another_token").api().showConnection("id").getCall().execute();
+
+        server.takeRequest();
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isNull();
+    }
+
+    @Test
+    public void shouldReturnErrorResponse() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404)
+            .setBody(new Buffer().writeUtf8("{\"code\":\"not_found\",\"message\":\"Not found\"}")));
+
+        Response<Connection> response = client("token").api().showConnection("id").getCall().execute();
+
+        assertThat(response.isSuccessful()).isFalse();
+        assertThat(response.code()).isEqualTo(404);
+        assertThat(response.errorBody().string()).contains("not_found");
+    }
+
+    @Test
+    public void shouldLimitDiskEntries() throws Exception {
+        Connection connection = TestUtils.loadConnection(getClass().getClassLoader());
+        ConnectionCache cache = new ConnectionCache(directory, TestUtils.connectionAdapter());
+
+        cache.put("oldest", "token", "\"v1\"", json, connection);
+        File[] files = directory.listFiles();
+        assertThat(files).hasLength(1);
+        assertThat(files[0].setLastModified(1000L)).isTrue();
+
+        for (int i = 0; i < ConnectionCache.MAX_DISK_ENTRIES; i++) {
+            cache.put("id" + i, "token", "\"v1\"", json, connection);
+        }
+
+        assertThat(directory.listFiles()).hasLength(ConnectionCache.MAX_DISK_ENTRIES);
+        assertThat(files[0].exists()).isFalse();
+        assertThat(cache.get("oldest", "token")).isNull();
+        assertThat(cache.get("id0", "token")).isNotNull();
+    }
+
+    @Test
+    public void clearConnectionCacheShouldRemoveEntries() throws Exception {
+        ConnectionApiClient client = client("token");
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+
+        client.api().showConnection("id").getCall().execute();
+        client.clearConnectionCache();
+        client.api().showConnection("id").getCall().execute();
+
+        server.takeRequest();
+        assertThat(server.takeRequest().getHeader("If-None-Match")).isNull();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private ConnectionApiClient client(String token) {
+        return new ConnectionApiClient.Builder("anonymous_id", () -> token).setConnectionCache(directory)
+            .buildWithBaseUrl(server.url("/").toString());
+    }
+}
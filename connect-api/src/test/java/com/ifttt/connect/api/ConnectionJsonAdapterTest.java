@@ -0,0 +1,113 @@
+package com.ifttt.connect.api;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public final class ConnectionJsonAdapterTest {
+
+    private final JsonAdapter<Connection> adapter = new Moshi.Builder().add(new ConnectionJsonAdapter())
+        .build()
+        .adapter(Connection.class);
+
+    @Test
+    public void shouldJoinUserFeaturesBeforeFeatures() throws IOException {
+        Connection connection = adapter.fromJson("{"
+            + "\"id\":\"id\",\"name\":\"name\",\"description\":\"description\",\"url\":\"url\","
+            + "\"user_status\":\"enabled\",\"services\":[],"
+            + "\"user_connection\":{\"user_features\":["
+            + "{\"id\":\"uf\",\"feature_id\":\"f1\",\"enabled\":false,\"user_feature_triggers\":[]}"
+            + "]},"
+            + "\"features\":["
+            + "{\"id\":\"f1\",\"title\":\"Feature 1\",\"description\":\"d\",\"icon_url\":\"i\",\"feature_triggers\":[]},"
+            + "{\"id\":\"f2\",\"title\":\"Feature 2\",\"description\":\"d\",\"icon_url\":\"i\"}"
+            + "]}");
+
+        assertThat(connection.status).isEqualTo(Connection.Status.enabled);
+        assertThat(connection.features).hasSize(2);
+        assertThat(connection.features.get(0).userFeatures).hasSize(1);
+        assertThat(connection.features.get(0).userFeatures.get(0).enabled).isFalse();
+        assertThat(connection.features.get(1).userFeatures).isNull();
+    }
+
+    @Test
+    public void shouldParseServicesAndCoverImage() throws IOException {
+        Connection connection = adapter.fromJson("{"
+            + "\"id\":\"id\",\"name\":\"name\",\"description\":\"description\",\"url\":\"url\","
+            + "\"unknown\":{\"nested\":[1,2,3]},"
+            + "\"services\":[{\"service_id\":\"s\",\"service_name\":\"Service\",\"service_short_name\":\"S\","
+            + "\"is_primary\":true,\"monochrome_icon_url\":\"icon\",\"color_icon_url\":\"color\","
+            + "\"brand_color\":\"#00abec\",\"url\":\"service_url\"}],"
+            + "\"cover_image\":{\"480w_url\":\"480\",\"4320w_url\":\"4320\",\"unknown\":\"\"}"
+            + "}");
+
+        Service service = connection.getPrimaryService();
+        assertThat(service.id).isEqualTo("s");
+        assertThat(service.shortName).isEqualTo("S");
+        assertThat(service.brandColor).isEqualTo(0xFF00ABEC);
+        assertThat(service.url).isEqualTo("service_url");
+
+        assertThat(connection.coverImage.imageUrl480w).isEqualTo("480");
+        assertThat(connection.coverImage.imageUrl720w).isNull();
+        assertThat(connection.coverImage.imageUrl4320w).isEqualTo("4320");
+        assertThat(connection.features).isEmpty();
+    }
+
+    @Test
+    public void shouldParseFieldValues() throws IOException {
+        Connection connection = adapter.fromJson("{"
+            + "\"id\":\"id\",\"name\":\"name\",\"description\":\"description\",\"url\":\"url\",\"services\":[],"
+            + "\"features\":[{\"id\":\"f1\",\"title\":\"t\",\"description\":\"d\",\"icon_url\":\"i\"}],"
+            + "\"user_connection\":{\"user_features\":[{\"id\":\"uf\",\"feature_id\":\"f1\","
+            + "\"user_feature_actions\":[{\"feature_action_id\":\"a\",\"id\":\"1\",\"user_fields\":["
+            + "{\"field_id\":\"location\",\"field_type\":\"LOCATION_POINT\","
+            + "\"value\":{\"lat\":1.5,\"lng\":2.5,\"radius\":null,\"address\":\"address\"}},"
+            + "{\"field_id\":\"collection\",\"field_type\":\"COLLECTION_SELECT\","
+            + "\"value\":{\"group\":\"g\",\"label\":\"l\",\"value\":\"v\"}},"
+            + "{\"field_id\":\"checkbox\",\"field_type\":\"CHECKBOX_MULTI\","
+            + "\"value\":[{\"label\":\"l1\",\"value\":\"v1\"},{\"label\":\"l2\",\"value\":\"v2\"}]},"
+            + "{\"field_id\":\"text\",\"field_type\":\"TEXT_FIELD\",\"value\":\"text\"}"
+            + "]}]}]}"
+            + "}");
+
+        UserFeatureStep step = connection.features.get(0).userFeatures.get(0).userFeatureSteps.get(0);
+        assertThat(step.stepType).isEqualTo(FeatureStep.StepType.Action);
+        assertThat(step.fields).hasSize(4);
+
+        LocationFieldValue location = (LocationFieldValue) step.fields.get(0).value;
+        assertThat(location.lat).isEqualTo(1.5D);
+        assertThat(location.radius).isNull();
+        assertThat(location.address).isEqualTo("address");
+
+        CollectionFieldValue collection = (CollectionFieldValue) step.fields.get(1).value;
+        assertThat(collection.value).isEqualTo("v");
+
+        CheckBoxFieldValue checkBox = (CheckBoxFieldValue) step.fields.get(2).value;
+        assertThat(checkBox.value).containsExactly(new CheckBoxValue("l1", "v1"), new CheckBoxValue("l2", "v2"));
+
+        assertThat(((StringFieldValue) step.fields.get(3).value).value).isEqualTo("text");
+    }
+
+    @Test
+    public void shouldSkipFieldsWithoutValue() throws IOException {
+        Connection connection = adapter.fromJson("{"
+            + "\"id\":\"id\",\"name\":\"name\",\"description\":\"description\",\"url\":\"url\",\"services\":[],"
+            + "\"features\":[{\"id\":\"f1\",\"title\":\"t\",\"description\":\"d\",\"icon_url\":\"i\"}],"
+            + "\"user_connection\":{\"user_features\":[{\"id\":\"uf\",\"feature_id\":\"f1\","
+            + "\"user_feature_triggers\":[{\"feature_trigger_id\":\"t\",\"id\":\"1\",\"user_fields\":["
+            + "{\"field_id\":\"empty\",\"field_type\":\"TEXT_FIELD\"},"
+            + "{\"field_id\":\"text\",\"field_type\":\"TEXT_FIELD\",\"value\":\"text\"}"
+            + "]}]}]}"
+            + "}");
+
+        UserFeatureStep step = connection.features.get(0).userFeatures.get(0).userFeatureSteps.get(0);
+        assertThat(step.fields).hasSize(1);
+        assertThat(step.fields.get(0).fieldId).isEqualTo("text");
+    }
+}
@@ -0,0 +1,233 @@
+package com.ifttt.connect.api;
+
+import android.os.Looper;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import retrofit2.Response;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(AndroidJUnit4.class)
+public final class ConnectionRepositoryTest {
+
+    private final MockWebServer server = new MockWebServer();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private ConnectionApiClient client;
+    private String json;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+        client = new ConnectionApiClient.Builder("anonymous_id", () -> "token").buildWithBaseUrl(server.url("/")
+            .toString());
+
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream("connection.json");
+        json = Okio.buffer(Okio.source(inputStream)).readUtf8();
+    }
+
+    @Test
+    public void shouldReturnFreshConnectionWithoutFetching() throws IOException {
+        ConnectionRepository repository = new ConnectionRepository(16, TimeUnit.MINUTES.toMillis(5), executor);
+        server.enqueue(new MockResponse().setBody(json));
+
+        Connection first = repository.showConnection(client, "id").getCall().execute().body();
+        Connection second = repository.showConnection(client, "id").getCall().execute().body();
+
+        assertThat(server.getRequestCount()).isEqualTo(1);
+        assertThat(second).isSameInstanceAs(first);
+    }
+
+    @Test
+    public void shouldFetchStaleConnection() throws IOException {
+        ConnectionRepository repository = new ConnectionRepository(16, 0L, executor);
+        server.enqueue(new MockResponse().setBody(json));
+        server.enqueue(new MockResponse().setBody(json));
+
+        repository.showConnection(client, "id").getCall().execute();
+        repository.showConnection(client, "id").getCall().execute();
+
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentRequests() throws Exception {
+        ConnectionRepository repository = new ConnectionRepository(16, TimeUnit.MINUTES.toMillis(5), executor);
+        server.enqueue(new MockResponse().setBody(json).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+
+        Future<Response<Connection>> first = executor.submit(() -> repository.showConnection(client, "id")
+            .getCall()
+            .execute());
+        Future<Response<Connection>> second = executor.submit(() -> repository.showConnection(client, "id")
+            .getCall()
+            .execute());
+
+        assertThat(second.get().body()).isSameInstanceAs(first.get().body());
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void invalidateShouldNotStoreOngoingFetch() throws Exception {
+        ConnectionRepository repository = new ConnectionRepository(16, TimeUnit.MINUTES.toMillis(5), executor);
+        server.enqueue(new MockResponse().setBody(json).setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody(json));
+
+        Future<Response<Connection>> first = executor.submit(() -> repository.showConnection(client, "id")
+            .getCall()
+            .execute());
+        server.takeRequest();
+        repository.invalidate("id");
+
+        // The ongoing fetch started before the Connection changed, its result is delivered but not stored.
+        assertThat(first.get().isSuccessful()).isTrue();
+        repository.showConnection(client, "id").getCall().execute();
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldShareErrorResponse() throws Exception {
+        ConnectionRepository repository = new ConnectionRepository(16, TimeUnit.MINUTES.toMillis(5), executor);
+        server.enqueue(new MockResponse().setResponseCode(404)
+            .setBody("{\"code\":\"not_found\",\"message\":\"Not found\"}")
+            .setHeadersDelay(500, TimeUnit.MILLISECONDS));
+
+        Future<Response<Connection>> first = executor.submit(() -> repository.showConnection(client, "id")
+            .getCall()
+            .execute());
+        Future<Response<Connection>> second = executor.submit(() -> repository.showConnection(client, "id")
+            .getCall()
+            .execute());
+
+        assertThat(first.get().code()).isEqualTo(404);
+        assertThat(first.get().errorBody().string()).contains("not_found");
+        assertThat(second.get().errorBody().string()).contains("not_found");
+        assertThat(server.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedConnection() throws IOException {
+        ConnectionRepository repository = new ConnectionRepository(1, TimeUnit.MINUTES.toMillis(5), executor);
+        server.enqueue(new MockResponse().setBody(json));
+        server.enqueue(new MockResponse().setBody(json));
+        server.enqueue(new MockResponse().setBody(json));
+
+        repository.showConnection(client, "a").getCall().execute();
+        repository.showConnection(client, "b").getCall().execute();
+        repository.showConnection(client, "a").getCall().execute();
+
+        assertThat(server.getRequestCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldNotShareConnectionsBetweenUsers() throws IOException {
+        ConnectionRepository repository = new ConnectionRepository(16, TimeUnit.MINUTES.toMillis(5), executor);
+        ConnectionApiClient otherClient = new ConnectionApiClient.Builder("anonymous_id", () -> "other_token")
+            .buildWithBaseUrl(server.url("/").toString());
+        server.enqueue(new MockResponse().setBody(json));
+        server.enqueue(new MockResponse().setBody(json));
+
+        Connection first = repository.showConnection(client, "id").getCall().execute().body();
+        Connection second = repository.showConnection(otherClient, "id").getCall().execute().body();
+
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(second).isNotSameInstanceAs(first);
+    }
+
+    @Test
+    public void showConnectionShouldDeliverStaleConnectionFirst() throws Exception {
+        ConnectionRepository repository = new ConnectionRepository(16, 0L, executor);
+        server.enqueue(new MockResponse().setBody(json));
+        server.enqueue(new MockResponse().setBody(json));
+        Connection stale = repository.showConnection(client, "id").getCall().execute().body();
+
+        List<Connection> results = execute(repository.showConnection(client, "id"), 2);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0)).isSameInstanceAs(stale);
+        assertThat(results.get(1)).isNotSameInstanceAs(stale);
+    }
+
+    @Test
+    public void getConnectionShouldDeliverSingleResult() throws Exception {
+        ConnectionRepository repository = new ConnectionRepository(16, 0L, executor);
+        server.enqueue(new MockResponse().setBody(json));
+        server.enqueue(new MockResponse().setBody(json));
+        Connection stale = repository.showConnection(client, "id").getCall().execute().body();
+
+        List<Connection> results = execute(repository.getConnection(client, "id"), 1);
+
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0)).isNotSameInstanceAs(stale);
+    }
+
+    @Test
+    public void showConnectionShouldDeliverDiskCachedConnectionFirst() throws Exception {
+        File directory = new File(ApplicationProvider.getApplicationContext().getCacheDir(), "repository_test");
+        ConnectionApiClient cachedClient = new ConnectionApiClient.Builder("anonymous_id", () -> "token")
+            .setConnectionCache(directory)
+            .buildWithBaseUrl(server.url("/").toString());
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(json));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        Connection cached = cachedClient.api().showConnection("id").getCall().execute().body();
+
+        ConnectionRepository repository = new ConnectionRepository(16, TimeUnit.MINUTES.toMillis(5), executor);
+        List<Connection> results = execute(repository.showConnection(cachedClient, "id"), 1);
+
+        // The revalidated Connection is unchanged, and not delivered again.
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0)).isSameInstanceAs(cached);
+    }
+
+    /**
+     * Executes the PendingResult and runs the main looper until the expected number of Connections has been delivered,
+     * and then once more to catch unexpected deliveries.
+     */
+    private static List<Connection> execute(PendingResult<Connection> pendingResult, int expected)
+        throws InterruptedException {
+        List<Connection> results = new CopyOnWriteArrayList<>();
+        pendingResult.execute(new PendingResult.ResultCallback<Connection>() {
+            @Override
+            public void onSuccess(Connection result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onFailure(ErrorResponse errorResponse) {
+                throw new AssertionError("Unexpected failure: " + errorResponse);
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (results.size() < expected && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        shadowOf(Looper.getMainLooper()).idle();
+        return results;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+}
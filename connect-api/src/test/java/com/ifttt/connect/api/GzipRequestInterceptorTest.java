@@ -0,0 +1,119 @@
+package com.ifttt.connect.api;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public final class GzipRequestInterceptorTest {
+
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    private final MockWebServer server = new MockWebServer();
+    private final GzipRequestInterceptor interceptor = new GzipRequestInterceptor();
+    private final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+    private String body;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+        interceptor.setEnabled(true);
+
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            builder.append("{\"name\":\"sdk.impression\",\"timestamp\":\"").append(i).append("\"},");
+        }
+        body = builder.append("{}]").toString();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldCompressLargeBodies() throws Exception {
+        server.enqueue(new MockResponse());
+        post(body);
+
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip");
+        assertThat(decompress(request.getBody())).isEqualTo(body);
+
+        assertThat(interceptor.getUncompressedBytes()).isEqualTo(body.length());
+        assertThat(interceptor.getCompressedBytes()).isEqualTo(request.getBodySize());
+        assertThat(interceptor.getCompressedBytes()).isLessThan(interceptor.getUncompressedBytes());
+    }
+
+    @Test
+    public void shouldNotCompressSmallBodies() throws Exception {
+        server.enqueue(new MockResponse());
+        post("[]");
+
+        RecordedRequest request = server.takeRequest();
+        assertThat(request.getHeader("Content-Encoding")).isNull();
+        assertThat(request.getBody().readUtf8()).isEqualTo("[]");
+        assertThat(interceptor.getUncompressedBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotCompressWhenDisabled() throws Exception {
+        interceptor.setEnabled(false);
+        server.enqueue(new MockResponse());
+        post(body);
+
+        assertThat(server.takeRequest().getHeader("Content-Encoding")).isNull();
+    }
+
+    @Test
+    public void shouldFallBackWhenCompressionIsUnsupported() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(415));
+        server.enqueue(new MockResponse());
+        server.enqueue(new MockResponse());
+
+        assertThat(post(body)).isEqualTo(200);
+        assertThat(server.takeRequest().getHeader("Content-Encoding")).isEqualTo("gzip");
+
+        RecordedRequest retry = server.takeRequest();
+        assertThat(retry.getHeader("Content-Encoding")).isNull();
+        assertThat(retry.getBody().readUtf8()).isEqualTo(body);
+
+        // Later requests to the same host are sent uncompressed.
+        post(body);
+        assertThat(server.takeRequest().getHeader("Content-Encoding")).isNull();
+    }
+
+    private int post(String content) throws IOException {
+        Request request = new Request.Builder().url(server.url("/v2/sdk/events"))
+            .post(RequestBody.create(content, JSON))
+            .build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.code();
+        }
+    }
+
+    private static String decompress(Buffer compressed) throws IOException {
+        Buffer decompressed = new Buffer();
+        try (GzipSource source = new GzipSource(compressed)) {
+            while (source.read(decompressed, Long.MAX_VALUE) != -1) {
+            }
+        }
+        return decompressed.readUtf8();
+    }
+}
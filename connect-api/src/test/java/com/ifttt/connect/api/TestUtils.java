@@ -24,6 +24,10 @@ public final class TestUtils {
         return CONNECTION_ADAPTER.fromJson(jsonReader);
     }
 
+    public static JsonAdapter<Connection> connectionAdapter() {
+        return CONNECTION_ADAPTER;
+    }
+
     private TestUtils() {
         throw new AssertionError();
     }
@@ -4,7 +4,11 @@ package com.ifttt.connect.analytics.tape;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -40,12 +44,32 @@ final class FileObjectQueue<T> extends ObjectQueue<T> {
         queueFile.add(bytes.getArray(), 0, bytes.size());
     }
 
+    @Override public void addAll(Collection<? extends T> entries) throws IOException {
+        List<byte[]> elements = new ArrayList<>(entries.size());
+        for (T entry : entries) {
+            bytes.reset();
+            converter.toStream(entry, bytes);
+            elements.add(bytes.toByteArray());
+        }
+        queueFile.addAll(elements);
+    }
+
     @Override public @Nullable T peek() throws IOException {
         byte[] bytes = queueFile.peek();
         if (bytes == null) return null;
         return converter.from(bytes);
     }
 
+    /** Decodes the entries in place, see {@link QueueFile#forEach(int, QueueFile.ElementVisitor)}. */
+    @Override public List<T> peek(int max) throws IOException {
+        List<T> entries = new ArrayList<>(Math.min(max, size()));
+        queueFile.forEach(max, element -> {
+            entries.add(converter.from(element));
+            return true;
+        });
+        return Collections.unmodifiableList(entries);
+    }
+
     @Override public void remove() throws IOException {
         queueFile.remove();
     }
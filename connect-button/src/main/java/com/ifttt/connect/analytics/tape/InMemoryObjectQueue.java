@@ -4,6 +4,7 @@ package com.ifttt.connect.analytics.tape;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Deque;
@@ -37,6 +38,12 @@ final class InMemoryObjectQueue<T> extends ObjectQueue<T> {
         entries.addLast(entry);
     }
 
+    @Override public void addAll(Collection<? extends T> entries) {
+        if (closed) throw new IllegalStateException("closed");
+        modCount++;
+        this.entries.addAll(entries);
+    }
+
     @Override public @Nullable T peek() {
         if (closed) throw new IllegalStateException("closed");
         return entries.peekFirst();
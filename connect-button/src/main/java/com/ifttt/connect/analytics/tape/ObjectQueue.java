@@ -6,7 +6,9 @@ package com.ifttt.connect.analytics.tape;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -43,6 +45,13 @@ public abstract class ObjectQueue<T> implements Iterable<T>, Closeable {
     /** Enqueues an entry that can be processed at any time. */
     public abstract void add(T entry) throws IOException;
 
+    /** Enqueues all entries, in iteration order. */
+    public void addAll(Collection<? extends T> entries) throws IOException {
+        for (T entry : entries) {
+            add(entry);
+        }
+    }
+
     /**
      * Returns the head of the queue, or {@code null} if the queue is empty. Does not modify the
      * queue.
@@ -91,6 +100,17 @@ public abstract class ObjectQueue<T> implements Iterable<T>, Closeable {
         /** Converts bytes to an object. */
         T from(byte[] source) throws IOException;
 
+        /**
+         * Converts the remaining bytes of {@code source} to an object. The buffer is only valid for
+         * the duration of the call. By default the bytes are copied and passed to
+         * {@link #from(byte[])}.
+         */
+        default T from(ByteBuffer source) throws IOException {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            return from(bytes);
+        }
+
         /** Converts {@code value} to bytes written to the specified stream. */
         void toStream(T value, OutputStream sink) throws IOException;
     }
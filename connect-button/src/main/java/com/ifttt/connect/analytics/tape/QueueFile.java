@@ -20,9 +20,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import javax.annotation.Nullable;
 
@@ -121,9 +125,12 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
     /** In-memory buffer. Big enough to hold the header. */
     private final byte[] buffer = new byte[32];
 
+    /** Reused buffer for {@link #forEach(int, ElementVisitor)}, grown to fit the largest element. */
+    private byte[] elementBuffer = new byte[0];
+
     /**
      * The number of times this file has been structurally modified — it is incremented during
-     * {@link #remove(int)} and {@link #add(byte[], int, int)}. Used by {@link ElementIterator}
+     * {@link #remove(int)}, {@link #add(byte[], int, int)} and {@link #addAll(Iterable)}. Used by {@link ElementIterator}
      * to guard against concurrent modification.
      */
     @Private int modCount = 0;
@@ -133,6 +140,13 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
 
     @Private boolean closed;
 
+    /**
+     * Memory mapped view of the first {@link #fileLength} bytes of the file, or null when elements
+     * are read and written through {@link #raf}. When mapped, writes are only flushed to storage at
+     * commit points, see {@link #writeHeader}.
+     */
+    private @Nullable MappedByteBuffer mapped;
+
     @Private static RandomAccessFile initializeFromFile(File file, boolean forceLegacy)
             throws IOException {
         if (!file.exists()) {
@@ -166,7 +180,8 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
         return new RandomAccessFile(file, "rwd");
     }
 
-    QueueFile(File file, RandomAccessFile raf, boolean zero, boolean forceLegacy) throws IOException {
+    QueueFile(File file, RandomAccessFile raf, boolean zero, boolean forceLegacy, boolean mmap)
+            throws IOException {
         this.file = file;
         this.raf = raf;
         this.zero = zero;
@@ -206,10 +221,44 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
                     "File is corrupt; length stored in header (" + fileLength + ") is invalid.");
         }
 
+        if (mmap) {
+            map();
+        }
+
         first = readElement(firstOffset);
         last = readElement(lastOffset);
     }
 
+    /** Maps the file, replacing the current mapping if there is one. */
+    private void map() throws IOException {
+        if (fileLength > Integer.MAX_VALUE) {
+            throw new IOException("File is too large to be memory mapped: " + fileLength);
+        }
+        mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+    }
+
+    /** Writes count bytes from buffer to position in file. The range must not exceed the file. */
+    private void write(long position, byte[] buffer, int offset, int count) throws IOException {
+        if (mapped != null) {
+            mapped.position((int) position);
+            mapped.put(buffer, offset, count);
+        } else {
+            raf.seek(position);
+            raf.write(buffer, offset, count);
+        }
+    }
+
+    /** Reads count bytes into buffer from position in file. The range must not exceed the file. */
+    private void read(long position, byte[] buffer, int offset, int count) throws IOException {
+        if (mapped != null) {
+            mapped.position((int) position);
+            mapped.get(buffer, offset, count);
+        } else {
+            raf.seek(position);
+            raf.readFully(buffer, offset, count);
+        }
+    }
+
     /**
      * Stores an {@code int} in the {@code byte[]}. The behavior is equivalent to calling
      * {@link RandomAccessFile#writeInt}.
@@ -261,10 +310,16 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
      * should not have changed yet. This only updates the state in the file. It's up to the caller to
      * update the class member variables *after* this call succeeds. Assumes segment writes are
      * atomic in the underlying file system.
+     *
+     * <p>When the file is memory mapped, pending data writes are forced to storage before the header
+     * is written, and the header is forced right after, which keeps the same ordering guarantees as
+     * the synchronous {@link RandomAccessFile}.
      */
     private void writeHeader(long fileLength, int elementCount, long firstPosition, long lastPosition)
             throws IOException {
-        raf.seek(0);
+        if (mapped != null) {
+            mapped.force();
+        }
 
         if (versioned) {
             writeInt(buffer, 0, VERSIONED_HEADER);
@@ -272,16 +327,19 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
             writeInt(buffer, 12, elementCount);
             writeLong(buffer, 16, firstPosition);
             writeLong(buffer, 24, lastPosition);
-            raf.write(buffer, 0, 32);
-            return;
+            write(0, buffer, 0, 32);
+        } else {
+            // Legacy queue header.
+            writeInt(buffer, 0, (int) fileLength); // Signed, so leading bit is always 0 aka legacy.
+            writeInt(buffer, 4, elementCount);
+            writeInt(buffer, 8, (int) firstPosition);
+            writeInt(buffer, 12, (int) lastPosition);
+            write(0, buffer, 0, 16);
         }
 
-        // Legacy queue header.
-        writeInt(buffer, 0, (int) fileLength); // Signed, so leading bit is always 0 aka legacy.
-        writeInt(buffer, 4, elementCount);
-        writeInt(buffer, 8, (int) firstPosition);
-        writeInt(buffer, 12, (int) lastPosition);
-        raf.write(buffer, 0, 16);
+        if (mapped != null) {
+            mapped.force();
+        }
     }
 
     @Private Element readElement(long position) throws IOException {
@@ -308,16 +366,13 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
     private void ringWrite(long position, byte[] buffer, int offset, int count) throws IOException {
         position = wrapPosition(position);
         if (position + count <= fileLength) {
-            raf.seek(position);
-            raf.write(buffer, offset, count);
+            write(position, buffer, offset, count);
         } else {
             // The write overlaps the EOF.
             // # of bytes to write before the EOF. Guaranteed to be less than Integer.MAX_VALUE.
             int beforeEof = (int) (fileLength - position);
-            raf.seek(position);
-            raf.write(buffer, offset, beforeEof);
-            raf.seek(headerLength);
-            raf.write(buffer, offset + beforeEof, count - beforeEof);
+            write(position, buffer, offset, beforeEof);
+            write(headerLength, buffer, offset + beforeEof, count - beforeEof);
         }
     }
 
@@ -340,16 +395,13 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
     @Private void ringRead(long position, byte[] buffer, int offset, int count) throws IOException {
         position = wrapPosition(position);
         if (position + count <= fileLength) {
-            raf.seek(position);
-            raf.readFully(buffer, offset, count);
+            read(position, buffer, offset, count);
         } else {
             // The read overlaps the EOF.
             // # of bytes to read before the EOF. Guaranteed to be less than Integer.MAX_VALUE.
             int beforeEof = (int) (fileLength - position);
-            raf.seek(position);
-            raf.readFully(buffer, offset, beforeEof);
-            raf.seek(headerLength);
-            raf.readFully(buffer, offset + beforeEof, count - beforeEof);
+            read(position, buffer, offset, beforeEof);
+            read(headerLength, buffer, offset + beforeEof, count - beforeEof);
         }
     }
 
@@ -404,7 +456,63 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
         if (wasEmpty) first = last; // first element
     }
 
-    private long usedBytes() {
+    /**
+     * Adds elements to the end of the queue. The file is expanded at most once, all elements are
+     * written with a single contiguous write, and the addition is committed with a single header
+     * write, so either all or none of the elements are added.
+     *
+     * @param elements to copy bytes from
+     */
+    public void addAll(Iterable<byte[]> elements) throws IOException {
+        if (elements == null) {
+            throw new NullPointerException("elements == null");
+        }
+        if (closed) throw new IllegalStateException("closed");
+
+        List<byte[]> data = new ArrayList<>();
+        long totalLength = 0;
+        for (byte[] element : elements) {
+            if (element == null) {
+                throw new NullPointerException("element == null");
+            }
+            data.add(element);
+            totalLength += Element.HEADER_LENGTH + element.length;
+        }
+        if (data.isEmpty()) return;
+        if (totalLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Elements are too large to be added at once.");
+        }
+
+        expandIfNecessary(totalLength - Element.HEADER_LENGTH);
+
+        // Lay out the elements after the current last element, the same way add() writes them.
+        byte[] segment = new byte[(int) totalLength];
+        int offset = 0;
+        int lastOffset = 0;
+        for (byte[] element : data) {
+            lastOffset = offset;
+            writeInt(segment, offset, element.length);
+            System.arraycopy(element, 0, segment, offset + Element.HEADER_LENGTH, element.length);
+            offset += Element.HEADER_LENGTH + element.length;
+        }
+
+        boolean wasEmpty = isEmpty();
+        long position = wasEmpty ? headerLength
+                : wrapPosition(last.position + Element.HEADER_LENGTH + last.length);
+        ringWrite(position, segment, 0, segment.length);
+
+        // Commit the addition. If wasEmpty, the first element is at position.
+        Element newLast = new Element(wrapPosition(position + lastOffset), data.get(data.size() - 1).length);
+        long firstPosition = wasEmpty ? position : first.position;
+        writeHeader(fileLength, elementCount + data.size(), firstPosition, newLast.position);
+        last = newLast;
+        elementCount += data.size();
+        modCount++;
+        if (wasEmpty) first = new Element(position, data.get(0).length);
+    }
+
+    /** Returns the number of bytes of the file used by the header and the elements in this queue. */
+    public long usedBytes() {
         if (elementCount == 0) return headerLength;
 
         if (last.position >= first.position) {
@@ -474,6 +582,9 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
         }
 
         fileLength = newLength;
+        if (mapped != null) {
+            map();
+        }
 
         if (zero) {
             ringErase(headerLength, count);
@@ -497,6 +608,50 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
         return data;
     }
 
+    /**
+     * Reads up to {@code max} elements from the head of the queue without removing them, and passes
+     * each one to {@code visitor} as a read-only {@link ByteBuffer}. Unlike {@link #iterator()}, no
+     * array is allocated per element: the buffer is a view of the memory mapped file when possible,
+     * or of a buffer that is reused for all elements otherwise. It is only valid until
+     * {@link ElementVisitor#read} returns.
+     *
+     * <p>The queue must not be modified by the visitor.
+     *
+     * @return the number of elements passed to the visitor.
+     */
+    public int forEach(int max, ElementVisitor visitor) throws IOException {
+        if (closed) throw new IllegalStateException("closed");
+        int expectedModCount = modCount;
+        int count = min(max, elementCount);
+        long position = first.position;
+        for (int i = 0; i < count; i++) {
+            Element current = readElement(position);
+            long dataPosition = wrapPosition(current.position + Element.HEADER_LENGTH);
+            boolean proceed = visitor.read(elementView(dataPosition, current.length));
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!proceed) return i + 1;
+
+            position = wrapPosition(dataPosition + current.length);
+        }
+        return count;
+    }
+
+    private ByteBuffer elementView(long position, int length) throws IOException {
+        if (mapped != null && position + length <= fileLength) {
+            ByteBuffer view = mapped.duplicate();
+            view.limit((int) position + length);
+            view.position((int) position);
+            return view.slice().asReadOnlyBuffer();
+        }
+
+        // The element is not mapped or wraps around the end of the file.
+        if (elementBuffer.length < length) {
+            elementBuffer = new byte[Math.max(length, elementBuffer.length * 2)];
+        }
+        ringRead(position, elementBuffer, 0, length);
+        return ByteBuffer.wrap(elementBuffer, 0, length).asReadOnlyBuffer();
+    }
+
     /**
      * Returns an iterator over elements in this QueueFile.
      *
@@ -652,15 +807,19 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
 
         if (zero) {
             // Zero out data.
-            raf.seek(headerLength);
-            raf.write(ZEROES, 0, INITIAL_LENGTH - headerLength);
+            write(headerLength, ZEROES, 0, INITIAL_LENGTH - headerLength);
         }
 
         elementCount = 0;
         first = Element.NULL;
         last = Element.NULL;
-        if (fileLength > INITIAL_LENGTH) setLength(INITIAL_LENGTH);
-        fileLength = INITIAL_LENGTH;
+        if (fileLength > INITIAL_LENGTH) {
+            setLength(INITIAL_LENGTH);
+            fileLength = INITIAL_LENGTH;
+            if (mapped != null) {
+                map();
+            }
+        }
         modCount++;
     }
 
@@ -671,6 +830,7 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
 
     @Override public void close() throws IOException {
         closed = true;
+        mapped = null;
         raf.close();
     }
 
@@ -679,6 +839,7 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
                 + "file=" + file
                 + ", zero=" + zero
                 + ", versioned=" + versioned
+                + ", mmap=" + (mapped != null)
                 + ", length=" + fileLength
                 + ", size=" + elementCount
                 + ", first=" + first
@@ -718,11 +879,23 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
         }
     }
 
+    /** Reads elements in place, see {@link #forEach(int, ElementVisitor)}. */
+    public interface ElementVisitor {
+        /**
+         * Called for each element, in queue order.
+         *
+         * @param element the element data, from its position to its limit.
+         * @return true to continue with the next element, false to stop.
+         */
+        boolean read(ByteBuffer element) throws IOException;
+    }
+
     /** Fluent API for creating {@link QueueFile} instances. */
     public static final class Builder {
         final File file;
         boolean zero = true;
         boolean forceLegacy = false;
+        boolean mmap = false;
 
         /** Start constructing a new queue backed by the given file. */
         public Builder(File file) {
@@ -744,6 +917,17 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
             return this;
         }
 
+        /**
+         * When true, elements and the header are read and written through a memory mapped buffer
+         * instead of the synchronous {@link RandomAccessFile}, and changes are forced to storage
+         * when they are committed. This avoids a system call per element read, which benefits
+         * workloads that peek or iterate over many elements.
+         */
+        public Builder mmap(boolean mmap) {
+            this.mmap = mmap;
+            return this;
+        }
+
         /**
          * Constructs a new queue backed by the given builder. Only one instance should access a given
          * file at a time.
@@ -752,7 +936,7 @@ public final class QueueFile implements Closeable, Iterable<byte[]> {
             RandomAccessFile raf = initializeFromFile(file, forceLegacy);
             QueueFile qf = null;
             try {
-                qf = new QueueFile(file, raf, zero, forceLegacy);
+                qf = new QueueFile(file, raf, zero, forceLegacy, mmap);
                 return qf;
             } finally {
                 if (qf == null) {
@@ -1,7 +1,10 @@
 package com.ifttt.connect.ui;
 
+import com.ifttt.connect.api.GzipRequestInterceptor;
+import com.ifttt.connect.api.SdkHttpClient;
 import com.ifttt.connect.api.SdkInfoInterceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
 import retrofit2.Call;
 import retrofit2.Retrofit;
 import retrofit2.converter.moshi.MoshiConverterFactory;
@@ -15,8 +18,11 @@ final class AnalyticsApiHelper {
     private final EventsApi eventsApi;
 
     private AnalyticsApiHelper(String anonymousId) {
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
-        OkHttpClient okHttpClient = builder.addInterceptor(new SdkInfoInterceptor(anonymousId)).build();
+        OkHttpClient okHttpClient = SdkHttpClient.get()
+                .newBuilder()
+                .addInterceptor(new SdkInfoInterceptor(anonymousId))
+                .addInterceptor(GzipRequestInterceptor.get())
+                .build();
 
         Retrofit retrofit = new Retrofit.Builder().baseUrl("https://connect.ifttt.com")
                 .addConverterFactory(MoshiConverterFactory.create())
@@ -33,12 +39,12 @@ final class AnalyticsApiHelper {
         return INSTANCE;
     }
 
-    Call<Void> submitEvents(EventsList events) {
+    Call<Void> submitEvents(RequestBody events) {
         return eventsApi.postEvents(events);
     }
 
     private interface EventsApi {
         @POST("/v2/sdk/events")
-        Call<Void> postEvents(@Body EventsList events);
+        Call<Void> postEvents(@Body RequestBody events);
     }
 }
@@ -4,10 +4,10 @@ import java.util.Map;
 
 final class AnalyticsEventPayload {
 
-    private final String name;
+    final String name;
 
-    private final String timestamp;
-    private final Map properties;
+    final String timestamp;
+    final Map<String, String> properties;
 
     AnalyticsEventPayload(String name, String timestamp, Map<String, String> properties) {
         this.name = name;
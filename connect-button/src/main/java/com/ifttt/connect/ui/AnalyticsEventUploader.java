@@ -6,11 +6,12 @@ import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 import com.ifttt.connect.api.AnonymousId;
 import java.io.IOException;
-import java.util.List;
 import retrofit2.Response;
 
 /*
  * Schedules a one time work request to read from the queue, make an api call to submit events and remove them from queue.
+ * The queue is uploaded in batches limited by the number of events and their size. Each acknowledged batch is removed
+ * from the queue right away, so the head of the queue is where a retry resumes from.
  * */
 public final class AnalyticsEventUploader extends Worker {
 
@@ -19,6 +20,11 @@ public final class AnalyticsEventUploader extends Worker {
 
     private static final int MAX_RETRY_COUNT = 3;
 
+    static final String KEY_MAX_BATCH_EVENTS = "max_batch_events";
+    static final String KEY_MAX_BATCH_BYTES = "max_batch_bytes";
+    static final int DEFAULT_MAX_BATCH_EVENTS = 100;
+    static final long DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
     public AnalyticsEventUploader(Context context, WorkerParameters params) {
         super(context, params);
         analyticsManager = AnalyticsManager.getInstance(context.getApplicationContext());
@@ -28,25 +34,45 @@ public final class AnalyticsEventUploader extends Worker {
     @Override
     @NonNull
     public Result doWork() {
+        analyticsManager.onUploadStarted();
+        Result result = upload();
+        analyticsManager.onUploadFinished(Result.retry().equals(result));
+        return result;
+    }
+
+    /*
+     * Uploads batches from the head of the queue until it is empty, or an upload fails.
+     * */
+    private Result upload() {
+        int maxEvents = getInputData().getInt(KEY_MAX_BATCH_EVENTS, DEFAULT_MAX_BATCH_EVENTS);
+        long maxBytes = getInputData().getLong(KEY_MAX_BATCH_BYTES, DEFAULT_MAX_BATCH_BYTES);
+        boolean uploaded = false;
+        AnalyticsManager.UploadBatch batch = null;
         try {
-            List<AnalyticsEventPayload> list = analyticsManager.performRead();
+            while (!isStopped()) {
+                batch = analyticsManager.nextBatch(maxEvents, maxBytes);
+                if (batch == null) {
+                    return Result.success();
+                }
 
-            if (list != null && !list.isEmpty()) {
                 Response<Void> response = apiHelper
-                        .submitEvents(new EventsList(list))
+                        .submitEvents(new EventsRequestBody(analyticsManager, batch))
                         .execute();
-
-                if (response.isSuccessful()) {
-                    analyticsManager.performRemove(list.size());
-                    return Result.success();
+                // The batch isn't removed if another upload started from the same events in the meantime.
+                if (!response.isSuccessful() || !analyticsManager.performRemove(batch)) {
+                    break;
                 }
-            } else {
-                return Result.success();
+                uploaded = true;
             }
         } catch (IOException e) {
+        } finally {
+            if (batch != null) {
+                analyticsManager.endUpload(batch);
+            }
         }
 
-        if (getRunAttemptCount() < MAX_RETRY_COUNT) {
+        // Attempts that uploaded at least one batch don't count towards the retry limit.
+        if (uploaded || getRunAttemptCount() < MAX_RETRY_COUNT) {
             return Result.retry();
         } else {
             return Result.failure();
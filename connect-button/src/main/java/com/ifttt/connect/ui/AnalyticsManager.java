@@ -1,55 +1,100 @@
 package com.ifttt.connect.ui;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import androidx.annotation.MainThread;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
-import androidx.work.ExistingWorkPolicy;
-import androidx.work.OneTimeWorkRequest;
+import android.os.SystemClock;
+import androidx.work.Constraints;
+import androidx.work.Data;
 import androidx.work.WorkManager;
 import com.ifttt.connect.BuildConfig;
 import com.ifttt.connect.analytics.tape.ObjectQueue;
 import com.ifttt.connect.analytics.tape.QueueFile;
 import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonWriter;
 import com.squareup.moshi.Moshi;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import okio.Buffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import okio.BufferedSink;
-import okio.Okio;
 
 /**
  * This is the main class implementing analytics for the ConnectButton SDK. It is responsible for :
  * 1. Providing different analytics tracking methods
  * 2. A Queue for storing the events, including synchronous add, read and remove operations.
  * 3. Setting up the WorkManager with a one time work request to schedule event uploads to server.
- * Events are scheduled to be uploaded for every 5 events or when submitFlush is explicitly called by the ConnectButton class
+ * Uploads are scheduled by a {@link FlushScheduler}, when enough events have been queued or the oldest one has waited
+ * long enough.
+ *
+ * Tracked events are first collected in a {@link PendingEventBuffer}, and a single writer thread appends them to the
+ * queue in batches.
  */
 final class AnalyticsManager {
 
     private static AnalyticsManager INSTANCE = null;
 
+    static final String EVENT_IMPRESSION = "sdk.impression";
+    static final String EVENT_CLICK = "sdk.click";
+
     private ObjectQueue<AnalyticsEventPayload> queue;
+    private final JsonAdapter<AnalyticsEventPayload> payloadAdapter;
+    private final CompactPayloadConverter converter;
+
+    private final FlushScheduler flushScheduler;
+    private final EventSampler sampler = new EventSampler();
+
+    private final PendingEventBuffer pendingEvents = new PendingEventBuffer(PENDING_BUFFER_SIZE);
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
 
-    private final WorkManager workManager;
+    private volatile int maxBatchEvents = AnalyticsEventUploader.DEFAULT_MAX_BATCH_EVENTS;
+    private volatile long maxBatchBytes = AnalyticsEventUploader.DEFAULT_MAX_BATCH_BYTES;
 
     private static boolean analyticsDisabled = false;
 
     /*
      * This lock is to ensure that only one queue operation - add, remove, or peek can be performed at a time.
-     * This will help make sure that items are not removed while we are adding them to the queue.
+     * This will help make sure that items are not removed while we are adding them to the queue. Tracking an event
+     * never takes this lock: events are staged in the lock-free pending buffer, and only the writer thread and the
+     * uploader access the queue.
      * */
     private final Object queueLock = new Object();
     private static final int MAX_QUEUE_SIZE = 1000;
-    private static final int FLUSH_QUEUE_SIZE = 5;
+    private static final int EVICTION_SCAN_LIMIT = 128;
+
+    /*
+     * Time of the oldest queued event in SystemClock.elapsedRealtime, or -1 if the queue is empty, and whether any
+     * queued event is high priority. Both are only updated under the queue lock, and are reset once the queue is empty.
+     * */
+    private long oldestEventAt = -1;
+    private boolean highPriorityQueued;
+
+    /*
+     * Batch at the head of the queue that is being uploaded, see {@link #nextBatch(int, long)}. Eviction doesn't remove
+     * items from the queue while it is set, so that the items removed once the upload succeeds are the ones that were
+     * sent. Only updated under the queue lock.
+     * */
+    @Nullable private UploadBatch uploadingBatch;
+
+    /*
+     * Events tracked within the delay are written to the queue together. If the buffer fills up before that, it is
+     * drained right away.
+     * */
+    private static final int PENDING_BUFFER_SIZE = 64;
+    private static final long DRAIN_DELAY_MILLIS = 200L;
 
-    private static final String WORK_ID_QUEUE_FLUSH = "analytics_queue_flush";
     private static final String QUEUE_FILE_NAME = "analytics-queue-file";
 
     private AnalyticsManager(Context context) {
@@ -58,16 +103,24 @@ final class AnalyticsManager {
          * Use the in-memory queue as fallback
          **/
         Moshi moshi = new Moshi.Builder().build();
+        payloadAdapter = moshi.adapter(AnalyticsEventPayload.class);
+        converter = new CompactPayloadConverter(payloadAdapter);
 
         try {
             File folder = context.getDir("analytics-disk-queue", Context.MODE_PRIVATE);
             QueueFile queueFile = createQueueFile(folder);
-            queue = ObjectQueue.create(queueFile, new AnalyticsPayloadConverter(moshi));
+            queue = ObjectQueue.create(queueFile, converter);
         } catch (IOException e) {
             queue = ObjectQueue.createInMemory();
         }
 
-        workManager = WorkManager.getInstance(context);
+        if (queue.size() > 0) {
+            // Events left from a previous process: their age is unknown, upload them with the next events.
+            oldestEventAt = 0;
+            highPriorityQueued = true;
+        }
+
+        flushScheduler = new FlushScheduler(WorkManager.getInstance(context));
     }
 
     static synchronized AnalyticsManager getInstance(Context context) {
@@ -81,12 +134,60 @@ final class AnalyticsManager {
         analyticsDisabled = true;
     }
 
+    /*
+     * Sets the limits of a single upload request. A batch always includes at least one event, even if it is larger
+     * than maxBytes.
+     * */
+    void setUploadBatchLimits(int maxEvents, long maxBytes) {
+        if (maxEvents <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Batch limits must be positive.");
+        }
+        maxBatchEvents = maxEvents;
+        maxBatchBytes = maxBytes;
+    }
+
+    /*
+     * Sets the thresholds that trigger an upload of the queue, see {@link FlushScheduler#setThresholds(int, long, long)}.
+     * */
+    void setFlushThresholds(int maxEvents, long maxBytes, long maxAgeMillis) {
+        flushScheduler.setThresholds(maxEvents, maxBytes, maxAgeMillis);
+    }
+
+    /*
+     * Sets the constraints of uploads that only contain impressions, which can wait for example for an unmetered network.
+     * */
+    void setLowPriorityConstraints(Constraints constraints) {
+        flushScheduler.setLowPriorityConstraints(constraints);
+    }
+
+    /*
+     * Sets the initial backoff of failed uploads, see {@link FlushScheduler#setBackoffMillis(long)}.
+     * */
+    void setBackoffMillis(long backoffMillis) {
+        flushScheduler.setBackoffMillis(backoffMillis);
+    }
+
+    /*
+     * Sets the window in which repeated impressions of the same object are dropped, see
+     * {@link EventSampler#setDedupWindow(long)}.
+     * */
+    void setImpressionDedupWindow(long windowMillis) {
+        sampler.setDedupWindow(windowMillis);
+    }
+
+    /*
+     * Limits the rate of impressions, see {@link EventSampler#setRateLimit(String, int, long)}.
+     * */
+    void setImpressionRateLimit(int burst, long intervalMillis) {
+        sampler.setRateLimit(EVENT_IMPRESSION, burst, intervalMillis);
+    }
+
     /*
      * This method generates a UI item impression event
      * */
     @MainThread
     void trackUiImpression(AnalyticsObject obj, AnalyticsLocation location) {
-        trackItemEvent("sdk.impression", obj, location);
+        trackItemEvent(EVENT_IMPRESSION, obj, location);
     }
 
     /*
@@ -94,14 +195,14 @@ final class AnalyticsManager {
      * */
     @MainThread
     void trackUiClick(AnalyticsObject obj, AnalyticsLocation location) {
-        trackItemEvent("sdk.click", obj, location);
+        trackItemEvent(EVENT_CLICK, obj, location);
     }
 
     /*
      * Process the event data before adding it to the event queue
      * */
     private void trackItemEvent(String name, AnalyticsObject obj, AnalyticsLocation location) {
-        if (analyticsDisabled) {
+        if (analyticsDisabled || !sampler.shouldTrack(name, obj.id, location.id, SystemClock.elapsedRealtime())) {
             return;
         }
 
@@ -124,78 +225,202 @@ final class AnalyticsManager {
     }
 
     /*
-     * Enqueue an async task to add to the queue.
-     * The default serial scheduler of AsyncTask will be used to ensure that events are enqueued in the correct order.
+     * Buffer the event, and schedule the writer thread to append the buffered events to the queue.
      **/
-    private void performEnqueue(AnalyticsEventPayload payload) {
-        new EnqueueTask(this).execute(payload);
+    @VisibleForTesting
+    void performEnqueue(AnalyticsEventPayload payload) {
+        int pending = pendingEvents.add(payload);
+        if (pending >= PENDING_BUFFER_SIZE) {
+            writer.execute(this::drainPendingEvents);
+        } else if (drainScheduled.compareAndSet(false, true)) {
+            writer.schedule(this::drainPendingEvents, DRAIN_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
     }
 
     /*
-     * Adds an item to the queue
+     * Appends all buffered events to the queue.
      * */
+    @VisibleForTesting
+    @WorkerThread
+    void drainPendingEvents() {
+        // Reset the flag before draining, so that events buffered after this point schedule another drain.
+        drainScheduled.set(false);
+        List<AnalyticsEventPayload> payloads = pendingEvents.drain();
+        if (!payloads.isEmpty()) {
+            performAddAll(payloads);
+        }
+    }
 
+    /*
+     * Adds an item to the queue
+     * */
     @VisibleForTesting
     @WorkerThread
     void performAdd(AnalyticsEventPayload payload) {
-        if (queue.size() >= MAX_QUEUE_SIZE) {
-            try {
-                synchronized (queueLock) {
-                    /*
-                     * Double check the lock.
-                     * The payload may have been uploaded and removed from the queue while we were waiting.
-                     * */
-                    if (queue.size() >= MAX_QUEUE_SIZE) {
-                        /*
-                         * Remove the oldest payload to accommodate the new one
-                         * */
-                        queue.remove(1);
-                    }
-                }
-            } catch (IOException e) {
-                return;
-            }
-        }
+        performAddAll(Collections.singletonList(payload));
+    }
 
+    /*
+     * Adds a batch of items to the queue, evicting items if the queue would exceed MAX_QUEUE_SIZE, see
+     * {@link #evict(List, int)}.
+     * */
+    @VisibleForTesting
+    @WorkerThread
+    void performAddAll(List<AnalyticsEventPayload> payloads) {
         try {
             synchronized (queueLock) {
-                queue.add(payload);
-            }
+                int overflow = queue.size() + payloads.size() - MAX_QUEUE_SIZE;
+                if (overflow > 0) {
+                    payloads = evict(payloads, overflow);
+                }
 
-            if (queue.size() >= FLUSH_QUEUE_SIZE) {
-                flushTrackedEvents();
+                queue.addAll(payloads);
+                if (oldestEventAt < 0) {
+                    oldestEventAt = SystemClock.elapsedRealtime();
+                }
+                for (int i = 0; i < payloads.size() && !highPriorityQueued; i++) {
+                    highPriorityQueued = isHighPriority(payloads.get(i));
+                }
             }
         } catch (IOException e) {
             return;
         }
+
+        flushTrackedEvents();
     }
 
     /*
-     * Removes n items from the queue
+     * Evicts count items from the queue and the new payloads, so that clicks outlive impressions: impressions from the
+     * head of the queue are evicted first, then the impressions in the new payloads, and the oldest items only if that
+     * is not enough.
+     *
+     * The queue can only be removed from its head, so the clicks found before the evicted impressions are removed too,
+     * and returned with the new payloads to be added again. Their timestamps are kept, only their position in the queue
+     * changes. The scan is limited to the first EVICTION_SCAN_LIMIT items, so that a queue full of clicks is not
+     * rewritten on every add.
+     *
+     * While an upload is in flight the head of the queue is left untouched, and the items are only evicted from the new
+     * payloads: impressions first, then the oldest payloads.
+     *
+     * Returns the payloads to add to the queue.
      * */
     @WorkerThread
-    void performRemove(int n) {
+    private List<AnalyticsEventPayload> evict(List<AnalyticsEventPayload> payloads, int count) throws IOException {
+        int scanned = 0;
+        int prefix = 0;
+        int evicted = 0;
+        List<AnalyticsEventPayload> kept = new ArrayList<>();
+        List<AnalyticsEventPayload> clicks = new ArrayList<>();
+        boolean headUploading = uploadingBatch != null;
+        for (AnalyticsEventPayload payload : queue) {
+            if (headUploading || evicted == count || scanned == EVICTION_SCAN_LIMIT) {
+                break;
+            }
+
+            scanned++;
+            if (isHighPriority(payload)) {
+                clicks.add(payload);
+            } else {
+                evicted++;
+                prefix = scanned;
+                kept.addAll(clicks);
+                clicks.clear();
+            }
+        }
+        queue.remove(prefix);
+
+        kept.addAll(payloads);
+        for (Iterator<AnalyticsEventPayload> iterator = kept.iterator(); iterator.hasNext() && evicted < count; ) {
+            if (!isHighPriority(iterator.next())) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+
+        int remaining = queue.size() + kept.size() - MAX_QUEUE_SIZE;
+        if (remaining > 0 && !headUploading) {
+            int removed = Math.min(remaining, queue.size());
+            queue.remove(removed);
+            remaining -= removed;
+        }
+        if (remaining > 0) {
+            kept = kept.subList(remaining, kept.size());
+        }
+        return kept;
+    }
+
+    /*
+     * Removes the items of an uploaded batch from the queue, and ends its upload. Nothing is removed if the batch was
+     * replaced by a newer one or the queue was cleared since, as the head of the queue may then hold other items.
+     *
+     * Returns whether the items were removed.
+     * */
+    @WorkerThread
+    boolean performRemove(UploadBatch batch) {
         try {
             synchronized (queueLock) {
-                queue.remove(n);
+                if (uploadingBatch != batch) {
+                    return false;
+                }
+
+                uploadingBatch = null;
+                queue.remove(batch.count);
+                if (queue.size() == 0) {
+                    oldestEventAt = -1;
+                    highPriorityQueued = false;
+                }
+                return true;
             }
         } catch (IOException e) {
-            return;
+            return false;
         }
     }
 
     /*
-    * This method will flush the analytics event queue
+    * This method will schedule an upload of the analytics event queue, according to the flush thresholds.
     * Call this when
-    * 1. The queue size reaches a set threshold,
+    * 1. Events are added to the queue,
     * 2. BaseConnectButton is attached to window
     * 3. BaseConnectButton is detached from window
     * */
     void flushTrackedEvents() {
-        OneTimeWorkRequest oneTimeWorkRequest =
-                new OneTimeWorkRequest.Builder(AnalyticsEventUploader.class).build();
-        workManager.enqueueUniqueWork(WORK_ID_QUEUE_FLUSH, ExistingWorkPolicy.KEEP,
-                oneTimeWorkRequest);
+        int size;
+        long bytes;
+        long oldest;
+        boolean lowPriority;
+        synchronized (queueLock) {
+            size = queue.size();
+            QueueFile queueFile = queue.file();
+            bytes = queueFile == null ? 0 : queueFile.usedBytes();
+            oldest = oldestEventAt;
+            lowPriority = !highPriorityQueued;
+        }
+
+        Data inputData = new Data.Builder()
+                .putInt(AnalyticsEventUploader.KEY_MAX_BATCH_EVENTS, maxBatchEvents)
+                .putLong(AnalyticsEventUploader.KEY_MAX_BATCH_BYTES, maxBatchBytes)
+                .build();
+        flushScheduler.schedule(size, bytes, oldest, lowPriority, inputData);
+    }
+
+    /*
+     * Called by the upload worker when it starts and returns, see {@link FlushScheduler#onUploadStarted()}.
+     * */
+    @WorkerThread
+    void onUploadStarted() {
+        flushScheduler.onUploadStarted();
+    }
+
+    @WorkerThread
+    void onUploadFinished(boolean retry) {
+        flushScheduler.onUploadFinished(retry);
+    }
+
+    /*
+     * Clicks are uploaded as soon as possible, impressions can wait for the low priority constraints.
+     * */
+    private static boolean isHighPriority(AnalyticsEventPayload payload) {
+        return !EVENT_IMPRESSION.equals(payload.name);
     }
 
     /*
@@ -203,9 +428,118 @@ final class AnalyticsManager {
     * */
     @VisibleForTesting
     void clearQueue() {
-        try {
-            queue.clear();
-        } catch(IOException e) {
+        pendingEvents.drain();
+        synchronized (queueLock) {
+            try {
+                queue.clear();
+            } catch(IOException e) {
+            }
+            oldestEventAt = -1;
+            highPriorityQueued = false;
+            uploadingBatch = null;
+        }
+    }
+
+    /*
+     * Starts the upload of the items from the head of the queue that fit in one upload batch: at most maxEvents items,
+     * and at most maxBytes of stored data unless the first item alone is larger. Any previous batch is replaced, and
+     * can no longer be written or removed.
+     *
+     * The items are kept at the head of the queue until the upload ends, with {@link #performRemove(UploadBatch)} if it
+     * succeeded or {@link #endUpload(UploadBatch)} otherwise.
+     *
+     * Returns null if the queue is empty.
+     * */
+    @WorkerThread
+    @Nullable
+    UploadBatch nextBatch(int maxEvents, long maxBytes) throws IOException {
+        synchronized (queueLock) {
+            int count;
+            QueueFile queueFile = queue.file();
+            if (queueFile == null) {
+                count = Math.min(maxEvents, queue.size());
+            } else {
+                BatchSizeVisitor visitor = new BatchSizeVisitor(maxBytes);
+                queueFile.forEach(maxEvents, visitor);
+                count = visitor.count;
+            }
+
+            uploadingBatch = count == 0 ? null : new UploadBatch(count);
+            return uploadingBatch;
+        }
+    }
+
+    /*
+     * Ends the upload of a batch that failed, leaving its items in the queue.
+     * */
+    @WorkerThread
+    void endUpload(UploadBatch batch) {
+        synchronized (queueLock) {
+            if (uploadingBatch == batch) {
+                uploadingBatch = null;
+            }
+        }
+    }
+
+    /*
+     * Writes the items of an upload batch to the sink as comma separated JSON. Items still stored as JSON are copied
+     * as they are, items in the compact format are streamed to the sink as JSON without being decoded.
+     *
+     * Only the stored bytes of the items are copied under the queue lock, bounded by the upload batch limits. They are
+     * converted and written to the sink afterwards, so that the writer thread is not blocked on serialization or the
+     * network.
+     *
+     * Throws an IOException if the upload of the batch has ended.
+     * */
+    @WorkerThread
+    void writeEvents(BufferedSink sink, UploadBatch uploadBatch) throws IOException {
+        List<AnalyticsEventPayload> payloads = null;
+        List<ByteBuffer> records = null;
+        synchronized (queueLock) {
+            if (uploadingBatch != uploadBatch) {
+                throw new IOException("Upload batch has ended.");
+            }
+
+            int count = uploadBatch.count;
+            QueueFile queueFile = queue.file();
+            if (queueFile == null) {
+                payloads = queue.peek(count);
+            } else {
+                List<ByteBuffer> elements = new ArrayList<>(count);
+                queueFile.forEach(count, new QueueFile.ElementVisitor() {
+                    @Override
+                    public boolean read(ByteBuffer element) {
+                        ByteBuffer copy = ByteBuffer.allocate(element.remaining());
+                        copy.put(element);
+                        copy.flip();
+                        elements.add(copy);
+                        return true;
+                    }
+                });
+                records = elements;
+            }
+        }
+
+        if (payloads != null) {
+            for (int i = 0; i < payloads.size(); i++) {
+                if (i > 0) {
+                    sink.writeByte(',');
+                }
+                payloadAdapter.toJson(sink, payloads.get(i));
+            }
+            return;
+        }
+
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            ByteBuffer record = records.get(i);
+            if (CompactPayloadConverter.isJson(record)) {
+                sink.write(record);
+            } else {
+                CompactPayloadConverter.writeJson(record, JsonWriter.of(sink));
+            }
         }
     }
 
@@ -231,10 +565,10 @@ final class AnalyticsManager {
 
         File file = new File(folder, QUEUE_FILE_NAME);
         try {
-            return new QueueFile.Builder(file).build();
+            return new QueueFile.Builder(file).mmap(true).build();
         } catch (IOException e) {
             if (file.delete()) {
-                return new QueueFile.Builder(file).build();
+                return new QueueFile.Builder(file).mmap(true).build();
             } else {
                 throw new IOException(
                         "Could not create queue file (" + QUEUE_FILE_NAME + ") in " + folder + ".");
@@ -242,40 +576,35 @@ final class AnalyticsManager {
         }
     }
 
-    final static class EnqueueTask extends AsyncTask<AnalyticsEventPayload, Void, Void> {
-
-        private final AnalyticsManager analyticsManager;
+    /*
+     * Items at the head of the queue that are being uploaded. Batches are compared by identity, so a batch that was
+     * replaced never matches the current one, even if it has the same size.
+     * */
+    static final class UploadBatch {
+        final int count;
 
-        EnqueueTask(AnalyticsManager analyticsManager) {
-            this.analyticsManager = analyticsManager;
-        }
-
-        @Override
-        protected final Void doInBackground(AnalyticsEventPayload... items) {
-            analyticsManager.performAdd(items[0]);
-            return null;
+        UploadBatch(int count) {
+            this.count = count;
         }
     }
 
-    /** Converter which uses Moshi to serialize instances of class AnalyticsEventPayload to disk. */
-    private static final class AnalyticsPayloadConverter
-            implements ObjectQueue.Converter<AnalyticsEventPayload> {
-        private final JsonAdapter<AnalyticsEventPayload> jsonAdapter;
-
-        AnalyticsPayloadConverter(Moshi moshi) {
-            this.jsonAdapter = moshi.adapter(AnalyticsEventPayload.class);
-        }
+    private static final class BatchSizeVisitor implements QueueFile.ElementVisitor {
+        private final long maxBytes;
+        private long bytes;
+        int count;
 
-        @Override
-        public AnalyticsEventPayload from(byte[] bytes) throws IOException {
-            return jsonAdapter.fromJson(new Buffer().write(bytes));
+        BatchSizeVisitor(long maxBytes) {
+            this.maxBytes = maxBytes;
         }
 
         @Override
-        public void toStream(AnalyticsEventPayload val, OutputStream os) throws IOException {
-            try (BufferedSink sink = Okio.buffer(Okio.sink(os))) {
-                jsonAdapter.toJson(sink, val);
+        public boolean read(ByteBuffer element) {
+            bytes += element.remaining();
+            if (count > 0 && bytes > maxBytes) {
+                return false;
             }
+            count++;
+            return true;
         }
     }
 }
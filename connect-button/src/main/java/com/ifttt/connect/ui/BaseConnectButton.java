@@ -52,6 +52,7 @@ import androidx.lifecycle.OnLifecycleEvent;
 import com.ifttt.connect.R;
 import com.ifttt.connect.api.Connection;
 import com.ifttt.connect.api.ConnectionApiClient;
+import com.ifttt.connect.api.ConnectionRepository;
 import com.ifttt.connect.api.ErrorResponse;
 import com.ifttt.connect.api.PendingResult;
 import com.ifttt.connect.api.Service;
@@ -369,6 +370,11 @@ final class BaseConnectButton extends LinearLayout implements LifecycleOwner {
         cleanUpViews(ProgressView.class);
         switch (result.nextStep) {
             case Complete:
+                if (connection != null) {
+                    // The Connection has been enabled, the repository still has its previous status.
+                    ConnectionRepository.getInstance().invalidate(connection.id);
+                }
+
                 CharSequence text = getResources().getString(R.string.connecting);
                 ProgressView progressView = ProgressView.addTo(buttonRoot,
                     worksWithService.brandColor,
@@ -16,6 +16,7 @@ import com.ifttt.connect.R;
 import com.ifttt.connect.api.AnonymousId;
 import com.ifttt.connect.api.Connection;
 import com.ifttt.connect.api.ConnectionApiClient;
+import com.ifttt.connect.api.ConnectionRepository;
 import com.ifttt.connect.api.ErrorResponse;
 import com.ifttt.connect.api.PendingResult;
 import com.ifttt.connect.api.PendingResult.ResultCallback;
@@ -75,6 +76,8 @@ final class ButtonApiHelper {
             @Override
             public void onSuccess(Connection result) {
                 disableConnectionCall = null;
+                // The repository still has the previous status of the Connection.
+                ConnectionRepository.getInstance().invalidate(id);
                 resultCallback.onSuccess(result);
             }
 
@@ -95,6 +98,8 @@ final class ButtonApiHelper {
             @Override
             public void onSuccess(Connection result) {
                 reenableConnectionCall = null;
+                // The repository still has the previous status of the Connection.
+                ConnectionRepository.getInstance().invalidate(id);
                 resultCallback.onSuccess(result);
             }
 
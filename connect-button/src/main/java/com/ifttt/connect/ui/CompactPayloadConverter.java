@@ -0,0 +1,278 @@
+package com.ifttt.connect.ui;
+
+import com.ifttt.connect.analytics.tape.ObjectQueue;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import okio.Buffer;
+
+/**
+ * Converter that stores {@link AnalyticsEventPayload} in a compact binary format:
+ *
+ * <pre>
+ *   1 byte           Format marker, 0xA1
+ *   1 byte           Format version, always 1
+ *   token            Event name
+ *   varint           Timestamp in milliseconds plus one, or 0 followed by the timestamp as a string token
+ *   varint           Property count
+ *   token, token     Property key and value, for each property
+ *
+ * Token:
+ *   varint 0         null
+ *   varint 2n + 2    Entry n of {@link #DICTIONARY}
+ *   varint 2n + 1    Inline string, followed by n bytes of UTF-8
+ * </pre>
+ *
+ * Property keys and the common values are taken from a dictionary shared by all records, so they cost a single byte.
+ *
+ * Records written as JSON by previous versions of the SDK start with '{', and are still read through the JSON adapter,
+ * so existing queue files are migrated as their records are uploaded.
+ */
+final class CompactPayloadConverter implements ObjectQueue.Converter<AnalyticsEventPayload> {
+
+    private static final int FORMAT_MARKER = 0xA1;
+    private static final int FORMAT_VERSION = 1;
+    private static final int JSON_MARKER = '{';
+
+    /**
+     * Strings shared by all records. Entries are referenced by index from the stored records, so this list can only be
+     * appended to.
+     */
+    private static final List<String> DICTIONARY = Arrays.asList(
+        // Property keys.
+        "object_id",
+        "object_type",
+        "object_status",
+        "location_id",
+        "location_type",
+        "sdk_version",
+        // Event names.
+        "sdk.impression",
+        "sdk.click",
+        // Object and location types.
+        "connection",
+        "button",
+        "modal",
+        "connection_email",
+        "connect_button",
+        // Object ids.
+        "works_with_ifttt",
+        "connect_information",
+        "privacy_policy",
+        "manage",
+        "connection_name",
+        // Connection statuses.
+        "enabled",
+        "disabled",
+        "never_enabled",
+        "unknown"
+    );
+    private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.size(); i++) {
+            DICTIONARY_INDEX.put(DICTIONARY.get(i), i);
+        }
+    }
+
+    private final JsonAdapter<AnalyticsEventPayload> jsonAdapter;
+
+    /**
+     * @param jsonAdapter adapter used to read records stored as JSON.
+     */
+    CompactPayloadConverter(JsonAdapter<AnalyticsEventPayload> jsonAdapter) {
+        this.jsonAdapter = jsonAdapter;
+    }
+
+    /**
+     * @return true if the record was stored as JSON rather than in the compact format.
+     */
+    static boolean isJson(ByteBuffer source) {
+        return source.hasRemaining() && source.get(source.position()) == JSON_MARKER;
+    }
+
+    @Override
+    public AnalyticsEventPayload from(byte[] source) throws IOException {
+        return from(ByteBuffer.wrap(source));
+    }
+
+    @Override
+    public AnalyticsEventPayload from(ByteBuffer source) throws IOException {
+        if (isJson(source)) {
+            Buffer buffer = new Buffer();
+            buffer.write(source);
+            return jsonAdapter.fromJson(buffer);
+        }
+
+        try {
+            readHeader(source);
+            String name = readToken(source);
+            String timestampString = readTimestamp(source);
+
+            int propertyCount = (int) readVarint(source);
+            Map<String, String> properties = new HashMap<>(propertyCount * 2);
+            for (int i = 0; i < propertyCount; i++) {
+                properties.put(readToken(source), readToken(source));
+            }
+            return new AnalyticsEventPayload(name, timestampString, properties);
+        } catch (RuntimeException e) {
+            // Buffer underflow or invalid dictionary index: the record is corrupt.
+            throw new IOException("Malformed analytics record", e);
+        }
+    }
+
+    /**
+     * Writes a record stored in the compact format as the JSON the adapter would write for its payload, without
+     * decoding it into an {@link AnalyticsEventPayload}. Properties are written in the order they were stored.
+     */
+    static void writeJson(ByteBuffer source, JsonWriter writer) throws IOException {
+        try {
+            readHeader(source);
+            writer.beginObject();
+            writer.name("name").value(readToken(source));
+            writer.name("timestamp").value(readTimestamp(source));
+
+            int propertyCount = (int) readVarint(source);
+            writer.name("properties").beginObject();
+            for (int i = 0; i < propertyCount; i++) {
+                writer.name(readToken(source)).value(readToken(source));
+            }
+            writer.endObject();
+            writer.endObject();
+        } catch (RuntimeException e) {
+            // Buffer underflow or invalid dictionary index: the record is corrupt.
+            throw new IOException("Malformed analytics record", e);
+        }
+    }
+
+    @Override
+    public void toStream(AnalyticsEventPayload value, OutputStream sink) throws IOException {
+        sink.write(FORMAT_MARKER);
+        sink.write(FORMAT_VERSION);
+        writeToken(sink, value.name);
+
+        long timestamp = parseTimestamp(value.timestamp);
+        if (timestamp >= 0) {
+            writeVarint(sink, timestamp + 1);
+        } else {
+            writeVarint(sink, 0);
+            writeToken(sink, value.timestamp);
+        }
+
+        writeVarint(sink, value.properties.size());
+        for (Map.Entry<String, String> entry : value.properties.entrySet()) {
+            writeToken(sink, entry.getKey());
+            writeToken(sink, entry.getValue());
+        }
+    }
+
+    private static void readHeader(ByteBuffer source) throws IOException {
+        int marker = source.get() & 0xFF;
+        int version = source.get() & 0xFF;
+        if (marker != FORMAT_MARKER || version != FORMAT_VERSION) {
+            throw new IOException("Unsupported analytics record format: " + marker + ", version " + version);
+        }
+    }
+
+    private static String readTimestamp(ByteBuffer source) {
+        long timestamp = readVarint(source);
+        return timestamp == 0 ? readToken(source) : Long.toString(timestamp - 1);
+    }
+
+    /**
+     * @return the timestamp in milliseconds, or -1 if it is not a non-negative number.
+     */
+    private static long parseTimestamp(String timestamp) {
+        if (timestamp == null || timestamp.isEmpty() || timestamp.length() > 18) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < timestamp.length(); i++) {
+            char c = timestamp.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        // Leading zeros would not survive the round trip.
+        if (timestamp.length() > 1 && timestamp.charAt(0) == '0') {
+            return -1;
+        }
+        return value;
+    }
+
+    private static void writeToken(OutputStream sink, String value) throws IOException {
+        if (value == null) {
+            writeVarint(sink, 0);
+            return;
+        }
+
+        Integer index = DICTIONARY_INDEX.get(value);
+        if (index != null) {
+            writeVarint(sink, 2L * index + 2);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(sink, 2L * bytes.length + 1);
+        sink.write(bytes);
+    }
+
+    private static String readToken(ByteBuffer source) {
+        long token = readVarint(source);
+        if (token == 0) {
+            return null;
+        }
+
+        if ((token & 1) == 0) {
+            return DICTIONARY.get((int) (token - 2) / 2);
+        }
+
+        int length = (int) (token >>> 1);
+        if (length > source.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        String value;
+        if (source.hasArray()) {
+            int offset = source.arrayOffset() + source.position();
+            value = new String(source.array(), offset, length, StandardCharsets.UTF_8);
+            source.position(source.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            source.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static void writeVarint(OutputStream sink, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            sink.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        sink.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer source) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = source.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
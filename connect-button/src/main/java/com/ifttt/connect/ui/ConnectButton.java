@@ -25,12 +25,17 @@ import androidx.core.view.ViewCompat;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LifecycleRegistry;
+import androidx.work.Constraints;
+import androidx.work.NetworkType;
 import com.ifttt.connect.R;
 import com.ifttt.connect.api.Connection;
 import com.ifttt.connect.api.ConnectionApiClient;
+import com.ifttt.connect.api.ConnectionRepository;
 import com.ifttt.connect.api.ErrorResponse;
 import com.ifttt.connect.api.PendingResult;
 import com.ifttt.connect.api.UserTokenProvider;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import static android.animation.ValueAnimator.INFINITE;
 
@@ -41,6 +46,7 @@ import static android.animation.ValueAnimator.INFINITE;
 public class ConnectButton extends FrameLayout implements LifecycleOwner {
 
     private static final long ANIM_DURATION = 1000L;
+    private static final String CONNECTION_CACHE_DIRECTORY = "ifttt_connection_cache";
 
     @Nullable private ConnectResultCredentialProvider connectResultCredentialProvider;
 
@@ -97,6 +103,86 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
         AnalyticsManager.getInstance(context).disableTracking();
     }
 
+    /**
+     * Set the limits of a single analytics upload request. Queued events are uploaded in batches of at most maxEvents
+     * events and maxBytes of event data, and each batch is removed from the queue once it has been accepted. A batch
+     * always includes at least one event, even if it is larger than maxBytes.
+     *
+     * The defaults are 100 events and 64KB.
+     *
+     * @param maxEvents maximum number of events in a request, must be positive.
+     * @param maxBytes maximum size of the events in a request, must be positive.
+     */
+    public static void setAnalyticsBatchLimits(Context context, int maxEvents, long maxBytes) {
+        AnalyticsManager.getInstance(context).setUploadBatchLimits(maxEvents, maxBytes);
+    }
+
+    /**
+     * Set when queued analytics events are uploaded. Events are held until maxEvents events or maxBytes of event data
+     * have been queued, or the oldest event has waited for maxAge, and are then uploaded together.
+     *
+     * The defaults are 20 events, 16KB and 1 minute.
+     *
+     * @param maxEvents number of queued events that triggers an upload, must be positive.
+     * @param maxBytes size of the queued events that triggers an upload, must be positive.
+     * @param maxAge time after which the oldest queued event triggers an upload.
+     */
+    public static void setAnalyticsFlushThresholds(
+        Context context, int maxEvents, long maxBytes, long maxAge, TimeUnit unit
+    ) {
+        AnalyticsManager.getInstance(context).setFlushThresholds(maxEvents, maxBytes, unit.toMillis(maxAge));
+    }
+
+    /**
+     * Set the conditions under which uploads that only contain impressions run. Uploads that contain other events only
+     * require a network connection. By default, impressions are uploaded on any network while the battery is not low.
+     *
+     * @param requireUnmeteredNetwork true if impressions should only be uploaded on an unmetered network.
+     * @param requireCharging true if impressions should only be uploaded while the device is charging.
+     */
+    public static void setLowPriorityAnalyticsConstraints(
+        Context context, boolean requireUnmeteredNetwork, boolean requireCharging
+    ) {
+        Constraints constraints = new Constraints.Builder()
+            .setRequiredNetworkType(requireUnmeteredNetwork ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+            .setRequiresBatteryNotLow(true)
+            .setRequiresCharging(requireCharging)
+            .build();
+        AnalyticsManager.getInstance(context).setLowPriorityConstraints(constraints);
+    }
+
+    /**
+     * Set the initial delay before a failed analytics upload is retried. The delay doubles with every failed attempt.
+     * The default is 30 seconds.
+     *
+     * @param backoff initial delay, at least 10 seconds.
+     */
+    public static void setAnalyticsRetryBackoff(Context context, long backoff, TimeUnit unit) {
+        AnalyticsManager.getInstance(context).setBackoffMillis(unit.toMillis(backoff));
+    }
+
+    /**
+     * Only track one impression of the same Connection at the same location within the given window, for example to
+     * avoid tracking an impression every time a ConnectButton is scrolled back into view in a list. Impressions are
+     * not deduplicated by default.
+     *
+     * @param window window in which repeated impressions are dropped, 0 to disable deduplication.
+     */
+    public static void setImpressionDedupWindow(Context context, long window, TimeUnit unit) {
+        AnalyticsManager.getInstance(context).setImpressionDedupWindow(unit.toMillis(window));
+    }
+
+    /**
+     * Limit the rate at which impressions are tracked: at most burst impressions are tracked at once, and then one
+     * impression per interval. Impressions are not rate limited by default.
+     *
+     * @param burst maximum number of impressions tracked at once, 0 to remove the limit.
+     * @param interval time after which one more impression can be tracked, must be positive.
+     */
+    public static void setImpressionRateLimit(Context context, int burst, long interval, TimeUnit unit) {
+        AnalyticsManager.getInstance(context).setImpressionRateLimit(burst, unit.toMillis(interval));
+    }
+
     /**
      * Set up the Connect Button to fetch the Connection data with the given id and set up the View to be able to do
      * authentication.
@@ -125,6 +211,10 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
                 clientBuilder.setInviteCode(configuration.inviteCode);
             }
 
+            if (configuration.enableConnectionCache) {
+                clientBuilder.setConnectionCache(new File(getContext().getCacheDir(), CONNECTION_CACHE_DIRECTORY));
+            }
+
             clientToUse = clientBuilder.build();
         } else {
             clientToUse = configuration.connectionApiClient;
@@ -155,7 +245,8 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
             throw new IllegalStateException("Connection id cannot be null.");
         }
 
-        PendingResult<Connection> pendingResult = clientToUse.api().showConnection(configuration.connectionId);
+        PendingResult<Connection> pendingResult = ConnectionRepository.getInstance()
+            .showConnection(clientToUse, configuration.connectionId);
         pendingResult.execute(new PendingResult.ResultCallback<Connection>() {
             @Override
             public void onSuccess(Connection result) {
@@ -186,8 +277,8 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
                 );
 
                 connectButton.setErrorMessage(errorSpan, v -> {
-                    PendingResult<Connection> pendingResult = clientToUse.api()
-                        .showConnection(configuration.connectionId);
+                    PendingResult<Connection> pendingResult = ConnectionRepository.getInstance()
+                        .showConnection(clientToUse, configuration.connectionId);
                     pendingResult.execute(this);
                     lifecycleRegistry.addObserver(new PendingResultLifecycleObserver<>(pendingResult));
                 });
@@ -232,8 +323,12 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
      * @param result Authentication flow redirect result from the web view.
      */
     public void setConnectResult(@Nullable ConnectResult result) {
-        if (result != null && result.userToken != null && connectResultCredentialProvider != null) {
-            connectResultCredentialProvider.userToken = result.userToken;
+        if (result != null && result.userToken != null) {
+            // Connections in the repository were fetched for the previous user.
+            ConnectionRepository.getInstance().clear();
+            if (connectResultCredentialProvider != null) {
+                connectResultCredentialProvider.userToken = result.userToken;
+            }
         }
 
         if (ViewCompat.isLaidOut(connectButton)) {
@@ -313,6 +408,7 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
         @Nullable private Connection connection;
         @Nullable private OnFetchConnectionListener listener;
         @Nullable private String inviteCode;
+        private boolean enableConnectionCache;
 
         /**
          * Factory method to build a new {@link Configuration} instance. There are a few steps to be taken in order to
@@ -350,6 +446,7 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
             @Nullable private Connection connection;
             @Nullable private String inviteCode;
             private boolean skipConnectionConfiguration;
+            private boolean enableConnectionCache;
 
             private Builder(String suggestedUserEmail, Uri connectRedirectUri) {
                 this.suggestedUserEmail = suggestedUserEmail;
@@ -368,6 +465,12 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
                 return this;
             }
 
+            @Override
+            public ConfigurationSetup enableConnectionCache() {
+                this.enableConnectionCache = true;
+                return this;
+            }
+
             @Override
             public ConfigurationSetup withClient(ConnectionApiClient client, CredentialsProvider provider) {
                 this.connectionApiClient = client;
@@ -413,6 +516,7 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
                 configuration.connectionId = connectionId;
                 configuration.listener = listener;
                 configuration.inviteCode = inviteCode;
+                configuration.enableConnectionCache = enableConnectionCache;
                 return configuration;
             }
         }
@@ -466,6 +570,15 @@ public class ConnectButton extends FrameLayout implements LifecycleOwner {
              */
             ConfigurationSetup skipConnectionConfiguration();
 
+            /**
+             * Set up the {@link ConnectButton} to cache the Connection data on disk. On subsequent setups, the button
+             * renders the cached Connection right away, while the Connection is revalidated in the background.
+             *
+             * This only applies to the ConnectionApiClient created by the ConnectButton, if you are providing your
+             * own ConnectionApiClient, use {@link ConnectionApiClient.Builder#setConnectionCache(File)} instead.
+             */
+            ConfigurationSetup enableConnectionCache();
+
             Configuration build();
         }
     }
@@ -0,0 +1,118 @@
+package com.ifttt.connect.ui;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filters tracked analytics events before they are queued, so that impressions from list heavy UIs don't flood the
+ * queue:
+ * 1. An impression of the same object at the same location is only tracked once per dedup window.
+ * 2. Each event name can be limited by a token bucket, which allows a burst of events and then a steady rate.
+ *
+ * Both are disabled until they are configured, so by default every event is tracked. Clicks are not limited unless a
+ * rate limit is set for them.
+ */
+final class EventSampler {
+
+    /*
+     * Number of recent impressions remembered for the dedup window. Older entries are forgotten first.
+     * */
+    private static final int MAX_RECENT_IMPRESSIONS = 256;
+
+    private long dedupWindowMillis;
+    private final Map<String, Long> recentImpressions = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_RECENT_IMPRESSIONS;
+        }
+    };
+    private final Map<String, TokenBucket> rateLimits = new HashMap<>();
+
+    /*
+     * Sets the window in which repeated impressions of the same object at the same location are dropped. 0 disables
+     * deduplication.
+     * */
+    synchronized void setDedupWindow(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis < 0");
+        }
+        dedupWindowMillis = windowMillis;
+        recentImpressions.clear();
+    }
+
+    /*
+     * Limits the events with the given name to bursts of at most burst events, refilled at one event per intervalMillis.
+     * A burst of 0 removes the limit.
+     * */
+    synchronized void setRateLimit(String name, int burst, long intervalMillis) {
+        if (burst < 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid rate limit for " + name);
+        }
+        if (burst == 0) {
+            rateLimits.remove(name);
+        } else {
+            rateLimits.put(name, new TokenBucket(burst, intervalMillis));
+        }
+    }
+
+    /*
+     * Returns true if the event should be tracked.
+     *
+     * @param now current time in SystemClock.elapsedRealtime.
+     * */
+    synchronized boolean shouldTrack(String name, String objectId, String locationId, long now) {
+        String key = null;
+        if (AnalyticsManager.EVENT_IMPRESSION.equals(name) && dedupWindowMillis > 0) {
+            key = objectId + '\u0000' + locationId;
+            Long lastTrackedAt = recentImpressions.get(key);
+            if (lastTrackedAt != null && now - lastTrackedAt < dedupWindowMillis) {
+                return false;
+            }
+        }
+
+        TokenBucket bucket = rateLimits.get(name);
+        if (bucket != null && !bucket.tryAcquire(now)) {
+            return false;
+        }
+
+        if (key != null) {
+            recentImpressions.put(key, now);
+        }
+        return true;
+    }
+
+    private static final class TokenBucket {
+
+        private final int capacity;
+        private final long intervalMillis;
+
+        private int tokens;
+        private long refilledAt = -1;
+
+        TokenBucket(int capacity, long intervalMillis) {
+            this.capacity = capacity;
+            this.intervalMillis = intervalMillis;
+            tokens = capacity;
+        }
+
+        boolean tryAcquire(long now) {
+            if (refilledAt < 0) {
+                refilledAt = now;
+            } else if (now > refilledAt) {
+                long refill = (now - refilledAt) / intervalMillis;
+                if (refill > 0) {
+                    tokens = (int) Math.min(capacity, tokens + refill);
+                    // Keep the remainder, so that partial intervals add up.
+                    refilledAt = tokens == capacity ? now : refilledAt + refill * intervalMillis;
+                }
+            }
+
+            if (tokens == 0) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
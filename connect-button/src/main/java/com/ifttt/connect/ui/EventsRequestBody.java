@@ -0,0 +1,43 @@
+package com.ifttt.connect.ui;
+
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * {@link RequestBody} for the events API, which streams the events from the head of the analytics queue into the
+ * events envelope.
+ */
+final class EventsRequestBody extends RequestBody {
+
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.get("application/json; charset=UTF-8");
+    private static final ByteString ENVELOPE_START = ByteString.encodeUtf8("{\"events\":[");
+    private static final ByteString ENVELOPE_END = ByteString.encodeUtf8("]}");
+
+    private final AnalyticsManager analyticsManager;
+    private final AnalyticsManager.UploadBatch batch;
+
+    /**
+     * @param batch events to include, starting from the head of the queue.
+     */
+    EventsRequestBody(AnalyticsManager analyticsManager, AnalyticsManager.UploadBatch batch) {
+        this.analyticsManager = analyticsManager;
+        this.batch = batch;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return MEDIA_TYPE_JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(ENVELOPE_START);
+        analyticsManager.writeEvents(sink, batch);
+        sink.write(ENVELOPE_END);
+    }
+}
@@ -0,0 +1,186 @@
+package com.ifttt.connect.ui;
+
+import android.os.SystemClock;
+import androidx.annotation.VisibleForTesting;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the analytics queue is uploaded. Instead of uploading every few events, events are held until one of
+ * the thresholds is reached: the number of queued events, their stored size, or the age of the oldest one. Until then,
+ * an upload is scheduled for when the oldest event reaches the maximum age, so that every event is eventually uploaded
+ * in a batch with the events tracked after it.
+ *
+ * Uploads only run with a network connection. When the queue only contains low priority events, the upload also waits
+ * for the low priority constraints, which can for example require an unmetered network. Failed uploads are retried with
+ * exponential backoff.
+ */
+final class FlushScheduler {
+
+    static final int DEFAULT_MAX_EVENTS = 20;
+    static final long DEFAULT_MAX_BYTES = 16 * 1024;
+    static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final long DEFAULT_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String WORK_ID_QUEUE_FLUSH = "analytics_queue_flush";
+
+    private final WorkManager workManager;
+
+    private int maxEvents = DEFAULT_MAX_EVENTS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private long backoffMillis = DEFAULT_BACKOFF_MILLIS;
+    private Constraints lowPriorityConstraints = new Constraints.Builder()
+        .setRequiredNetworkType(NetworkType.CONNECTED)
+        .setRequiresBatteryNotLow(true)
+        .build();
+
+    /*
+     * The time at which the last scheduled upload becomes due, and whether it waits for the low priority constraints.
+     * While that upload is pending, later events that can wait for it don't schedule another one.
+     * */
+    private long scheduledAt = -1;
+    private boolean scheduledLowPriority;
+
+    /*
+     * Whether an upload is running, and whether another upload has been appended to run after it. A running upload is
+     * never replaced, as cancelling it could upload its batch again.
+     * */
+    private boolean uploadRunning;
+    private boolean uploadAppended;
+
+    FlushScheduler(WorkManager workManager) {
+        this.workManager = workManager;
+    }
+
+    /*
+     * Sets the thresholds that trigger an upload: the number of queued events, their stored size in bytes, and the age
+     * of the oldest queued event.
+     * */
+    synchronized void setThresholds(int maxEvents, long maxBytes, long maxAgeMillis) {
+        if (maxEvents <= 0 || maxBytes <= 0 || maxAgeMillis < 0) {
+            throw new IllegalArgumentException("Invalid flush thresholds.");
+        }
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /*
+     * Sets the constraints of uploads that only contain low priority events. The constraints must require a network
+     * connection.
+     * */
+    synchronized void setLowPriorityConstraints(Constraints constraints) {
+        if (constraints.getRequiredNetworkType() == NetworkType.NOT_REQUIRED) {
+            throw new IllegalArgumentException("Uploads require a network connection.");
+        }
+        lowPriorityConstraints = constraints;
+    }
+
+    /*
+     * Sets the initial delay of the exponential backoff of failed uploads.
+     * */
+    synchronized void setBackoffMillis(long backoffMillis) {
+        if (backoffMillis < OneTimeWorkRequest.MIN_BACKOFF_MILLIS) {
+            throw new IllegalArgumentException("Backoff must be at least " + OneTimeWorkRequest.MIN_BACKOFF_MILLIS);
+        }
+        this.backoffMillis = backoffMillis;
+    }
+
+    /*
+     * Schedules an upload of the queue, unless an upload that is due early enough is already scheduled.
+     *
+     * @param count number of queued events.
+     * @param bytes stored size of the queued events.
+     * @param oldestEventAt time of the oldest queued event, in SystemClock.elapsedRealtime.
+     * @param lowPriority true if all queued events are low priority.
+     * @param inputData input of the upload worker.
+     * */
+    synchronized void schedule(int count, long bytes, long oldestEventAt, boolean lowPriority, Data inputData) {
+        if (count == 0) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        long delay = flushDelay(count, bytes, now - oldestEventAt);
+        long dueAt = now + delay;
+
+        ExistingWorkPolicy policy;
+        if (uploadRunning) {
+            if (uploadAppended) {
+                // The appended upload will include these events.
+                return;
+            }
+            // The running upload may have checked the queue before these events were added.
+            policy = ExistingWorkPolicy.APPEND_OR_REPLACE;
+            uploadAppended = true;
+        } else if (scheduledLowPriority && !lowPriority) {
+            // Don't hold high priority events back for the low priority constraints.
+            policy = ExistingWorkPolicy.REPLACE;
+        } else if (scheduledAt > now) {
+            if (dueAt >= scheduledAt) {
+                // The pending upload will include these events.
+                return;
+            }
+            policy = ExistingWorkPolicy.REPLACE;
+        } else {
+            // Keep an upload that is already running, it uploads until the queue is empty.
+            policy = ExistingWorkPolicy.KEEP;
+        }
+
+        Constraints constraints = lowPriority
+            ? lowPriorityConstraints
+            : new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(AnalyticsEventUploader.class).setInitialDelay(delay,
+            TimeUnit.MILLISECONDS
+        )
+            .setConstraints(constraints)
+            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, backoffMillis, TimeUnit.MILLISECONDS)
+            .setInputData(inputData)
+            .build();
+        workManager.enqueueUniqueWork(WORK_ID_QUEUE_FLUSH, policy, request);
+
+        scheduledAt = dueAt;
+        scheduledLowPriority = lowPriority;
+    }
+
+    /*
+     * Called when the scheduled upload starts running.
+     * */
+    synchronized void onUploadStarted() {
+        uploadRunning = true;
+        uploadAppended = false;
+    }
+
+    /*
+     * Called when the running upload returns.
+     *
+     * @param retry true if the upload will be retried, in which case it is still scheduled.
+     * */
+    synchronized void onUploadFinished(boolean retry) {
+        uploadRunning = false;
+        if (!retry && !uploadAppended) {
+            scheduledAt = -1;
+            scheduledLowPriority = false;
+        }
+        uploadAppended = false;
+    }
+
+    /*
+     * Returns how long the upload of the queue can be delayed: 0 if any of the thresholds has been reached, otherwise
+     * the time until the oldest event reaches the maximum age.
+     * */
+    @VisibleForTesting
+    synchronized long flushDelay(int count, long bytes, long oldestEventAge) {
+        if (count >= maxEvents || bytes >= maxBytes || oldestEventAge >= maxAgeMillis) {
+            return 0;
+        }
+        return maxAgeMillis - Math.max(oldestEventAge, 0);
+    }
+}
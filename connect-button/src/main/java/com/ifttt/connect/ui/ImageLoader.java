@@ -9,6 +9,7 @@ import androidx.annotation.MainThread;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.OnLifecycleEvent;
+import com.ifttt.connect.api.SdkHttpClient;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.annotation.Nullable;
@@ -40,7 +41,7 @@ final class ImageLoader {
         }
     };
 
-    private final OkHttpClient client = new OkHttpClient.Builder().build();
+    private final OkHttpClient client = SdkHttpClient.get();
     private final Handler handler = new Handler(Looper.getMainLooper());
 
     static ImageLoader get() {
@@ -0,0 +1,64 @@
+package com.ifttt.connect.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded, lock-free staging buffer of analytics events that have been tracked but not yet written to the event
+ * queue. Any thread can add events without blocking, and a single writer thread drains them. When the buffer is full,
+ * adding an event drops the oldest one.
+ */
+final class PendingEventBuffer {
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<AnalyticsEventPayload> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    PendingEventBuffer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of buffered events, including the one just added.
+     */
+    int add(AnalyticsEventPayload payload) {
+        events.offer(payload);
+        int current = size.incrementAndGet();
+        while (current > capacity) {
+            // Claim the eviction first, so that concurrent producers don't evict more than one event each.
+            if (size.compareAndSet(current, current - 1)) {
+                if (events.poll() == null) {
+                    // Drained concurrently, there is nothing left to evict.
+                    size.incrementAndGet();
+                }
+                return current - 1;
+            }
+            current = size.get();
+        }
+        return current;
+    }
+
+    /**
+     * Remove all buffered events.
+     *
+     * @return the removed events, oldest first.
+     */
+    List<AnalyticsEventPayload> drain() {
+        AnalyticsEventPayload payload = events.poll();
+        if (payload == null) {
+            return Collections.emptyList();
+        }
+
+        List<AnalyticsEventPayload> drained = new ArrayList<>();
+        do {
+            size.decrementAndGet();
+            drained.add(payload);
+            payload = events.poll();
+        } while (payload != null);
+
+        return drained;
+    }
+}
@@ -4,6 +4,7 @@ import android.os.AsyncTask;
 import com.ifttt.connect.BuildConfig;
 import com.ifttt.connect.api.User;
 import com.ifttt.connect.api.PendingResult;
+import com.ifttt.connect.api.SdkHttpClient;
 import java.io.IOException;
 import javax.annotation.Nullable;
 import retrofit2.Call;
@@ -98,6 +99,7 @@ final class RedirectPrepAsyncTask extends AsyncTask<Void, Void, RedirectPrepAsyn
         private AccountApiHelper() {
             Retrofit retrofit = new Retrofit.Builder().baseUrl("https://connect.ifttt.com")
                     .addConverterFactory(MoshiConverterFactory.create())
+                    .client(SdkHttpClient.get())
                     .build();
 
             accountApi = retrofit.create(AccountApi.class);
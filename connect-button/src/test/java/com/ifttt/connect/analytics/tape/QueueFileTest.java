@@ -0,0 +1,152 @@
+package com.ifttt.connect.analytics.tape;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public final class QueueFileTest {
+
+    private File file;
+    private QueueFile queueFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(ApplicationProvider.getApplicationContext().getCacheDir(), "queue_file_test");
+        file.delete();
+        queueFile = new QueueFile.Builder(file).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queueFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void addAllShouldAppendInOrder() throws IOException {
+        queueFile.add(element(0, 10));
+        queueFile.addAll(elements(1, 3, 10));
+
+        assertThat(queueFile.size()).isEqualTo(4);
+        assertContents(queueFile, 0, 4, 10);
+
+        queueFile.add(element(4, 10));
+        assertContents(queueFile, 0, 5, 10);
+    }
+
+    @Test
+    public void addAllShouldExpandAndWrap() throws IOException {
+        // Fill most of the initial file, then free the head so that the next batch wraps around the end of the file.
+        queueFile.addAll(elements(0, 30, 100));
+        queueFile.remove(20);
+        queueFile.addAll(elements(30, 40, 100));
+
+        assertThat(queueFile.size()).isEqualTo(50);
+        assertContents(queueFile, 20, 50, 100);
+    }
+
+    @Test
+    public void addAllShouldBePersisted() throws IOException {
+        queueFile.addAll(elements(0, 3, 10));
+        queueFile.close();
+
+        queueFile = new QueueFile.Builder(file).build();
+        assertThat(queueFile.size()).isEqualTo(3);
+        assertContents(queueFile, 0, 3, 10);
+    }
+
+    @Test
+    public void addAllWithNoElements() throws IOException {
+        queueFile.addAll(new ArrayList<>());
+        assertThat(queueFile.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void mappedQueueShouldMatchFileQueue() throws IOException {
+        queueFile.close();
+        queueFile = new QueueFile.Builder(file).mmap(true).build();
+
+        queueFile.addAll(elements(0, 30, 100));
+        queueFile.remove(20);
+        queueFile.addAll(elements(30, 40, 100));
+        queueFile.add(element(70, 100));
+        assertContents(queueFile, 20, 51, 100);
+
+        // Re-open without memory mapping to verify what was committed to the file.
+        queueFile.close();
+        queueFile = new QueueFile.Builder(file).build();
+        assertContents(queueFile, 20, 51, 100);
+
+        queueFile.close();
+        queueFile = new QueueFile.Builder(file).mmap(true).build();
+        queueFile.clear();
+        assertThat(queueFile.isEmpty()).isTrue();
+        queueFile.add(element(0, 10));
+        assertContents(queueFile, 0, 1, 10);
+    }
+
+    @Test
+    public void forEachShouldReadElementsInPlace() throws IOException {
+        for (boolean mmap : new boolean[] {false, true}) {
+            queueFile.close();
+            file.delete();
+            queueFile = new QueueFile.Builder(file).mmap(mmap).build();
+
+            // Wrap the last elements around the end of the file.
+            queueFile.addAll(elements(0, 35, 100));
+            queueFile.remove(30);
+            queueFile.addAll(elements(35, 10, 100));
+
+            List<byte[]> read = new ArrayList<>();
+            int count = queueFile.forEach(Integer.MAX_VALUE, element -> {
+                assertThat(element.isReadOnly()).isTrue();
+                byte[] bytes = new byte[element.remaining()];
+                element.get(bytes);
+                read.add(bytes);
+                return true;
+            });
+
+            assertThat(count).isEqualTo(15);
+            for (int i = 0; i < read.size(); i++) {
+                assertThat(read.get(i)).isEqualTo(element(30 + i, 100));
+            }
+
+            assertThat(queueFile.forEach(Integer.MAX_VALUE, element -> false)).isEqualTo(1);
+            assertThat(queueFile.forEach(3, element -> true)).isEqualTo(3);
+        }
+    }
+
+    private static void assertContents(QueueFile queueFile, int first, int count, int length) {
+        int index = first;
+        for (byte[] element : queueFile) {
+            assertThat(element).isEqualTo(element(index++, length));
+        }
+        assertThat(index).isEqualTo(first + count);
+    }
+
+    private static List<byte[]> elements(int first, int count, int length) {
+        List<byte[]> elements = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            elements.add(element(i, length));
+        }
+        return elements;
+    }
+
+    private static byte[] element(int index, int length) {
+        byte[] element = new byte[length];
+        for (int i = 0; i < length; i++) {
+            element[i] = (byte) (index + i);
+        }
+        return element;
+    }
+}
@@ -1,14 +1,31 @@
 package com.ifttt.connect.ui;
 
 import android.net.Uri;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+import androidx.test.core.app.ApplicationProvider;
 import com.ifttt.connect.api.Connection;
+import com.ifttt.connect.api.ConnectionApiClient;
+import com.ifttt.connect.api.ConnectionRepository;
+import com.ifttt.connect.api.ErrorResponse;
+import com.ifttt.connect.api.PendingResult;
+import com.ifttt.connect.api.TestUtils;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Okio;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.Shadows;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.ifttt.connect.ui.ConnectButtonState.CreateAccount;
@@ -128,4 +145,78 @@ public final class ButtonApiHelperTest {
 
         assertThat(uri.getQueryParameter("locale")).isEqualTo("zh-Hant");
     }
+
+    @Test
+    public void disableConnectionShouldInvalidateRepository() throws Exception {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream("connection_enabled.json");
+        String json = Okio.buffer(Okio.source(inputStream)).readUtf8();
+        String disabledJson = json.replace("\"user_status\": \"enabled\"", "\"user_status\": \"disabled\"");
+
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody(json));
+        server.enqueue(new MockResponse().setBody(disabledJson));
+        server.enqueue(new MockResponse().setBody(disabledJson));
+        server.start();
+
+        ConnectionApiClient client = TestUtils.getMockConnectionApiClient(ApplicationProvider.getApplicationContext(),
+            server,
+            () -> "token"
+        );
+        ConnectionRepository repository = ConnectionRepository.getInstance();
+        repository.clear();
+
+        Connection enabled = repository.showConnection(client, "aVxGRrtD").getCall().execute().body();
+        assertThat(enabled.status).isEqualTo(Connection.Status.enabled);
+
+        TestLifecycleOwner owner = new TestLifecycleOwner();
+        ButtonApiHelper helper = new ButtonApiHelper(client, redirectUri, null, new CredentialsProvider() {
+            @Override
+            public String getOAuthCode() {
+                return "auth_code";
+            }
+
+            @Override
+            public String getUserToken() {
+                return "token";
+            }
+        }, owner.getLifecycle(), false);
+
+        AtomicReference<Connection> disabledRef = new AtomicReference<>();
+        helper.disableConnection(owner.getLifecycle(), enabled.id, new PendingResult.ResultCallback<Connection>() {
+            @Override
+            public void onSuccess(Connection result) {
+                disabledRef.set(result);
+            }
+
+            @Override
+            public void onFailure(ErrorResponse errorResponse) {
+                throw new AssertionError("Unexpected failure: " + errorResponse);
+            }
+        });
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (disabledRef.get() == null && System.currentTimeMillis() < deadline) {
+            Shadows.shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10L);
+        }
+        assertThat(disabledRef.get()).isNotNull();
+
+        // The Connection is fetched again, instead of returning the status from before it was disabled.
+        Connection fetched = repository.showConnection(client, enabled.id).getCall().execute().body();
+        assertThat(fetched.status).isEqualTo(Connection.Status.disabled);
+        assertThat(server.getRequestCount()).isEqualTo(3);
+
+        repository.clear();
+        server.shutdown();
+    }
+
+    private static final class TestLifecycleOwner implements LifecycleOwner {
+
+        private final LifecycleRegistry lifecycleRegistry = new LifecycleRegistry(this);
+
+        @NonNull
+        @Override
+        public Lifecycle getLifecycle() {
+            return lifecycleRegistry;
+        }
+    }
 }
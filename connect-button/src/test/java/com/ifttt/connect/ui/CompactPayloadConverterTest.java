@@ -0,0 +1,95 @@
+package com.ifttt.connect.ui;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonWriter;
+import com.squareup.moshi.Moshi;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import okio.Buffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public final class CompactPayloadConverterTest {
+
+    private final JsonAdapter<AnalyticsEventPayload> jsonAdapter =
+        new Moshi.Builder().build().adapter(AnalyticsEventPayload.class);
+    private final CompactPayloadConverter converter = new CompactPayloadConverter(jsonAdapter);
+
+    @Test
+    public void shouldRoundTrip() throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("object_id", "connection_id");
+        properties.put("object_type", "connection");
+        properties.put("object_status", "enabled");
+        properties.put("location_id", "com.ifttt.éxample");
+        properties.put("location_type", "connect_button");
+        properties.put("sdk_version", "2.5.3");
+        AnalyticsEventPayload payload = new AnalyticsEventPayload("sdk.impression", "1700000000000", properties);
+
+        byte[] bytes = toBytes(payload);
+        assertThat(bytes.length).isLessThan(jsonAdapter.toJson(payload).length() / 2);
+
+        AnalyticsEventPayload decoded = converter.from(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+        assertThat(decoded.name).isEqualTo("sdk.impression");
+        assertThat(decoded.timestamp).isEqualTo("1700000000000");
+        assertThat(decoded.properties).isEqualTo(properties);
+    }
+
+    @Test
+    public void shouldKeepNonNumericTimestamps() throws IOException {
+        for (String timestamp : new String[] {"", "0", "0123", "not a number"}) {
+            AnalyticsEventPayload payload = new AnalyticsEventPayload("name", timestamp, new HashMap<>());
+            assertThat(converter.from(toBytes(payload)).timestamp).isEqualTo(timestamp);
+        }
+    }
+
+    @Test
+    public void shouldReadJsonRecords() throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("object_id", "id");
+        String json = jsonAdapter.toJson(new AnalyticsEventPayload("sdk.click", "1", properties));
+
+        AnalyticsEventPayload decoded = converter.from(json.getBytes("UTF-8"));
+        assertThat(decoded.name).isEqualTo("sdk.click");
+        assertThat(decoded.timestamp).isEqualTo("1");
+        assertThat(decoded.properties).isEqualTo(properties);
+        assertThat(CompactPayloadConverter.isJson(ByteBuffer.wrap(json.getBytes("UTF-8")))).isTrue();
+    }
+
+    @Test
+    public void shouldWriteJson() throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("object_id", "id");
+        properties.put("location_type", null);
+        for (String timestamp : new String[] {"1700000000000", "not a number"}) {
+            AnalyticsEventPayload payload = new AnalyticsEventPayload("sdk.click", timestamp, properties);
+
+            Buffer buffer = new Buffer();
+            CompactPayloadConverter.writeJson(ByteBuffer.wrap(toBytes(payload)), JsonWriter.of(buffer));
+            assertThat(buffer.readUtf8()).isEqualTo(jsonAdapter.toJson(payload));
+        }
+    }
+
+    @Test
+    public void shouldRejectMalformedRecords() {
+        try {
+            converter.from(new byte[] {(byte) 0xA1, 1, (byte) 0x7F});
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private byte[] toBytes(AnalyticsEventPayload payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        converter.toStream(payload, bytes);
+        return bytes.toByteArray();
+    }
+}
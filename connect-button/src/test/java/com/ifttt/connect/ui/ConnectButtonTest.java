@@ -10,6 +10,8 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import com.ifttt.connect.R;
 
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -77,4 +79,14 @@ public final class ConnectButtonTest {
             assertThat(child.getVisibility()).isEqualTo(View.VISIBLE);
         }
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void analyticsBatchLimitsShouldBePositive() {
+        ConnectButton.setAnalyticsBatchLimits(activity, 0, 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void analyticsRetryBackoffShouldNotBeBelowMinimum() {
+        ConnectButton.setAnalyticsRetryBackoff(activity, 1, TimeUnit.SECONDS);
+    }
 }
@@ -0,0 +1,66 @@
+package com.ifttt.connect.ui;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public final class EventSamplerTest {
+
+    private final EventSampler sampler = new EventSampler();
+
+    @Test
+    public void testSamplingIsDisabledByDefault() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj", "loc", 0)).isTrue();
+        }
+    }
+
+    @Test
+    public void testImpressionDedup() {
+        sampler.setDedupWindow(1000);
+
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj", "loc", 0)).isTrue();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj", "loc", 999)).isFalse();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj", "other_loc", 999)).isTrue();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj", "loc", 1000)).isTrue();
+
+        // Clicks are never deduplicated.
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_CLICK, "obj", "loc", 0)).isTrue();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_CLICK, "obj", "loc", 0)).isTrue();
+    }
+
+    @Test
+    public void testRateLimit() {
+        sampler.setDedupWindow(0);
+        sampler.setRateLimit(AnalyticsManager.EVENT_IMPRESSION, 2, 100);
+
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj1", "loc", 0)).isTrue();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj2", "loc", 0)).isTrue();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj3", "loc", 50)).isFalse();
+
+        // One token is refilled per interval.
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj3", "loc", 100)).isTrue();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj4", "loc", 150)).isFalse();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj4", "loc", 200)).isTrue();
+
+        // Removing the limit.
+        sampler.setRateLimit(AnalyticsManager.EVENT_IMPRESSION, 0, 100);
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj5", "loc", 200)).isTrue();
+    }
+
+    @Test
+    public void testRateLimitedImpressionIsNotDeduplicated() {
+        sampler.setDedupWindow(1000);
+        sampler.setRateLimit(AnalyticsManager.EVENT_IMPRESSION, 1, 100);
+
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj1", "loc", 0)).isTrue();
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj2", "loc", 0)).isFalse();
+
+        // The dropped impression wasn't tracked, so it is not within a dedup window.
+        assertThat(sampler.shouldTrack(AnalyticsManager.EVENT_IMPRESSION, "obj2", "loc", 100)).isTrue();
+    }
+}
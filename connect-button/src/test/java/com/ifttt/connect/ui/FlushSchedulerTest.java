@@ -0,0 +1,133 @@
+package com.ifttt.connect.ui;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.Configuration;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.NetworkType;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.LooperMode;
+
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public final class FlushSchedulerTest {
+
+    private WorkManager workManager;
+    private FlushScheduler flushScheduler;
+
+    @Before
+    public void setup() {
+        Context context = ApplicationProvider.getApplicationContext();
+        Configuration config = new Configuration.Builder()
+                .setExecutor(new SynchronousExecutor())
+                .build();
+        WorkManagerTestInitHelper.initializeTestWorkManager(context, config);
+
+        workManager = WorkManager.getInstance(context);
+        flushScheduler = new FlushScheduler(workManager);
+        flushScheduler.setThresholds(10, 1000, 60_000);
+    }
+
+    @Test
+    public void testFlushDelay() {
+        assertThat(flushScheduler.flushDelay(1, 100, 0)).isEqualTo(60_000);
+        assertThat(flushScheduler.flushDelay(1, 100, 20_000)).isEqualTo(40_000);
+
+        assertThat(flushScheduler.flushDelay(10, 100, 0)).isEqualTo(0);
+        assertThat(flushScheduler.flushDelay(1, 1000, 0)).isEqualTo(0);
+        assertThat(flushScheduler.flushDelay(1, 100, 60_000)).isEqualTo(0);
+    }
+
+    @Test
+    public void testPendingUploadIsKept() throws Exception {
+        long now = SystemClock.elapsedRealtime();
+        flushScheduler.schedule(1, 100, now, true, Data.EMPTY);
+        List<WorkInfo> infos = workInfos();
+        assertThat(infos).hasSize(1);
+
+        // The new event can wait for the pending upload.
+        flushScheduler.schedule(2, 200, now, true, Data.EMPTY);
+        assertThat(workInfos().get(0).getId()).isEqualTo(infos.get(0).getId());
+    }
+
+    @Test
+    public void testHighPriorityEventReplacesLowPriorityUpload() throws Exception {
+        long now = SystemClock.elapsedRealtime();
+        flushScheduler.schedule(1, 100, now, true, Data.EMPTY);
+        WorkInfo lowPriority = workInfos().get(0);
+
+        flushScheduler.schedule(2, 200, now, false, Data.EMPTY);
+        List<WorkInfo> infos = workInfos();
+        WorkInfo highPriority = null;
+        for (WorkInfo info : infos) {
+            if (!info.getState().isFinished()) {
+                highPriority = info;
+            }
+        }
+        assertThat(highPriority).isNotNull();
+        assertThat(highPriority.getId()).isNotEqualTo(lowPriority.getId());
+    }
+
+    @Test
+    public void testRunningUploadIsNotReplaced() throws Exception {
+        long now = SystemClock.elapsedRealtime();
+        flushScheduler.schedule(1, 100, now, true, Data.EMPTY);
+        WorkInfo running = workInfos().get(0);
+        flushScheduler.onUploadStarted();
+
+        // A high priority event runs after the upload instead of cancelling it.
+        flushScheduler.schedule(2, 200, now, false, Data.EMPTY);
+        List<WorkInfo> infos = workInfos();
+        assertThat(infos).hasSize(2);
+        for (WorkInfo info : infos) {
+            assertThat(info.getState()).isNotEqualTo(WorkInfo.State.CANCELLED);
+            if (info.getId().equals(running.getId())) {
+                assertThat(info.getState()).isEqualTo(running.getState());
+            }
+        }
+
+        // Later events are included in the appended upload.
+        flushScheduler.schedule(3, 300, now, false, Data.EMPTY);
+        assertThat(workInfos()).hasSize(2);
+    }
+
+    @Test
+    public void testFinishedUploadIsNotReplaced() throws Exception {
+        long now = SystemClock.elapsedRealtime();
+        flushScheduler.schedule(1, 100, now, true, Data.EMPTY);
+        WorkInfo lowPriority = workInfos().get(0);
+        flushScheduler.onUploadStarted();
+        flushScheduler.onUploadFinished(false);
+
+        // The finished upload no longer holds events back for the low priority constraints.
+        flushScheduler.schedule(1, 100, now, false, Data.EMPTY);
+        List<WorkInfo> infos = workInfos();
+        assertThat(infos).hasSize(1);
+        assertThat(infos.get(0).getId()).isEqualTo(lowPriority.getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLowPriorityConstraintsRequireNetwork() {
+        flushScheduler.setLowPriorityConstraints(new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.NOT_REQUIRED)
+                .build());
+    }
+
+    private List<WorkInfo> workInfos() throws Exception {
+        return workManager.getWorkInfosForUniqueWork("analytics_queue_flush").get();
+    }
+}
@@ -1,10 +1,14 @@
 package com.ifttt.connect.ui;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.google.common.collect.ImmutableMap;
 import com.ifttt.connect.R;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -13,7 +17,12 @@ import org.robolectric.Robolectric;
 import org.robolectric.android.controller.ActivityController;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import okio.Buffer;
 
 @RunWith(AndroidJUnit4.class)
 @Config(sdk = 28)
@@ -42,14 +51,191 @@ public final class QueueOperationsTest {
     }
 
     @Test
-    public void testRemove() {
+    public void testRemove() throws IOException {
         assertThat(analyticsManager.performRead().size()).isEqualTo(0);
 
         analyticsManager.performAdd(new AnalyticsEventPayload("event1", "", new HashMap<>()));
         analyticsManager.performAdd(new AnalyticsEventPayload("event2", "", new HashMap<>()));
         analyticsManager.performAdd(new AnalyticsEventPayload("event3", "", new HashMap<>()));
 
-        analyticsManager.performRemove(3);
+        assertThat(analyticsManager.performRemove(analyticsManager.nextBatch(3, Long.MAX_VALUE))).isTrue();
         assertThat(analyticsManager.performRead().size()).isEqualTo(0);
     }
+
+    @Test
+    public void testBufferedEnqueue() {
+        analyticsManager.performEnqueue(new AnalyticsEventPayload("event1", "", new HashMap<>()));
+        analyticsManager.performEnqueue(new AnalyticsEventPayload("event2", "", new HashMap<>()));
+
+        analyticsManager.drainPendingEvents();
+        assertThat(analyticsManager.performRead().size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testConcurrentBufferedEnqueue() throws InterruptedException {
+        PendingEventBuffer buffer = new PendingEventBuffer(64);
+        AnalyticsEventPayload payload = new AnalyticsEventPayload("event", "", new HashMap<>());
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread producer = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    buffer.add(payload);
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        int drained = 0;
+        for (Thread producer : producers) {
+            while (producer.isAlive()) {
+                drained += buffer.drain().size();
+            }
+            producer.join();
+        }
+        drained += buffer.drain().size();
+
+        // Events are only dropped when the buffer is full.
+        assertThat(drained).isAtLeast(64);
+        assertThat(drained).isAtMost(4000);
+        assertThat(buffer.drain()).isEmpty();
+        assertThat(buffer.add(payload)).isEqualTo(1);
+    }
+
+    @Test
+    public void testAddAllEvictsOldest() {
+        List<AnalyticsEventPayload> payloads = new ArrayList<>();
+        for (int i = 0; i < 1001; i++) {
+            payloads.add(new AnalyticsEventPayload("event" + i, "", new HashMap<>()));
+        }
+        analyticsManager.performAddAll(payloads);
+
+        assertThat(analyticsManager.performRead().size()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testEvictionKeepsClicks() {
+        List<AnalyticsEventPayload> payloads = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String name = i % 2 == 0 ? AnalyticsManager.EVENT_CLICK : AnalyticsManager.EVENT_IMPRESSION;
+            payloads.add(new AnalyticsEventPayload(name, Integer.toString(i), new HashMap<>()));
+        }
+        analyticsManager.performAddAll(payloads);
+
+        List<AnalyticsEventPayload> clicks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            clicks.add(new AnalyticsEventPayload(AnalyticsManager.EVENT_CLICK, "new" + i, new HashMap<>()));
+        }
+        analyticsManager.performAddAll(clicks);
+
+        List<AnalyticsEventPayload> queued = analyticsManager.performRead();
+        assertThat(queued.size()).isEqualTo(1000);
+        int clickCount = 0;
+        for (AnalyticsEventPayload payload : queued) {
+            if (AnalyticsManager.EVENT_CLICK.equals(payload.name)) {
+                clickCount++;
+            }
+        }
+        assertThat(clickCount).isEqualTo(510);
+    }
+
+    @Test
+    public void testEvictionKeepsUploadingEvents() throws IOException {
+        List<AnalyticsEventPayload> payloads = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String name = i % 2 == 0 ? AnalyticsManager.EVENT_CLICK : AnalyticsManager.EVENT_IMPRESSION;
+            payloads.add(new AnalyticsEventPayload(name, Integer.toString(i), new HashMap<>()));
+        }
+        analyticsManager.performAddAll(payloads);
+        AnalyticsManager.UploadBatch batch = analyticsManager.nextBatch(10, Long.MAX_VALUE);
+        assertThat(batch.count).isEqualTo(10);
+
+        List<AnalyticsEventPayload> impressions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            impressions.add(new AnalyticsEventPayload(AnalyticsManager.EVENT_IMPRESSION, "new" + i, new HashMap<>()));
+        }
+        analyticsManager.performAddAll(impressions);
+
+        // The uploading events are still at the head of the queue, and are the ones removed.
+        assertThat(analyticsManager.performRemove(batch)).isTrue();
+        List<AnalyticsEventPayload> queued = analyticsManager.performRead();
+        assertThat(queued.size()).isEqualTo(990);
+        for (int i = 0; i < queued.size(); i++) {
+            assertThat(queued.get(i).timestamp).isEqualTo(Integer.toString(i + 10));
+        }
+    }
+
+    @Test
+    public void testReplacedBatchIsNotRemoved() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            analyticsManager.performAdd(new AnalyticsEventPayload("event" + i, "", new HashMap<>()));
+        }
+
+        // A second upload starts from the same events before the first one ends.
+        AnalyticsManager.UploadBatch first = analyticsManager.nextBatch(2, Long.MAX_VALUE);
+        AnalyticsManager.UploadBatch second = analyticsManager.nextBatch(3, Long.MAX_VALUE);
+
+        assertThat(analyticsManager.performRemove(first)).isFalse();
+        assertThat(analyticsManager.performRead().size()).isEqualTo(5);
+        try {
+            new EventsRequestBody(analyticsManager, first).writeTo(new Buffer());
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertThat(analyticsManager.performRemove(second)).isTrue();
+        assertThat(analyticsManager.performRead().get(0).name).isEqualTo("event3");
+    }
+
+    @Test
+    public void testClearedBatchIsNotRemoved() throws IOException {
+        analyticsManager.performAdd(new AnalyticsEventPayload("event1", "", new HashMap<>()));
+        AnalyticsManager.UploadBatch batch = analyticsManager.nextBatch(1, Long.MAX_VALUE);
+
+        analyticsManager.clearQueue();
+        analyticsManager.performAdd(new AnalyticsEventPayload("event2", "", new HashMap<>()));
+
+        assertThat(analyticsManager.performRemove(batch)).isFalse();
+        assertThat(analyticsManager.performRead().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testEventsRequestBody() throws IOException {
+        AnalyticsEventPayload event1 = new AnalyticsEventPayload("event1", "1", ImmutableMap.of("key", "value"));
+        AnalyticsEventPayload event2 = new AnalyticsEventPayload("event2", "2", new HashMap<>());
+        analyticsManager.performAdd(event1);
+        analyticsManager.performAdd(event2);
+
+        JsonAdapter<AnalyticsEventPayload> adapter = new Moshi.Builder().build().adapter(AnalyticsEventPayload.class);
+
+        Buffer buffer = new Buffer();
+        new EventsRequestBody(analyticsManager, analyticsManager.nextBatch(2, Long.MAX_VALUE)).writeTo(buffer);
+        assertThat(buffer.readUtf8()).isEqualTo(
+            "{\"events\":[" + adapter.toJson(event1) + "," + adapter.toJson(event2) + "]}");
+
+        new EventsRequestBody(analyticsManager, analyticsManager.nextBatch(1, Long.MAX_VALUE)).writeTo(buffer);
+        assertThat(buffer.readUtf8()).isEqualTo("{\"events\":[" + adapter.toJson(event1) + "]}");
+    }
+
+    @Test
+    public void testNextBatchSize() throws IOException {
+        AnalyticsEventPayload payload = new AnalyticsEventPayload("event", "", new HashMap<>());
+        for (int i = 0; i < 5; i++) {
+            analyticsManager.performAdd(payload);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new CompactPayloadConverter(new Moshi.Builder().build().adapter(AnalyticsEventPayload.class)).toStream(payload,
+            bytes
+        );
+        long length = bytes.size();
+
+        assertThat(analyticsManager.nextBatch(3, Long.MAX_VALUE).count).isEqualTo(3);
+        assertThat(analyticsManager.nextBatch(10, Long.MAX_VALUE).count).isEqualTo(5);
+        assertThat(analyticsManager.nextBatch(10, length * 2).count).isEqualTo(2);
+        assertThat(analyticsManager.nextBatch(10, length * 2 + 1).count).isEqualTo(2);
+
+        // A batch always includes at least one event.
+        assertThat(analyticsManager.nextBatch(10, 1).count).isEqualTo(1);
+    }
 }
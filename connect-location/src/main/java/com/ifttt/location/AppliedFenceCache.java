@@ -0,0 +1,73 @@
+package com.ifttt.location;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fingerprint of the fence set last applied to the Awareness API by {@link AwarenessGeofenceProvider}, as a map of
+ * fence key to region signature.
+ *
+ * The fingerprint expires after {@link #MAX_AGE_MILLIS} so that fences dropped by Play Services are eventually
+ * re-registered, and is cleared by {@link RebootBroadcastReceiver} as fences do not survive a reboot.
+ */
+final class AppliedFenceCache implements Cache<Map<String, String>> {
+
+    private static final String PREFS_APPLIED_FENCES = "ifttt_applied_fences";
+    private static final String PREF_KEY_APPLIED_FENCES = "applied_fences";
+    private static final String PREF_KEY_APPLIED_AT = "applied_at";
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final Moshi MOSHI_INSTANCE = new Moshi.Builder().build();
+
+    private final SharedPreferences sharedPreferences;
+    private final JsonAdapter<Map<String, String>> jsonAdapter;
+
+    AppliedFenceCache(Context context) {
+        jsonAdapter = MOSHI_INSTANCE.adapter(Types.newParameterizedType(Map.class, String.class, String.class));
+        sharedPreferences = context.getSharedPreferences(PREFS_APPLIED_FENCES, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public void write(Map<String, String> fences) {
+        sharedPreferences.edit()
+            .putString(PREF_KEY_APPLIED_FENCES, jsonAdapter.toJson(fences))
+            .putLong(PREF_KEY_APPLIED_AT, SystemClock.elapsedRealtime())
+            .apply();
+    }
+
+    /**
+     * @return the last applied fence set, or null if there isn't one or it has expired.
+     */
+    @Override
+    @Nullable
+    public Map<String, String> read() {
+        String fencesString = sharedPreferences.getString(PREF_KEY_APPLIED_FENCES, null);
+        if (fencesString == null) {
+            return null;
+        }
+
+        long appliedAt = sharedPreferences.getLong(PREF_KEY_APPLIED_AT, 0L);
+        long now = SystemClock.elapsedRealtime();
+        if (now < appliedAt || now - appliedAt > MAX_AGE_MILLIS) {
+            return null;
+        }
+
+        try {
+            return jsonAdapter.fromJson(fencesString);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void clear() {
+        sharedPreferences.edit().remove(PREF_KEY_APPLIED_FENCES).remove(PREF_KEY_APPLIED_AT).apply();
+    }
+}
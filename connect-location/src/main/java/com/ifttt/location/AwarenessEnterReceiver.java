@@ -21,17 +21,19 @@ public final class AwarenessEnterReceiver extends BroadcastReceiver {
             return;
         }
 
+        // Claim the event first, so that a concurrent ConnectLocation#reportEvent call doesn't report it again.
+        int fenceId = FenceKeyRegistry.intern(fenceState.getFenceKey());
         BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(context);
-        if (BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Entered
-            == monitor.getState(fenceState.getFenceKey())) {
+        if (!monitor.transitionState(fenceId,
+            BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Entered
+        )) {
             return;
         }
 
         Logger.log("Geo-fence enter event");
         LocationEventHelper.logEventReported(ConnectLocation.getInstance(), Entry, Awareness);
 
-        String stepId = LocationEventUploadHelper.extractStepId(fenceState.getFenceKey());
+        String stepId = FenceKeyRegistry.stepId(fenceId);
         LocationEventUploader.schedule(context, Entry, Awareness, stepId);
-        monitor.setState(fenceState.getFenceKey(), BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Entered);
     }
 }
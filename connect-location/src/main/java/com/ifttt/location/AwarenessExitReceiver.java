@@ -21,17 +21,19 @@ public final class AwarenessExitReceiver extends BroadcastReceiver {
             return;
         }
 
+        // Claim the event first, so that a concurrent ConnectLocation#reportEvent call doesn't report it again.
+        int fenceId = FenceKeyRegistry.intern(fenceState.getFenceKey());
         BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(context);
-        if (BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Exited
-            == monitor.getState(fenceState.getFenceKey())) {
+        if (!monitor.transitionState(fenceId,
+            BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Exited
+        )) {
             return;
         }
 
         Logger.log("Geo-fence exit event");
         LocationEventHelper.logEventReported(ConnectLocation.getInstance(), Exit, Awareness);
 
-        String stepId = LocationEventUploadHelper.extractStepId(fenceState.getFenceKey());
+        String stepId = FenceKeyRegistry.stepId(fenceId);
         LocationEventUploader.schedule(context, Exit, Awareness, stepId);
-        monitor.setState(fenceState.getFenceKey(), BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Exited);
     }
 }
@@ -2,10 +2,12 @@ package com.ifttt.location;
 
 import static android.os.Build.VERSION.SDK_INT;
 import static android.os.Build.VERSION_CODES.S;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_ENTER;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_EXIT;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_NONE;
+import static com.ifttt.location.FenceKeyRegistry.fenceKey;
+import static com.ifttt.location.FenceKeyRegistry.register;
 import static com.ifttt.location.LocationEventUploadHelper.extractLocationUserFeatures;
-import static com.ifttt.location.LocationEventUploadHelper.getEnterFenceKey;
-import static com.ifttt.location.LocationEventUploadHelper.getExitFenceKey;
-import static com.ifttt.location.LocationEventUploadHelper.getIftttFenceKey;
 import static com.ifttt.location.LocationEventUploadHelper.isIftttFenceKey;
 
 import android.app.PendingIntent;
@@ -21,6 +23,7 @@ import com.google.android.gms.awareness.fence.AwarenessFence;
 import com.google.android.gms.awareness.fence.FenceQueryRequest;
 import com.google.android.gms.awareness.fence.FenceUpdateRequest;
 import com.google.android.gms.awareness.fence.LocationFence;
+import com.google.android.gms.tasks.Task;
 import com.ifttt.connect.api.Connection;
 import com.ifttt.connect.api.Feature;
 import com.ifttt.connect.api.LocationFieldValue;
@@ -28,6 +31,8 @@ import com.ifttt.connect.api.UserFeature;
 import com.ifttt.connect.api.UserFeatureField;
 import com.ifttt.location.ConnectLocation.LocationStatusCallback;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +46,9 @@ import java.util.Set;
  * The process includes:
  * - registering any new geofences
  * - un-registering any outdated geofences
+ *
+ * The last applied fence set is persisted in {@link AppliedFenceCache}, so that updates with unchanged fences skip
+ * the Awareness API calls entirely.
  */
 final class AwarenessGeofenceProvider implements GeofenceProvider {
 
@@ -49,12 +57,14 @@ final class AwarenessGeofenceProvider implements GeofenceProvider {
 
     private final FenceClient fenceClient;
     private final BackupGeofenceMonitor monitor;
+    private final AppliedFenceCache appliedFenceCache;
     private final PendingIntent enterPendingIntent;
     private final PendingIntent exitPendingIntent;
 
     AwarenessGeofenceProvider(Context context) {
         this.fenceClient = Awareness.getFenceClient(context);
         this.monitor = BackupGeofenceMonitor.get(context);
+        this.appliedFenceCache = new AppliedFenceCache(context);
 
         int pendingIntentFlag;
         if (SDK_INT >= S) {
@@ -79,46 +89,56 @@ final class AwarenessGeofenceProvider implements GeofenceProvider {
     public void updateGeofences(final Connection connection, @Nullable LocationStatusCallback locationStatusCallback) {
         monitor.updateMonitoredGeofences(connection.features);
 
-        fenceClient.queryFences(FenceQueryRequest.all()).addOnSuccessListener(fenceQueryResponse -> {
+        Map<String, String> fences = fenceFingerprint(connection.status, connection.features);
+        Map<String, String> appliedFences = appliedFenceCache.read();
+        if (fences.equals(appliedFences)) {
+            // The fences registered with the last update are still current, there is no need to query or update them.
+            Logger.log("Geo-fences unchanged, activated: " + !fences.isEmpty());
+            if (locationStatusCallback != null) {
+                locationStatusCallback.onLocationStatusUpdated(!fences.isEmpty());
+            }
+            return;
+        }
 
-            FenceUpdateRequest.Builder requestBuilder = new FenceUpdateRequest.Builder();
+        fenceClient.queryFences(FenceQueryRequest.all()).addOnSuccessListener(fenceQueryResponse -> {
+            RequestBuilderDiffCallback diffCallback = new RequestBuilderDiffCallback();
             diffFences(connection.status,
                 connection.features,
                 fenceQueryResponse.getFenceStateMap().getFenceKeys(),
+                appliedFences == null ? Collections.emptyMap() : appliedFences,
                 enterPendingIntent,
                 exitPendingIntent,
-                new DiffCallback() {
-                    @Override
-                    public void onAddFence(String key, AwarenessFence fence, PendingIntent pendingIntent) {
-                        Logger.log("Adding geo-fence: " + key);
-                        requestBuilder.addFence(key, fence, pendingIntent);
-                    }
-
-                    @Override
-                    public void onRemoveFence(String key) {
-                        Logger.log("Removing geo-fence: " + key);
-                        requestBuilder.removeFence(key);
-                    }
-                }
+                diffCallback
             );
 
-            fenceClient.updateFences(requestBuilder.build()).continueWithTask(task -> fenceClient.queryFences(
-                FenceQueryRequest.all())).addOnSuccessListener(response -> {
-                if (locationStatusCallback == null) {
-                    return;
+            if (!diffCallback.hasChanges) {
+                appliedFenceCache.write(fences);
+                Logger.log("Geo-fences already registered, activated: " + !fences.isEmpty());
+                if (locationStatusCallback != null) {
+                    locationStatusCallback.onLocationStatusUpdated(!fences.isEmpty());
                 }
+                return;
+            }
 
-                boolean hasActiveGeofence = false;
-                for (String key : response.getFenceStateMap().getFenceKeys()) {
-                    if (isIftttFenceKey(key)) {
-                        hasActiveGeofence = true;
-                        break;
+            Task<Void> updateTask = fenceClient.updateFences(diffCallback.requestBuilder.build());
+            updateTask.addOnSuccessListener(aVoid -> appliedFenceCache.write(fences));
+            if (locationStatusCallback == null) {
+                return;
+            }
+
+            updateTask.continueWithTask(task -> fenceClient.queryFences(FenceQueryRequest.all()))
+                .addOnSuccessListener(response -> {
+                    boolean hasActiveGeofence = false;
+                    for (String key : response.getFenceStateMap().getFenceKeys()) {
+                        if (isIftttFenceKey(key)) {
+                            hasActiveGeofence = true;
+                            break;
+                        }
                     }
-                }
-                locationStatusCallback.onLocationStatusUpdated(hasActiveGeofence);
+                    locationStatusCallback.onLocationStatusUpdated(hasActiveGeofence);
 
-                Logger.log("Geo-fences status updated, activated: " + hasActiveGeofence);
-            });
+                    Logger.log("Geo-fences status updated, activated: " + hasActiveGeofence);
+                });
         });
     }
 
@@ -132,6 +152,7 @@ final class AwarenessGeofenceProvider implements GeofenceProvider {
             }
         });
 
+        appliedFenceCache.clear();
         monitor.clear();
     }
 
@@ -141,6 +162,29 @@ final class AwarenessGeofenceProvider implements GeofenceProvider {
         void onRemoveFence(String key);
     }
 
+    private static final class RequestBuilderDiffCallback implements DiffCallback {
+        final FenceUpdateRequest.Builder requestBuilder = new FenceUpdateRequest.Builder();
+        boolean hasChanges;
+
+        @Override
+        public void onAddFence(String key, AwarenessFence fence, PendingIntent pendingIntent) {
+            Logger.log("Adding geo-fence: " + key);
+            requestBuilder.addFence(key, fence, pendingIntent);
+            hasChanges = true;
+        }
+
+        @Override
+        public void onRemoveFence(String key) {
+            Logger.log("Removing geo-fence: " + key);
+            requestBuilder.removeFence(key);
+            hasChanges = true;
+        }
+    }
+
+    private interface FenceVisitor {
+        void visit(String key, boolean entering, LocationFieldValue region);
+    }
+
     @VisibleForTesting
     static void diffFences(
         Connection.Status state,
@@ -149,6 +193,33 @@ final class AwarenessGeofenceProvider implements GeofenceProvider {
         PendingIntent enterPendingIntent,
         PendingIntent exitPendingIntent,
         DiffCallback callback
+    ) {
+        diffFences(state,
+            features,
+            registeredFenceKeys,
+            Collections.emptyMap(),
+            enterPendingIntent,
+            exitPendingIntent,
+            callback
+        );
+    }
+
+    /**
+     * Compute the changes needed to go from the registered fences to the fences of the given features. Fences that
+     * are registered and whose region matches the one in appliedFences are left untouched.
+     *
+     * @param appliedFences fingerprint of the last applied fence set, see {@link #fenceFingerprint(Connection.Status,
+     * List)}.
+     */
+    @VisibleForTesting
+    static void diffFences(
+        Connection.Status state,
+        List<Feature> features,
+        Set<String> registeredFenceKeys,
+        Map<String, String> appliedFences,
+        PendingIntent enterPendingIntent,
+        PendingIntent exitPendingIntent,
+        DiffCallback callback
     ) {
         // Because the host app may also use the same FenceClient to manage their own fences, we only monitor and
         // update fence keys set by the SDK.
@@ -159,58 +230,71 @@ final class AwarenessGeofenceProvider implements GeofenceProvider {
             }
         }
 
-        if (state != Connection.Status.enabled) {
-            // Unregister outdated geofences.
-            for (String fenceKey : fenceKeysToRemove) {
-                callback.onRemoveFence(fenceKey);
+        forEachFence(state, features, (key, entering, region) -> {
+            fenceKeysToRemove.remove(key);
+            if (registeredFenceKeys.contains(key) && regionSignature(entering, region).equals(appliedFences.get(key))) {
+                // Unchanged.
+                return;
             }
+
+            if (entering) {
+                callback.onAddFence(key,
+                    LocationFence.entering(region.lat, region.lng, region.radius),
+                    enterPendingIntent
+                );
+            } else {
+                callback.onAddFence(key, LocationFence.exiting(region.lat, region.lng, region.radius), exitPendingIntent);
+            }
+        });
+
+        // Unregister outdated geofences.
+        for (String fenceKey : fenceKeysToRemove) {
+            callback.onRemoveFence(fenceKey);
+        }
+    }
+
+    /**
+     * @return a map of fence key to region signature for all fences that should be registered for the given features.
+     */
+    @VisibleForTesting
+    static Map<String, String> fenceFingerprint(Connection.Status state, List<Feature> features) {
+        Map<String, String> fingerprint = new HashMap<>();
+        forEachFence(state,
+            features,
+            (key, entering, region) -> fingerprint.put(key, regionSignature(entering, region))
+        );
+        return fingerprint;
+    }
+
+    private static String regionSignature(boolean entering, LocationFieldValue region) {
+        return (entering ? "enter:" : "exit:") + region.lat + "," + region.lng + "," + region.radius;
+    }
+
+    private static void forEachFence(Connection.Status state, List<Feature> features, FenceVisitor visitor) {
+        if (state != Connection.Status.enabled) {
             return;
         }
 
         Map<String, List<UserFeatureField<LocationFieldValue>>> locations = extractLocationUserFeatures(features, true);
         for (Map.Entry<String, List<UserFeatureField<LocationFieldValue>>> entry : locations.entrySet()) {
-            String id = getIftttFenceKey(entry.getKey());
+            String stepId = entry.getKey();
             for (UserFeatureField<LocationFieldValue> userFeatureField : entry.getValue()) {
                 LocationFieldValue region = userFeatureField.value;
                 switch (userFeatureField.fieldType) {
                     case FIELD_TYPE_LOCATION_ENTER:
-                        callback.onAddFence(id,
-                            LocationFence.entering(region.lat, region.lng, region.radius),
-                            enterPendingIntent
-                        );
-                        fenceKeysToRemove.remove(id);
+                        visitor.visit(fenceKey(register(stepId, DIRECTION_NONE)), true, region);
                         break;
                     case FIELD_TYPE_LOCATION_EXIT:
-                        callback.onAddFence(id,
-                            LocationFence.exiting(region.lat, region.lng, region.radius),
-                            exitPendingIntent
-                        );
-                        fenceKeysToRemove.remove(id);
+                        visitor.visit(fenceKey(register(stepId, DIRECTION_NONE)), false, region);
                         break;
                     case FIELD_TYPE_LOCATION_ENTER_EXIT:
-                        String enterFenceKey = getEnterFenceKey(id);
-                        callback.onAddFence(enterFenceKey,
-                            LocationFence.entering(region.lat, region.lng, region.radius),
-                            enterPendingIntent
-                        );
-                        fenceKeysToRemove.remove(enterFenceKey);
-
-                        String exitFenceKey = getExitFenceKey(id);
-                        callback.onAddFence(exitFenceKey,
-                            LocationFence.exiting(region.lat, region.lng, region.radius),
-                            exitPendingIntent
-                        );
-                        fenceKeysToRemove.remove(exitFenceKey);
+                        visitor.visit(fenceKey(register(stepId, DIRECTION_ENTER)), true, region);
+                        visitor.visit(fenceKey(register(stepId, DIRECTION_EXIT)), false, region);
                         break;
                     default:
                         // No-op for other location types.
                 }
             }
         }
-
-        // Unregister outdated geofences.
-        for (String fenceKey : fenceKeysToRemove) {
-            callback.onRemoveFence(fenceKey);
-        }
     }
 }
@@ -1,12 +1,14 @@
 package com.ifttt.location;
 
 import android.content.Context;
-import android.location.Location;
-import android.location.LocationManager;
+import android.os.SystemClock;
+import android.util.SparseLongArray;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.ifttt.connect.api.Feature;
 import com.ifttt.connect.api.LocationFieldValue;
 import com.ifttt.connect.api.UserFeatureField;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,29 +16,88 @@ import java.util.Map;
 import static com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Entered;
 import static com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Exited;
 import static com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Init;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_ENTER;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_EXIT;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_NONE;
+import static com.ifttt.location.FenceKeyRegistry.fenceKey;
+import static com.ifttt.location.FenceKeyRegistry.register;
 import static com.ifttt.location.GeofenceProvider.FIELD_TYPE_LOCATION_ENTER;
 import static com.ifttt.location.GeofenceProvider.FIELD_TYPE_LOCATION_ENTER_EXIT;
 import static com.ifttt.location.GeofenceProvider.FIELD_TYPE_LOCATION_EXIT;
 import static com.ifttt.location.LocationEventUploadHelper.extractLocationUserFeatures;
-import static com.ifttt.location.LocationEventUploadHelper.getEnterFenceKey;
-import static com.ifttt.location.LocationEventUploadHelper.getExitFenceKey;
-import static com.ifttt.location.LocationEventUploadHelper.getIftttFenceKey;
 import static com.ifttt.location.LocationEventUploader.EventType.Entry;
 import static com.ifttt.location.LocationEventUploader.EventType.Exit;
-import static java.util.Objects.requireNonNull;
 
 /**
  * Implementation of a potential backup monitor to all geofences from a {@link com.ifttt.connect.api.Connection}.
+ *
+ * There is a single monitor per process, shared by the Awareness receivers and {@link ConnectLocation#reportEvent}.
+ * All reads and state changes are synchronized on the monitor, and listeners are called after the state changes have
+ * been applied, outside of the lock. Geofences are referred to by their {@link FenceKeyRegistry} id, the fence keys are
+ * only used to persist the geofences.
+ *
+ * Reported locations are pre-filtered: after a location has been checked, the monitor keeps the distance from that
+ * location to the nearest geofence boundary. A later location that is closer than that to the checked one cannot be on
+ * the other side of any boundary, so it is skipped without checking the geofences. Optionally, {@link #hysteresisMeters}
+ * widens the boundaries against the current state, and {@link #dwellMillis} requires a new state to be observed for a
+ * while before it is reported, both to suppress jitter around the boundaries.
  */
 final class BackupGeofenceMonitor {
 
-    static BackupGeofenceMonitor get(Context context) {
-        return new BackupGeofenceMonitor(new SharedPreferencesGeofenceCache(context));
+    private static BackupGeofenceMonitor INSTANCE;
+
+    /**
+     * Tolerance subtracted from the distance to the nearest boundary, to account for rounding in the distance
+     * calculation.
+     */
+    private static final double BOUNDARY_TOLERANCE_METERS = 1D;
+
+    static synchronized BackupGeofenceMonitor get(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new BackupGeofenceMonitor(WriteBehindGeofenceCache.get(context));
+        }
+
+        return INSTANCE;
     }
 
-    private final Cache<Map<String, MonitoredGeofence>> cache;
+    private final WriteBehindGeofenceCache cache;
+
+    /**
+     * Spatial index of the monitored geofences, rebuilt whenever the monitored geofence set changes.
+     */
+    @Nullable private GeofenceIndex index;
+
+    /*
+     * Version of the cached geofences the index was built from, see WriteBehindGeofenceCache#version().
+     */
+    private int indexVersion;
+
+    /*
+     * Last checked location, and the distance from it within which no geofence state can change. A negative distance
+     * means the next location has to be checked.
+     */
+    private double lastCheckedLat;
+    private double lastCheckedLng;
+    private double unchangedWithinMeters = -1D;
 
-    private BackupGeofenceMonitor(Cache<Map<String, MonitoredGeofence>> cache) {
+    /*
+     * Time at which a pending state change was first observed, by id of each geofence waiting for dwellMillis.
+     */
+    private final SparseLongArray pendingSince = new SparseLongArray();
+
+    /**
+     * Distance in meters a location has to be past a geofence boundary, relative to the current state of the geofence,
+     * to change the state. 0 means the boundary is the geofence radius.
+     */
+    private double hysteresisMeters = 0D;
+
+    /**
+     * Time a new state of a geofence has to be observed in consecutive checks before it is reported. 0 means the new
+     * state is reported on the first check.
+     */
+    private long dwellMillis = 0L;
+
+    private BackupGeofenceMonitor(WriteBehindGeofenceCache cache) {
         this.cache = cache;
     }
 
@@ -45,57 +106,23 @@ final class BackupGeofenceMonitor {
      *
      * @param features Feature list from a Connection.
      */
-    void updateMonitoredGeofences(List<Feature> features) {
+    synchronized void updateMonitoredGeofences(List<Feature> features) {
         LinkedHashMap<String, MonitoredGeofence> map = new LinkedHashMap<>();
-        Map<String, MonitoredGeofence> existingMap = getMonitoredGeofences();
+        Map<String, MonitoredGeofence> existingMap = cache.read();
         Map<String, List<UserFeatureField<LocationFieldValue>>> locations = extractLocationUserFeatures(features, true);
         for (Map.Entry<String, List<UserFeatureField<LocationFieldValue>>> entry : locations.entrySet()) {
-            String id = getIftttFenceKey(entry.getKey());
+            String stepId = entry.getKey();
             for (UserFeatureField<LocationFieldValue> userFeatureField : entry.getValue()) {
                 switch (userFeatureField.fieldType) {
                     case FIELD_TYPE_LOCATION_ENTER:
-                        if (existingMap.containsKey(id)) {
-                            map.put(id, existingMap.get(id));
-                        } else {
-                            map.put(id, new MonitoredGeofence(
-                                LocationEventUploader.EventType.Entry,
-                                MonitoredGeofence.GeofenceState.Init,
-                                userFeatureField.value
-                            ));
-                        }
+                        putGeofence(map, existingMap, register(stepId, DIRECTION_NONE), Entry, userFeatureField.value);
                         break;
                     case FIELD_TYPE_LOCATION_EXIT:
-                        if (existingMap.containsKey(id)) {
-                            map.put(id, existingMap.get(id));
-                        } else {
-                            map.put(id, new MonitoredGeofence(
-                                LocationEventUploader.EventType.Exit,
-                                MonitoredGeofence.GeofenceState.Init,
-                                userFeatureField.value
-                            ));
-                        }
+                        putGeofence(map, existingMap, register(stepId, DIRECTION_NONE), Exit, userFeatureField.value);
                         break;
                     case FIELD_TYPE_LOCATION_ENTER_EXIT:
-                        String enterKey = getEnterFenceKey(id);
-                        String exitKey = getExitFenceKey(id);
-                        if (existingMap.containsKey(enterKey)) {
-                            map.put(id, existingMap.get(enterKey));
-                        } else {
-                            map.put(getEnterFenceKey(id), new MonitoredGeofence(
-                                LocationEventUploader.EventType.Entry,
-                                MonitoredGeofence.GeofenceState.Init,
-                                userFeatureField.value
-                            ));
-                        }
-                        if (existingMap.containsKey(exitKey)) {
-                            map.put(id, existingMap.get(exitKey));
-                        } else {
-                            map.put(getExitFenceKey(id), new MonitoredGeofence(
-                                LocationEventUploader.EventType.Exit,
-                                MonitoredGeofence.GeofenceState.Init,
-                                userFeatureField.value
-                            ));
-                        }
+                        putGeofence(map, existingMap, register(stepId, DIRECTION_ENTER), Entry, userFeatureField.value);
+                        putGeofence(map, existingMap, register(stepId, DIRECTION_EXIT), Exit, userFeatureField.value);
                         break;
                     default:
                         // No-op for other location types.
@@ -105,102 +132,330 @@ final class BackupGeofenceMonitor {
 
         if (!map.isEmpty()) {
             cache.write(map);
+            index = GeofenceIndex.from(map);
+            indexVersion = cache.version();
+            resetChecks();
         }
     }
 
-    void clear() {
+    /**
+     * Add a geofence to the monitored geofences, keeping its state if it is already monitored. The existing state is
+     * always looked up and stored under the same key, so that the enter and exit geofences of a step keep their own
+     * state.
+     */
+    private static void putGeofence(
+        Map<String, MonitoredGeofence> map,
+        Map<String, MonitoredGeofence> existingMap,
+        int fenceId,
+        LocationEventUploader.EventType type,
+        LocationFieldValue value
+    ) {
+        String fenceKey = fenceKey(fenceId);
+        MonitoredGeofence existing = existingMap.get(fenceKey);
+        map.put(fenceKey, existing != null ? existing : new MonitoredGeofence(type, Init, value));
+    }
+
+    /**
+     * Change how reported locations are evaluated, see {@link #hysteresisMeters} and {@link #dwellMillis}. The skip
+     * radius of the last checked location and the pending state changes were computed with the previous values, so
+     * they are discarded and the next location is checked against the geofences.
+     */
+    synchronized void setReportEventFiltering(double hysteresisMeters, long dwellMillis) {
+        this.hysteresisMeters = hysteresisMeters;
+        this.dwellMillis = dwellMillis;
+        resetChecks();
+    }
+
+    synchronized void clear() {
         cache.clear();
+        index = GeofenceIndex.EMPTY;
+        indexVersion = cache.version();
+        resetChecks();
     }
 
     /**
      * Refresh the {@link MonitoredGeofence.GeofenceState} of a single geofence in the cached
      * monitored geofences.
      *
-     * @param fenceKey Geofence identifier, must match one of the geofences registered internally in
-     * the SDK.
-     * @param state New {@link MonitoredGeofence.GeofenceState} for the fence key.
+     * @param fenceId Geofence id from {@link FenceKeyRegistry}, must match one of the geofences registered internally
+     * in the SDK.
+     * @param state New {@link MonitoredGeofence.GeofenceState} for the fence.
      */
-    void setState(String fenceKey, MonitoredGeofence.GeofenceState state) {
-        Map<String, MonitoredGeofence> map = getMonitoredGeofences();
-        MonitoredGeofence currentGeofence = map.get(fenceKey);
+    synchronized void setState(int fenceId, MonitoredGeofence.GeofenceState state) {
+        String fenceKey = fenceKey(fenceId);
+        MonitoredGeofence currentGeofence = cache.read().get(fenceKey);
         if (currentGeofence == null) {
             return;
         }
 
-        map.put(fenceKey, new MonitoredGeofence(currentGeofence.type, state, currentGeofence.value));
-        cache.write(map);
+        cache.put(fenceKey, new MonitoredGeofence(currentGeofence.type, state, currentGeofence.value));
+        invalidateLastCheck(fenceId);
     }
 
     /**
-     * Read the cached monitored geofence given the fence key.
+     * Atomically move a single geofence to a new {@link MonitoredGeofence.GeofenceState}, so that an event reported by
+     * both the Awareness API and {@link ConnectLocation#reportEvent} is only handled once. This is called from the
+     * Awareness receivers, so the new state is persisted before returning, see
+     * {@link WriteBehindGeofenceCache#putAndFlush(String, MonitoredGeofence)}.
      *
-     * @param fenceKey Geofence identifier, must match one of the geofences registered internally in
-     * the SDK.
-     * @return cached {@link MonitoredGeofence.GeofenceState} for the fence key, or null if state
+     * @param fenceId Geofence id from {@link FenceKeyRegistry}, must match one of the geofences registered internally
+     * in the SDK.
+     * @param state New {@link MonitoredGeofence.GeofenceState} for the fence.
+     * @return false if the geofence was already in the given state, true otherwise.
+     */
+    synchronized boolean transitionState(int fenceId, MonitoredGeofence.GeofenceState state) {
+        String fenceKey = fenceKey(fenceId);
+        MonitoredGeofence currentGeofence = cache.read().get(fenceKey);
+        if (currentGeofence == null) {
+            return true;
+        }
+
+        if (currentGeofence.state == state) {
+            return false;
+        }
+
+        cache.putAndFlush(fenceKey, new MonitoredGeofence(currentGeofence.type, state, currentGeofence.value));
+        invalidateLastCheck(fenceId);
+        return true;
+    }
+
+    /**
+     * Read the cached monitored geofence given the fence id.
+     *
+     * @param fenceId Geofence id from {@link FenceKeyRegistry}, must match one of the geofences registered internally
+     * in the SDK.
+     * @return cached {@link MonitoredGeofence.GeofenceState} for the fence, or null if state
      * cannot be found.
      */
     @Nullable
-    MonitoredGeofence.GeofenceState getState(String fenceKey) {
-        Map<String, MonitoredGeofence> map = getMonitoredGeofences();
-        MonitoredGeofence currentGeofence = map.get(fenceKey);
+    synchronized MonitoredGeofence.GeofenceState getState(int fenceId) {
+        MonitoredGeofence currentGeofence = cache.read().get(fenceKey(fenceId));
         return currentGeofence != null ? currentGeofence.state : null;
     }
 
     /**
-     * @return all monitored geofence states.
+     * @return a snapshot of all monitored geofence states. State changes should be made through
+     * {@link #setState(int, MonitoredGeofence.GeofenceState)} or {@link #updateMonitoredGeofences(List)}.
      */
-    Map<String, MonitoredGeofence> getMonitoredGeofences() {
-        return cache.read();
+    synchronized Map<String, MonitoredGeofence> getMonitoredGeofences() {
+        return new LinkedHashMap<>(cache.read());
+    }
+
+    void checkMonitoredGeofences(double lat, double lng, TransitionListener listener) {
+        checkMonitoredGeofences(lat, lng, SystemClock.elapsedRealtime(), listener);
     }
 
-    void checkMonitoredGeofences(double lat, double lng, OnEventUploadListener listener) {
-        Map<String, MonitoredGeofence> monitoredGeofences = getMonitoredGeofences();
-        for (Map.Entry<String, MonitoredGeofence> entry : monitoredGeofences.entrySet()) {
-            MonitoredGeofence monitoredGeofence = entry.getValue();
-            requireNonNull(monitoredGeofence.value.radius);
+    @VisibleForTesting
+    void checkMonitoredGeofences(double lat, double lng, long now, TransitionListener listener) {
+        List<Transition> transitions = new ArrayList<>();
+        synchronized (this) {
+            if (unchangedWithinMeters >= 0D && GeofenceIndex.distanceMeters(lastCheckedLat,
+                lastCheckedLng,
+                lat,
+                lng
+            ) < unchangedWithinMeters) {
+                return;
+            }
 
-            Location newLocation = new Location(LocationManager.PASSIVE_PROVIDER);
-            newLocation.setLatitude(lat);
-            newLocation.setLongitude(lng);
+            Map<String, MonitoredGeofence> monitoredGeofences = cache.read();
+            GeofenceIndex geofenceIndex = getIndex(monitoredGeofences);
+            double hysteresis = hysteresisMeters;
+            long dwell = dwellMillis;
 
-            Location geofence = new Location(LocationManager.PASSIVE_PROVIDER);
-            geofence.setLatitude(monitoredGeofence.value.lat);
-            geofence.setLongitude(monitoredGeofence.value.lng);
+            // Fences that are not candidates are at least this far away, and are considered exited.
+            double nearestBoundary = geofenceIndex.candidateMarginMeters(lat, lng);
 
-            MonitoredGeofence.GeofenceState newState;
-            LocationEventUploader.EventType newType;
-            if (newLocation.distanceTo(geofence) >= monitoredGeofence.value.radius) {
-                newState = Exited;
-                newType = Exit;
-            } else {
-                newState = Entered;
-                newType = Entry;
-            }
+            int[] candidates = geofenceIndex.candidates(lat, lng);
+            int nextCandidate = 0;
+            for (int i = 0; i < geofenceIndex.size(); i++) {
+                boolean isCandidate = nextCandidate < candidates.length && candidates[nextCandidate] == i;
+                if (isCandidate) {
+                    nextCandidate++;
+                }
+
+                int fenceId = geofenceIndex.ids[i];
+                MonitoredGeofence monitoredGeofence = monitoredGeofences.get(fenceKey(fenceId));
+                if (monitoredGeofence == null) {
+                    continue;
+                }
 
-            boolean isMatchingEntryEvent = newState == Entered && monitoredGeofence.type == Entry;
-            boolean isMatchingExitEvent = newState == Exited && monitoredGeofence.type == Exit;
+                // With hysteresis, an entered fence can still be entered outside of its radius.
+                boolean measure = isCandidate || (hysteresis > 0D && monitoredGeofence.state == Entered);
+                double distance = measure ? GeofenceIndex.distanceMeters(lat,
+                    lng,
+                    geofenceIndex.lats[i],
+                    geofenceIndex.lngs[i]
+                ) : Double.MAX_VALUE;
+                double radius = geofenceIndex.radii[i];
 
-            if (newState != monitoredGeofence.state) {
-                if (monitoredGeofence.state != Init && (isMatchingEntryEvent || isMatchingExitEvent)) {
-                    listener.onUploadEvent(entry.getKey(), newType);
+                MonitoredGeofence.GeofenceState newState;
+                if (distance < boundary(radius, monitoredGeofence.state, hysteresis)) {
+                    newState = Entered;
                 } else {
-                    // In this case, the enter/exit event has already been reported, most likely
-                    // from Awareness API.
-                    String fenceKey = entry.getKey();
-                    listener.onUploadSkipped(
-                        fenceKey,
-                        "Upload is skipped, with state: "
-                            + monitoredGeofence.state
-                            + ", type: "
-                            + monitoredGeofence.type
-                            + ", event: "
-                            + newState
+                    newState = Exited;
+                }
+
+                MonitoredGeofence.GeofenceState state = monitoredGeofence.state;
+                if (newState == state) {
+                    pendingSince.delete(fenceId);
+                } else if (isDwelling(fenceId, now, dwell)) {
+                    transitions.add(new Transition(fenceId, monitoredGeofence, newState));
+                    cache.put(fenceKey(fenceId),
+                        new MonitoredGeofence(monitoredGeofence.type, newState, monitoredGeofence.value)
                     );
+                    state = newState;
                 }
 
-                setState(entry.getKey(), newState);
+                if (measure) {
+                    nearestBoundary = Math.min(nearestBoundary,
+                        Math.abs(distance - boundary(radius, state, hysteresis))
+                    );
+                } else if (state == Entered) {
+                    // Waiting for the dwell time to exit a fence that wasn't measured.
+                    nearestBoundary = 0D;
+                }
+            }
+
+            if (pendingSince.size() == 0) {
+                lastCheckedLat = lat;
+                lastCheckedLng = lng;
+                unchangedWithinMeters = nearestBoundary - BOUNDARY_TOLERANCE_METERS;
+            } else {
+                // Pending state changes need to be checked again, even if the location doesn't change.
+                unchangedWithinMeters = -1D;
             }
         }
+
+        for (Transition transition : transitions) {
+            MonitoredGeofence monitoredGeofence = transition.geofence;
+            boolean isMatchingEntryEvent = transition.newState == Entered && monitoredGeofence.type == Entry;
+            boolean isMatchingExitEvent = transition.newState == Exited && monitoredGeofence.type == Exit;
+            if (monitoredGeofence.state != Init && (isMatchingEntryEvent || isMatchingExitEvent)) {
+                listener.onTransition(transition.fenceId, transition.newState == Entered ? Entry : Exit);
+            } else {
+                // In this case, the enter/exit event has already been reported, most likely
+                // from Awareness API.
+                listener.onTransitionSkipped(
+                    transition.fenceId,
+                    "Upload is skipped, with state: "
+                        + monitoredGeofence.state
+                        + ", type: "
+                        + monitoredGeofence.type
+                        + ", event: "
+                        + transition.newState
+                );
+            }
+        }
+    }
+
+    /**
+     * @return the distance in meters from the location to the nearest boundary of the monitored geofences, or
+     * {@link Double#POSITIVE_INFINITY} if there is no monitored geofence.
+     */
+    synchronized double distanceToNearestBoundary(double lat, double lng) {
+        GeofenceIndex geofenceIndex = getIndex(cache.read());
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < geofenceIndex.size(); i++) {
+            double distance = GeofenceIndex.distanceMeters(lat, lng, geofenceIndex.lats[i], geofenceIndex.lngs[i]);
+            nearest = Math.min(nearest, Math.abs(distance - geofenceIndex.radii[i]));
+        }
+        return nearest;
+    }
+
+    /**
+     * @return the distance from the center of a geofence at which its state changes, given its current state.
+     */
+    private static double boundary(double radius, MonitoredGeofence.GeofenceState state, double hysteresis) {
+        switch (state) {
+            case Entered:
+                return radius + hysteresis;
+            case Exited:
+                return radius - hysteresis;
+            default:
+                return radius;
+        }
+    }
+
+    /**
+     * @return true if a state change of the geofence has been observed for at least the dwell time, false if it is
+     * still pending.
+     */
+    private boolean isDwelling(int fenceId, long now, long dwell) {
+        if (dwell <= 0L) {
+            return true;
+        }
+
+        int position = pendingSince.indexOfKey(fenceId);
+        if (position < 0) {
+            pendingSince.put(fenceId, now);
+            return false;
+        }
+
+        if (now - pendingSince.valueAt(position) < dwell) {
+            return false;
+        }
+
+        pendingSince.removeAt(position);
+        return true;
+    }
+
+    private void invalidateLastCheck(int fenceId) {
+        pendingSince.delete(fenceId);
+        unchangedWithinMeters = -1D;
+    }
+
+    private void resetChecks() {
+        pendingSince.clear();
+        unchangedWithinMeters = -1D;
+    }
+
+    private GeofenceIndex getIndex(Map<String, MonitoredGeofence> monitoredGeofences) {
+        int version = cache.version();
+        if (index == null || indexVersion != version) {
+            // The index hasn't been built in this process yet, or geofences have been added, removed or moved in the
+            // cache since.
+            index = GeofenceIndex.from(monitoredGeofences);
+            indexVersion = version;
+            resetChecks();
+        }
+
+        return index;
+    }
+
+    /**
+     * Listener of the state changes found by {@link #checkMonitoredGeofences(double, double, TransitionListener)}.
+     */
+    interface TransitionListener {
+
+        /**
+         * Called when a geofence changed to the state its event type is waiting for.
+         *
+         * @param fenceId Geofence id from {@link FenceKeyRegistry}.
+         */
+        void onTransition(int fenceId, LocationEventUploader.EventType eventType);
+
+        /**
+         * Called when a geofence changed state, but the change doesn't need to be reported.
+         *
+         * @param fenceId Geofence id from {@link FenceKeyRegistry}.
+         */
+        void onTransitionSkipped(int fenceId, String reason);
+    }
+
+    /**
+     * A state change of a single geofence, found while checking a location.
+     */
+    private static final class Transition {
+
+        final int fenceId;
+        final MonitoredGeofence geofence;
+        final MonitoredGeofence.GeofenceState newState;
+
+        Transition(int fenceId, MonitoredGeofence geofence, MonitoredGeofence.GeofenceState newState) {
+            this.fenceId = fenceId;
+            this.geofence = geofence;
+            this.newState = newState;
+        }
     }
 
     static final class MonitoredGeofence {
@@ -4,6 +4,7 @@ package com.ifttt.location;
  * Interface representing cached data within ConnectLocation module.
  *
  * @see SharedPreferencesGeofenceCache
+ * @see WriteBehindGeofenceCache
  * @see SharedPreferenceUserTokenCache
  */
 interface Cache<T> {
@@ -1,6 +1,7 @@
 package com.ifttt.location;
 
 import androidx.annotation.Nullable;
+import com.ifttt.connect.api.ConnectionRepository;
 import com.ifttt.connect.api.UserTokenProvider;
 
 class CacheUserTokenProvider implements UserTokenProvider {
@@ -19,7 +20,9 @@ class CacheUserTokenProvider implements UserTokenProvider {
         String token;
         if (delegate != null) {
             token = delegate.getUserToken();
-            if (token != null && token.length() > 0) {
+            if (token != null && token.length() > 0 && !token.equals(cache.read())) {
+                // Connections fetched with the previous token belong to another user.
+                ConnectionRepository.getInstance().clear();
                 cache.write(token);
             }
         } else {
@@ -8,6 +8,7 @@ import androidx.annotation.VisibleForTesting;
 import androidx.work.Worker;
 import com.ifttt.connect.api.Connection;
 import com.ifttt.connect.api.ConnectionApiClient;
+import com.ifttt.connect.api.ConnectionRepository;
 import com.ifttt.connect.api.ErrorResponse;
 import com.ifttt.connect.api.PendingResult;
 import com.ifttt.connect.api.UserFeature;
@@ -15,6 +16,7 @@ import com.ifttt.connect.api.UserTokenProvider;
 import com.ifttt.connect.ui.ButtonStateChangeListener;
 import com.ifttt.connect.ui.ConnectButton;
 import com.ifttt.connect.ui.ConnectButtonState;
+import java.util.concurrent.TimeUnit;
 
 import static androidx.core.content.ContextCompat.checkSelfPermission;
 import static com.ifttt.connect.ui.ConnectButtonState.Disabled;
@@ -54,6 +56,8 @@ public final class ConnectLocation {
 
     @Nullable LocationEventListener locationEventListener;
 
+    @VisibleForTesting @Nullable RetrofitLocationApi locationApi;
+
     public static synchronized ConnectLocation init(Context context, ConnectionApiClient apiClient) {
         ConnectionApiClient.Builder builder = apiClient.newBuilder(new CacheUserTokenProvider(
             new SharedPreferenceUserTokenCache(context),
@@ -166,6 +170,51 @@ public final class ConnectLocation {
         this.locationEventListener = listener;
     }
 
+    /**
+     * Configure how background location events are uploaded to IFTTT. Location events are queued on disk when they
+     * are reported, and uploaded together in batches.
+     *
+     * @param maxBatchSize maximum number of events uploaded in a single request, must be positive.
+     * @param maxLatency maximum time an event waits before the upload starts, events reported within this window are
+     * uploaded together. Use 0 to start uploading as soon as an event is reported.
+     * @param unit {@link TimeUnit} of the maxLatency value.
+     */
+    public void setEventUploadBatching(int maxBatchSize, long maxLatency, TimeUnit unit) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (maxLatency < 0) {
+            throw new IllegalArgumentException("maxLatency cannot be negative: " + maxLatency);
+        }
+
+        LocationEventUploader.maxBatchSize = maxBatchSize;
+        LocationEventUploader.maxLatencyMillis = unit.toMillis(maxLatency);
+    }
+
+    /**
+     * Configure how locations passed to {@link #reportEvent(Context, double, double, OnEventUploadListener)} are
+     * evaluated, to suppress repeated enter and exit events when a location is reported close to a geofence boundary.
+     * Both are disabled by default.
+     *
+     * @param context Context object.
+     * @param hysteresisMeters distance a location has to be past a geofence boundary to change its state: an entered
+     * geofence is only exited beyond its radius plus this distance, and an exited geofence is only entered within its
+     * radius minus this distance. Should be smaller than the radius of the geofences.
+     * @param dwellTime time for which a location has to stay on the other side of a boundary, across consecutive
+     * reports, before the event is reported. Use 0 to report events on the first location.
+     * @param unit {@link TimeUnit} of the dwellTime value.
+     */
+    public void setReportEventFiltering(Context context, double hysteresisMeters, long dwellTime, TimeUnit unit) {
+        if (hysteresisMeters < 0D) {
+            throw new IllegalArgumentException("hysteresisMeters cannot be negative: " + hysteresisMeters);
+        }
+        if (dwellTime < 0) {
+            throw new IllegalArgumentException("dwellTime cannot be negative: " + dwellTime);
+        }
+
+        BackupGeofenceMonitor.get(context).setReportEventFiltering(hysteresisMeters, unit.toMillis(dwellTime));
+    }
+
     /**
      * Given the connection id passed in during initialization, fetch the connection data, and check if it has an
      * enabled {@link UserFeature} that uses location.
@@ -194,7 +243,8 @@ public final class ConnectLocation {
         // Set up polling job for fetching the latest connection data.
         ConnectionRefresher.schedule(context, connectionId);
 
-        PendingResult<Connection> pendingResult = connectionApiClient.api().showConnection(connectionId);
+        PendingResult<Connection> pendingResult = ConnectionRepository.getInstance()
+            .getConnection(connectionApiClient, connectionId);
         pendingResult.execute(new PendingResult.ResultCallback<Connection>() {
             @Override
             public void onSuccess(Connection result) {
@@ -220,6 +270,8 @@ public final class ConnectLocation {
         ConnectionRefresher.cancel(context);
 
         new SharedPreferenceUserTokenCache(context).clear();
+        ConnectionRepository.getInstance().clear();
+        connectionApiClient.clearConnectionCache();
     }
 
     /**
@@ -230,6 +282,10 @@ public final class ConnectLocation {
      * has entered/exited a geofence, you can use this method to report it to IFTTT. This feature
      * includes mechanism to prevent the same geofence event being reported here as well as from
      * the SDK.
+     * <p>
+     * Locations that are too close to the previously evaluated location to have crossed any geofence boundary are
+     * skipped, so this method can be called for every location update. See also
+     * {@link #setReportEventFiltering(Context, double, long, TimeUnit)}.
      *
      * @param context Context object.
      */
@@ -237,35 +293,62 @@ public final class ConnectLocation {
         Context context, double lat, double lng, @Nullable OnEventUploadListener listener
     ) {
         BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(context);
-        monitor.checkMonitoredGeofences(lat, lng, new OnEventUploadListener() {
+        monitor.checkMonitoredGeofences(lat, lng, new BackupGeofenceMonitor.TransitionListener() {
             @Override
-            public void onUploadEvent(String fenceKey, LocationEventUploader.EventType eventType) {
+            public void onTransition(int fenceId, LocationEventUploader.EventType eventType) {
+                String fenceKey = FenceKeyRegistry.fenceKey(fenceId);
                 if (listener != null) {
                     listener.onUploadEvent(fenceKey, eventType);
                 }
 
-                String stepId = LocationEventUploadHelper.extractStepId(fenceKey);
-                LocationEventUploader.schedule(context, eventType, LocationReport, stepId);
+                LocationEventUploader.schedule(context, eventType, LocationReport, FenceKeyRegistry.stepId(fenceId));
                 Logger.log(eventType + " event reported, uploading with fence key: " + fenceKey);
 
                 LocationEventHelper.logEventReported(ConnectLocation.getInstance(), eventType, LocationReport);
             }
 
             @Override
-            public void onUploadSkipped(String fenceKey, String reason) {
+            public void onTransitionSkipped(int fenceId, String reason) {
                 if (listener != null) {
-                    listener.onUploadSkipped(fenceKey, reason);
+                    listener.onUploadSkipped(FenceKeyRegistry.fenceKey(fenceId), reason);
                 }
             }
         });
     }
 
+    /**
+     * Get the distance from a location to the nearest boundary of the geofences monitored by the SDK. This can be used
+     * to adapt how often the location is requested and passed to
+     * {@link #reportEvent(Context, double, double, OnEventUploadListener)}: no geofence event can happen before the
+     * device has travelled at least this distance.
+     *
+     * @param context Context object.
+     * @param lat Latitude of the location.
+     * @param lng Longitude of the location.
+     * @return the distance in meters, or {@link Double#POSITIVE_INFINITY} if no geofence is monitored.
+     */
+    public double getDistanceToNearestBoundary(Context context, double lat, double lng) {
+        return BackupGeofenceMonitor.get(context).distanceToNearestBoundary(lat, lng);
+    }
+
     @VisibleForTesting
     ConnectLocation(GeofenceProvider geofenceProvider, ConnectionApiClient connectionApiClient) {
         this.geofenceProvider = geofenceProvider;
         this.connectionApiClient = connectionApiClient;
     }
 
+    /**
+     * @return the {@link RetrofitLocationApi} instance for uploading location events, authenticated by the
+     * {@link #connectionApiClient}.
+     */
+    synchronized RetrofitLocationApi locationApi() {
+        if (locationApi == null) {
+            locationApi = new RetrofitLocationApi.Client(connectionApiClient.interceptor()).api;
+        }
+
+        return locationApi;
+    }
+
     private void doActivate(
         Context context, Connection connection, @Nullable LocationStatusCallback locationStatusCallback
     ) {
@@ -19,6 +19,7 @@ import androidx.work.WorkerParameters;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.ifttt.connect.api.Connection;
 import com.ifttt.connect.api.ConnectionApiClient;
+import com.ifttt.connect.api.ConnectionRepository;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -52,11 +53,16 @@ public final class ConnectionRefresher extends Worker {
         ConnectLocation connectLocation = ConnectLocation.getInstance();
         ConnectionApiClient connectionApiClient = connectLocation.connectionApiClient;
 
+        // Pick up any location events that are still waiting to be uploaded.
+        LocationEventUploader.uploadPending(getApplicationContext());
+
         try {
             String connectionId = getInputData().getString(INPUT_DATA_CONNECTION_ID);
 
-            Response<Connection> connectionResult = connectionApiClient.api().showConnection(Objects.requireNonNull(
-                connectionId)).getCall().execute();
+            Response<Connection> connectionResult = ConnectionRepository.getInstance()
+                .getConnection(connectionApiClient, Objects.requireNonNull(connectionId))
+                .getCall()
+                .execute();
             if (connectionResult.isSuccessful()) {
                 Connection connection = connectionResult.body();
                 if (connection == null) {
@@ -0,0 +1,146 @@
+package com.ifttt.location;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide intern table of geofence keys. Every fence key, see
+ * {@link LocationEventUploadHelper#getIftttFenceKey(String)}, is assigned a stable int id the first time it is seen,
+ * together with its parsed step id and direction. Building and parsing keys then happens once per fence, when the
+ * monitored geofences are updated, instead of for every geofence event. Fences are then referred to by their id, and
+ * the key is only needed to talk to the Awareness API, the geofence cache and the public listeners.
+ *
+ * Ids are never reused, and the table only grows with the number of distinct fences seen by the process.
+ */
+final class FenceKeyRegistry {
+
+    static final int DIRECTION_NONE = 0;
+    static final int DIRECTION_ENTER = 1;
+    static final int DIRECTION_EXIT = 2;
+
+    private static final String SUFFIX_ENTER = "/enter";
+    private static final String SUFFIX_EXIT = "/exit";
+
+    private static final ConcurrentHashMap<String, Entry> ENTRIES_BY_KEY = new ConcurrentHashMap<>();
+
+    /*
+     * Ids of the keys built by register, by step id and indexed by direction, -1 if the key hasn't been registered.
+     * The arrays are copied on write, and never modified once published.
+     * */
+    private static final ConcurrentHashMap<String, int[]> IDS_BY_STEP = new ConcurrentHashMap<>();
+
+    /*
+     * Entries indexed by id. Registration is rare, so the array is copied on write, and lookups by id don't need to
+     * acquire the lock.
+     * */
+    private static volatile Entry[] entries = new Entry[0];
+
+    /**
+     * Returns the id of the fence key for a step and a direction. The key is only built the first time the step and
+     * direction are registered.
+     *
+     * @param stepId UserFeatureStep id.
+     * @param direction one of {@link #DIRECTION_NONE}, {@link #DIRECTION_ENTER} or {@link #DIRECTION_EXIT}.
+     */
+    static int register(String stepId, int direction) {
+        int[] ids = IDS_BY_STEP.get(stepId);
+        if (ids != null && ids[direction] >= 0) {
+            return ids[direction];
+        }
+
+        String fenceKey = LocationEventUploadHelper.getIftttFenceKey(stepId);
+        if (direction == DIRECTION_ENTER) {
+            fenceKey = LocationEventUploadHelper.getEnterFenceKey(fenceKey);
+        } else if (direction == DIRECTION_EXIT) {
+            fenceKey = LocationEventUploadHelper.getExitFenceKey(fenceKey);
+        }
+        return add(fenceKey, stepId, direction, true);
+    }
+
+    /**
+     * Returns the id of a fence key, parsing and registering the key if it hasn't been seen before.
+     */
+    static int intern(String fenceKey) {
+        Entry entry = ENTRIES_BY_KEY.get(fenceKey);
+        if (entry != null) {
+            return entry.id;
+        }
+
+        boolean prefixed = LocationEventUploadHelper.isIftttFenceKey(fenceKey);
+        String stepId = prefixed
+            ? fenceKey.substring(LocationEventUploadHelper.IFTTT_FENCE_KEY_PREFIX.length())
+            : fenceKey;
+        int direction = DIRECTION_NONE;
+        int dividerIndex = stepId.indexOf('/');
+        if (dividerIndex >= 0) {
+            if (stepId.endsWith(SUFFIX_ENTER) && stepId.length() - SUFFIX_ENTER.length() == dividerIndex) {
+                direction = DIRECTION_ENTER;
+            } else if (stepId.endsWith(SUFFIX_EXIT) && stepId.length() - SUFFIX_EXIT.length() == dividerIndex) {
+                direction = DIRECTION_EXIT;
+            }
+            stepId = stepId.substring(0, dividerIndex);
+        }
+        // Only keys in the format built by register can be found by their step id and direction.
+        boolean registered = prefixed && (dividerIndex < 0 || direction != DIRECTION_NONE);
+        return add(fenceKey, stepId, direction, registered);
+    }
+
+    /**
+     * @return the registered fence key instance for the id. Keys built for the same step and direction share this
+     * instance.
+     */
+    static String fenceKey(int id) {
+        return entries[id].fenceKey;
+    }
+
+    static String stepId(int id) {
+        return entries[id].stepId;
+    }
+
+    static int direction(int id) {
+        return entries[id].direction;
+    }
+
+    private static synchronized int add(String fenceKey, String stepId, int direction, boolean registered) {
+        Entry entry = ENTRIES_BY_KEY.get(fenceKey);
+        if (entry == null) {
+            Entry[] current = entries;
+            entry = new Entry(current.length, fenceKey, stepId, direction);
+            Entry[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[entry.id] = entry;
+            // Publish the id before the key, so that ids returned by lookups are always valid.
+            entries = updated;
+            ENTRIES_BY_KEY.put(fenceKey, entry);
+        }
+
+        if (registered) {
+            int[] ids = IDS_BY_STEP.get(stepId);
+            if (ids == null) {
+                ids = new int[] { -1, -1, -1 };
+            } else {
+                ids = ids.clone();
+            }
+            ids[direction] = entry.id;
+            IDS_BY_STEP.put(stepId, ids);
+        }
+        return entry.id;
+    }
+
+    private static final class Entry {
+        final int id;
+        final String fenceKey;
+        final String stepId;
+        final int direction;
+
+        Entry(int id, String fenceKey, String stepId, int direction) {
+            this.id = id;
+            this.fenceKey = fenceKey;
+            this.stepId = stepId;
+            this.direction = direction;
+        }
+    }
+
+    private FenceKeyRegistry() {
+        throw new AssertionError("No instances.");
+    }
+}
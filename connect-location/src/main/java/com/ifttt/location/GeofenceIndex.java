@@ -0,0 +1,276 @@
+package com.ifttt.location;
+
+import com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable, grid based spatial index over a set of {@link MonitoredGeofence}. The world is divided into square cells
+ * of a fixed size in degrees, and every geofence is registered in all of the cells that its bounding box
+ * overlaps. A location lookup then only needs to run the distance check against the fences registered in the cell
+ * that contains the location.
+ *
+ * Instances should be rebuilt whenever the monitored geofence set changes, see
+ * {@link BackupGeofenceMonitor#updateMonitoredGeofences(java.util.List)}.
+ */
+final class GeofenceIndex {
+
+    /** Mean Earth radius in meters, used by {@link #distanceMeters(double, double, double, double)}. */
+    private static final double EARTH_RADIUS_METERS = 6371008.8D;
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180D;
+
+    /**
+     * Smallest cell size in degrees, roughly 1.1km at the equator. Cells grow with the largest fence radius, so that
+     * a single fence never spans more than a handful of cells.
+     */
+    private static final double MIN_CELL_DEGREES = 0.01D;
+
+    /**
+     * Fences that are too close to the poles, or too large to be bounded by a longitude range, are checked for every
+     * location instead of being registered to cells.
+     */
+    private static final double MAX_BOUNDED_LATITUDE = 85D;
+
+    static final GeofenceIndex EMPTY = build(new int[0], new double[0], new double[0], new double[0]);
+
+    /** Fence ids, see {@link FenceKeyRegistry}. */
+    final int[] ids;
+    final double[] lats;
+    final double[] lngs;
+    final double[] radii;
+
+    private final double cellDegrees;
+    private final int lngCellCount;
+
+    /** Sorted cell keys, see {@link #cellKey(int, int)}. */
+    private final long[] cellKeys;
+
+    /** Sorted fence indices registered in each cell, including {@link #unbounded}. */
+    private final int[][] cellFences;
+
+    /** Sorted fence indices that need to be checked regardless of the location. */
+    private final int[] unbounded;
+
+    private GeofenceIndex(
+        int[] ids,
+        double[] lats,
+        double[] lngs,
+        double[] radii,
+        double cellDegrees,
+        int lngCellCount,
+        long[] cellKeys,
+        int[][] cellFences,
+        int[] unbounded
+    ) {
+        this.ids = ids;
+        this.lats = lats;
+        this.lngs = lngs;
+        this.radii = radii;
+        this.cellDegrees = cellDegrees;
+        this.lngCellCount = lngCellCount;
+        this.cellKeys = cellKeys;
+        this.cellFences = cellFences;
+        this.unbounded = unbounded;
+    }
+
+    /**
+     * Build an index from the monitored geofences, the index of each fence follows the iteration order of the map.
+     */
+    static GeofenceIndex from(Map<String, MonitoredGeofence> geofences) {
+        int size = geofences.size();
+        int[] ids = new int[size];
+        double[] lats = new double[size];
+        double[] lngs = new double[size];
+        double[] radii = new double[size];
+
+        int i = 0;
+        for (Map.Entry<String, MonitoredGeofence> entry : geofences.entrySet()) {
+            MonitoredGeofence geofence = entry.getValue();
+            ids[i] = FenceKeyRegistry.intern(entry.getKey());
+            lats[i] = geofence.value.lat;
+            lngs[i] = geofence.value.lng;
+            radii[i] = requireNonNull(geofence.value.radius);
+            i++;
+        }
+
+        return build(ids, lats, lngs, radii);
+    }
+
+    private static GeofenceIndex build(int[] ids, double[] lats, double[] lngs, double[] radii) {
+        double maxRadius = 0D;
+        for (double radius : radii) {
+            maxRadius = Math.max(maxRadius, radius);
+        }
+        // Round the cell size up so that the longitude cells wrap evenly around the anti-meridian.
+        int lngCellCount = (int) Math.max(1D, Math.floor(360D / Math.max(MIN_CELL_DEGREES,
+            maxRadius / METERS_PER_DEGREE
+        )));
+        double cellDegrees = 360D / lngCellCount;
+
+        TreeMap<Long, List<Integer>> cells = new TreeMap<>();
+        List<Integer> unbounded = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            double latDelta = radii[i] / METERS_PER_DEGREE;
+            double minLat = lats[i] - latDelta;
+            double maxLat = lats[i] + latDelta;
+            if (minLat < -MAX_BOUNDED_LATITUDE || maxLat > MAX_BOUNDED_LATITUDE) {
+                unbounded.add(i);
+                continue;
+            }
+
+            // Longitude degrees get shorter towards the poles, use the widest point of the bounding box.
+            double lngDelta = latDelta / Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+            if (lngDelta >= 180D) {
+                unbounded.add(i);
+                continue;
+            }
+
+            int minLatCell = latCell(minLat, cellDegrees);
+            int maxLatCell = latCell(maxLat, cellDegrees);
+            int minLngCell = (int) Math.floor((lngs[i] - lngDelta + 180D) / cellDegrees);
+            int maxLngCell = (int) Math.floor((lngs[i] + lngDelta + 180D) / cellDegrees);
+            if (maxLngCell - minLngCell + 1 >= lngCellCount) {
+                unbounded.add(i);
+                continue;
+            }
+
+            for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+                for (int lngCell = minLngCell; lngCell <= maxLngCell; lngCell++) {
+                    // Wrap around the anti-meridian.
+                    long key = cellKey(latCell, Math.floorMod(lngCell, lngCellCount));
+                    List<Integer> fences = cells.get(key);
+                    if (fences == null) {
+                        fences = new ArrayList<>();
+                        cells.put(key, fences);
+                    }
+                    if (fences.isEmpty() || fences.get(fences.size() - 1) != i) {
+                        fences.add(i);
+                    }
+                }
+            }
+        }
+
+        int[] unboundedArray = toArray(unbounded);
+        long[] cellKeys = new long[cells.size()];
+        int[][] cellFences = new int[cells.size()][];
+        int cellIndex = 0;
+        for (Map.Entry<Long, List<Integer>> entry : cells.entrySet()) {
+            cellKeys[cellIndex] = entry.getKey();
+            cellFences[cellIndex] = merge(toArray(entry.getValue()), unboundedArray);
+            cellIndex++;
+        }
+
+        return new GeofenceIndex(ids,
+            lats,
+            lngs,
+            radii,
+            cellDegrees,
+            lngCellCount,
+            cellKeys,
+            cellFences,
+            unboundedArray
+        );
+    }
+
+    /**
+     * @return number of geofences in this index.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Find the geofences that may contain the given location. Fences that are not part of the result are guaranteed
+     * to not contain the location. The returned array is sorted in ascending order, and must not be modified.
+     */
+    int[] candidates(double lat, double lng) {
+        if (lat < -MAX_BOUNDED_LATITUDE || lat > MAX_BOUNDED_LATITUDE) {
+            // Bounded fences never reach beyond MAX_BOUNDED_LATITUDE.
+            return unbounded;
+        }
+
+        int lngCell = Math.floorMod((int) Math.floor((lng + 180D) / cellDegrees), lngCellCount);
+        int position = Arrays.binarySearch(cellKeys, cellKey(latCell(lat, cellDegrees), lngCell));
+        if (position < 0) {
+            return unbounded;
+        }
+
+        return cellFences[position];
+    }
+
+    /**
+     * Distance from the location to the edge of the area covered by {@link #candidates(double, double)}. Fences that
+     * are not candidates for the location are at least this far away from it.
+     */
+    double candidateMarginMeters(double lat, double lng) {
+        if (lat < -MAX_BOUNDED_LATITUDE || lat > MAX_BOUNDED_LATITUDE) {
+            return (Math.abs(lat) - MAX_BOUNDED_LATITUDE) * METERS_PER_DEGREE;
+        }
+
+        // Cells are bounded by parallels, the shortest path to which follows the meridian.
+        double latOffset = lat + 90D - latCell(lat, cellDegrees) * cellDegrees;
+        double margin = Math.min(latOffset, cellDegrees - latOffset) * METERS_PER_DEGREE;
+        if (lngCellCount > 1) {
+            // And by meridians, the distance to which is the distance to their great circle.
+            double lngOffset = lng + 180D - Math.floor((lng + 180D) / cellDegrees) * cellDegrees;
+            double lngDelta = Math.toRadians(Math.min(90D, Math.min(lngOffset, cellDegrees - lngOffset)));
+            margin = Math.min(margin,
+                EARTH_RADIUS_METERS * Math.asin(Math.min(1D, Math.cos(Math.toRadians(lat)) * Math.sin(lngDelta)))
+            );
+        }
+        return Math.max(0D, margin);
+    }
+
+    /**
+     * @return true if the location is within the radius of the geofence at the given index.
+     */
+    boolean contains(int index, double lat, double lng) {
+        return distanceMeters(lat, lng, lats[index], lngs[index]) < radii[index];
+    }
+
+    /**
+     * Great-circle distance between two coordinates using the haversine formula.
+     */
+    static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double sinLat = Math.sin(dLat / 2D);
+        double sinLng = Math.sin(dLng / 2D);
+        double a = sinLat * sinLat
+            + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLng * sinLng;
+        return 2D * EARTH_RADIUS_METERS * Math.asin(Math.min(1D, Math.sqrt(a)));
+    }
+
+    private static int latCell(double lat, double cellDegrees) {
+        return (int) Math.floor((lat + 90D) / cellDegrees);
+    }
+
+    private static long cellKey(int latCell, int lngCell) {
+        return ((long) latCell << 32) | (lngCell & 0xFFFFFFFFL);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static int[] merge(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+
+        int[] merged = new int[first.length + second.length];
+        System.arraycopy(first, 0, merged, 0, first.length);
+        System.arraycopy(second, 0, merged, first.length, second.length);
+        Arrays.sort(merged);
+        return merged;
+    }
+}
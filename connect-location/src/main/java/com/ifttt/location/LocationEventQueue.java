@@ -0,0 +1,199 @@
+package com.ifttt.location;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.ifttt.connect.analytics.tape.ObjectQueue;
+import com.ifttt.connect.analytics.tape.QueueFile;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Durable, process-wide FIFO queue of location events waiting to be uploaded by {@link LocationEventUploader}. Events
+ * are persisted to a {@link QueueFile}, so that they survive process death between being reported and uploaded. If
+ * the queue file cannot be created, an in-memory queue is used instead.
+ *
+ * The record ids of events that have been uploaded but not yet removed from the queue are persisted as well, so that
+ * they are not uploaded again if the removal doesn't happen, for example because the process is killed in between.
+ */
+final class LocationEventQueue {
+
+    private static final String QUEUE_FOLDER_NAME = "location-disk-queue";
+    private static final String QUEUE_FILE_NAME = "location-event-queue-file";
+    private static final String PREFS_UPLOADED_EVENTS = "ifttt_location_uploaded_events";
+    private static final String PREF_KEY_UPLOADED_RECORD_IDS = "uploaded_record_ids";
+
+    private static LocationEventQueue INSTANCE;
+
+    private final SharedPreferences uploadedEvents;
+    private ObjectQueue<PendingLocationEvent> queue;
+
+    private LocationEventQueue(Context context) {
+        uploadedEvents = context.getSharedPreferences(PREFS_UPLOADED_EVENTS, Context.MODE_PRIVATE);
+        Moshi moshi = new Moshi.Builder().build();
+        try {
+            File folder = context.getDir(QUEUE_FOLDER_NAME, Context.MODE_PRIVATE);
+            queue = ObjectQueue.create(createQueueFile(folder), new PendingLocationEventConverter(moshi));
+        } catch (IOException e) {
+            Logger.error("Could not create location event queue file, using in-memory queue instead");
+            queue = ObjectQueue.createInMemory();
+        }
+
+        // Forget the uploaded events that are no longer in the queue, for example if it had to be recreated.
+        Set<String> uploadedRecordIds = uploadedRecordIds();
+        if (!uploadedRecordIds.isEmpty()) {
+            Set<String> queuedRecordIds = new HashSet<>();
+            for (PendingLocationEvent event : peek(queue.size())) {
+                queuedRecordIds.add(event.info.recordId);
+            }
+            uploadedRecordIds.retainAll(queuedRecordIds);
+            writeUploadedRecordIds(uploadedRecordIds);
+        }
+    }
+
+    static synchronized LocationEventQueue get(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new LocationEventQueue(context.getApplicationContext());
+        }
+
+        return INSTANCE;
+    }
+
+    /**
+     * Add an event to the end of the queue.
+     *
+     * @return the number of events in the queue after adding the event.
+     */
+    synchronized int add(PendingLocationEvent event) throws IOException {
+        queue.add(event);
+        return queue.size();
+    }
+
+    /**
+     * Read up to {@code max} events from the head of the queue without removing them.
+     */
+    synchronized List<PendingLocationEvent> peek(int max) {
+        try {
+            return queue.peek(max);
+        } catch (IOException e) {
+            Logger.error("Could not read from location event queue");
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Remove {@code n} events from the head of the queue, along with their uploaded marks.
+     */
+    synchronized void remove(int n) {
+        List<PendingLocationEvent> removed = peek(n);
+        try {
+            queue.remove(Math.min(n, queue.size()));
+        } catch (IOException e) {
+            Logger.error("Could not remove from location event queue");
+            return;
+        }
+
+        Set<String> uploadedRecordIds = uploadedRecordIds();
+        if (!uploadedRecordIds.isEmpty()) {
+            for (PendingLocationEvent event : removed) {
+                uploadedRecordIds.remove(event.info.recordId);
+            }
+            writeUploadedRecordIds(uploadedRecordIds);
+        }
+    }
+
+    /**
+     * Mark the events with the given record ids as uploaded, until they are removed from the queue.
+     */
+    synchronized void markUploaded(Collection<String> recordIds) {
+        Set<String> uploadedRecordIds = uploadedRecordIds();
+        uploadedRecordIds.addAll(recordIds);
+        writeUploadedRecordIds(uploadedRecordIds);
+    }
+
+    /**
+     * @return the record ids of the queued events that have been uploaded already, see {@link #markUploaded}.
+     */
+    synchronized Set<String> uploadedRecordIds() {
+        return new HashSet<>(uploadedEvents.getStringSet(PREF_KEY_UPLOADED_RECORD_IDS, Collections.emptySet()));
+    }
+
+    /**
+     * @return true if an event with the given record id is in the queue.
+     */
+    synchronized boolean contains(String recordId) {
+        for (PendingLocationEvent event : peek(queue.size())) {
+            if (event.info.recordId.equals(recordId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int size() {
+        return queue.size();
+    }
+
+    synchronized void clear() {
+        try {
+            queue.clear();
+        } catch (IOException e) {
+            Logger.error("Could not clear location event queue");
+        }
+        uploadedEvents.edit().clear().commit();
+    }
+
+    private void writeUploadedRecordIds(Set<String> uploadedRecordIds) {
+        // Written synchronously: the marks must be on disk before the uploaded events are acted upon.
+        uploadedEvents.edit().putStringSet(PREF_KEY_UPLOADED_RECORD_IDS, uploadedRecordIds).commit();
+    }
+
+    private static QueueFile createQueueFile(File folder) throws IOException {
+        if (!(folder.exists() || folder.mkdirs() || folder.isDirectory())) {
+            throw new IOException("Could not create directory at " + folder);
+        }
+
+        File file = new File(folder, QUEUE_FILE_NAME);
+        try {
+            return new QueueFile.Builder(file).build();
+        } catch (IOException e) {
+            if (file.delete()) {
+                return new QueueFile.Builder(file).build();
+            } else {
+                throw new IOException("Could not create queue file (" + QUEUE_FILE_NAME + ") in " + folder + ".");
+            }
+        }
+    }
+
+    /** Converter which uses Moshi to serialize instances of {@link PendingLocationEvent} to disk. */
+    private static final class PendingLocationEventConverter implements ObjectQueue.Converter<PendingLocationEvent> {
+
+        private final JsonAdapter<PendingLocationEvent> jsonAdapter;
+
+        PendingLocationEventConverter(Moshi moshi) {
+            this.jsonAdapter = moshi.adapter(PendingLocationEvent.class);
+        }
+
+        @Override
+        public PendingLocationEvent from(byte[] bytes) throws IOException {
+            return jsonAdapter.fromJson(new Buffer().write(bytes));
+        }
+
+        @Override
+        public void toStream(PendingLocationEvent value, OutputStream os) throws IOException {
+            try (BufferedSink sink = Okio.buffer(Okio.sink(os))) {
+                jsonAdapter.toJson(sink, value);
+            }
+        }
+    }
+}
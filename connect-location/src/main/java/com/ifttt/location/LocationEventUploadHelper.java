@@ -19,7 +19,7 @@ final class LocationEventUploadHelper {
 
     private static final String SHARED_PREFERENCES_CONNECT_LOCATION = "ifttt_connection_location";
     private static final String PREFERENCES_KEY_INSTALLATION_ID = "ifttt_connection_location.installation_id";
-    private static final String IFTTT_FENCE_KEY_PREFIX = "ifttt_";
+    static final String IFTTT_FENCE_KEY_PREFIX = "ifttt_";
 
     static String getInstallationId(Context context) {
         SharedPreferences preferences = context.getSharedPreferences(SHARED_PREFERENCES_CONNECT_LOCATION,
@@ -89,20 +89,11 @@ final class LocationEventUploadHelper {
         return id.concat("/exit");
     }
 
+    /**
+     * Returns the step id of a fence key. The key is parsed once and then looked up in {@link FenceKeyRegistry}.
+     */
     static String extractStepId(String fenceKey) {
-        String stepId;
-        if (fenceKey.startsWith(IFTTT_FENCE_KEY_PREFIX)) {
-            stepId = fenceKey.substring(6);
-        } else {
-            stepId = fenceKey;
-        }
-
-        int dividerIndex = stepId.indexOf("/");
-        if (dividerIndex < 0) {
-            return stepId;
-        }
-
-        return stepId.substring(0, dividerIndex);
+        return FenceKeyRegistry.stepId(FenceKeyRegistry.intern(fenceKey));
     }
 
     private LocationEventUploadHelper() {
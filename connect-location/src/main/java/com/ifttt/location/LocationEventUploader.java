@@ -3,31 +3,69 @@ package com.ifttt.location;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.work.Constraints;
 import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
-import com.ifttt.connect.api.ConnectionApiClient;
 import com.ifttt.location.LocationEventAttributes.LocationDataSource;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import retrofit2.Response;
 
 import static com.ifttt.location.LocationEventUploadHelper.getInstallationId;
 
 /**
- * WorkManager {@link Worker} class responsible for uploading geo-fence events.
+ * WorkManager {@link Worker} class responsible for uploading geo-fence events. Events are added to the
+ * {@link LocationEventQueue} when they are reported, and a single unique upload work drains the queue in batches of
+ * up to {@link #maxBatchSize} events.
+ *
+ * Each batch is removed from the queue as soon as it is acknowledged, so a failed upload only retries the remaining
+ * tail of the queue. Events are sent in the order they were reported, and the same geofence event is sent at most
+ * once per run, even if it was reported by both the Awareness API and {@link ConnectLocation#reportEvent}.
  */
 public final class LocationEventUploader extends Worker {
 
     private static final int MAX_RETRY = 3;
-    private static final String INPUT_DATA_EVENT_TYPE = "input_event_type";
-    private static final String INPUT_DATA_STEP_ID = "input_step_id";
-    private static final String INPUT_DATA_JOB_ID = "input_job_id";
-    private static final String INPUT_DATA_SCHEDULED_TIMESTAMP = "input_scheduled";
-    private static final String INPUT_DATA_LOCATION_DATA_SOURCE = "input_location_data_source";
+    private static final String WORK_ID_LOCATION_EVENT_UPLOAD = "location_event_upload";
+
+    /*
+     * Input data of the upload work enqueued by previous versions of the SDK, one work per event.
+     */
+    @VisibleForTesting static final String LEGACY_INPUT_DATA_EVENT_TYPE = "input_event_type";
+    @VisibleForTesting static final String LEGACY_INPUT_DATA_STEP_ID = "input_step_id";
+    @VisibleForTesting static final String LEGACY_INPUT_DATA_JOB_ID = "input_job_id";
+    @VisibleForTesting static final String LEGACY_INPUT_DATA_SCHEDULED_TIMESTAMP = "input_scheduled";
+    @VisibleForTesting static final String LEGACY_INPUT_DATA_LOCATION_DATA_SOURCE = "input_location_data_source";
+
+    static final int DEFAULT_MAX_BATCH_SIZE = 20;
+    static final long DEFAULT_MAX_LATENCY_MILLIS = 5000L;
+
+    /**
+     * Maximum number of events sent in a single upload request.
+     */
+    static volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /**
+     * Maximum time an event waits in the {@link LocationEventQueue} before the upload starts, events reported within
+     * this window are uploaded together.
+     */
+    static volatile long maxLatencyMillis = DEFAULT_MAX_LATENCY_MILLIS;
+
+    /**
+     * True if an upload has been enqueued in this process and hasn't started peeking the queue yet, so that it will
+     * upload any event added in the meantime.
+     */
+    @VisibleForTesting static final AtomicBoolean uploadEnqueued = new AtomicBoolean();
 
     /**
      * Enum type representing the type of a geofence event, whether it is entering or exiting.
@@ -45,95 +83,211 @@ public final class LocationEventUploader extends Worker {
     @NonNull
     @Override
     public Result doWork() {
-        ConnectLocation location = ConnectLocation.getInstance();
+        if (getInputData().getString(LEGACY_INPUT_DATA_STEP_ID) != null) {
+            return queueLegacyEvent(getInputData());
+        }
 
-        String stepId = getInputData().getString(INPUT_DATA_STEP_ID);
-        String jobId = getInputData().getString(INPUT_DATA_JOB_ID);
-        String eventTypeString = getInputData().getString(INPUT_DATA_EVENT_TYPE);
-        String sourceString = getInputData().getString(INPUT_DATA_LOCATION_DATA_SOURCE);
-        if (eventTypeString == null || stepId == null || sourceString == null) {
-            LocationEventHelper.logEventUploadFailed(location,
-                null,
-                null,
-                jobId,
-                LocationEventAttributes.ErrorType.Sdk,
-                "null eventType"
-            );
-            return Result.failure();
+        // From here on, events added to the queue need another upload, see enqueueUpload.
+        uploadEnqueued.set(false);
+
+        if (!ConnectLocation.isInitialized()) {
+            ConnectLocation.init(getApplicationContext());
         }
 
-        LocationDataSource source = LocationDataSource.valueOf(sourceString);
-        EventType eventType = EventType.valueOf(eventTypeString);
+        ConnectLocation location = ConnectLocation.getInstance();
+        LocationEventQueue queue = LocationEventQueue.get(getApplicationContext());
+        RetrofitLocationApi api = location.locationApi();
 
-        try {
-            LocationInfo info;
-            switch (eventType) {
-                case Entry:
-                    info = LocationInfo.entry(stepId, getInstallationId(getApplicationContext()));
-                    break;
-                case Exit:
-                    info = LocationInfo.exit(stepId, getInstallationId(getApplicationContext()));
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported type: " + eventType);
+        Set<String> uploadedRecordIds = queue.uploadedRecordIds();
+        boolean uploaded = false;
+        List<PendingLocationEvent> batch = queue.peek(maxBatchSize);
+        while (!batch.isEmpty() && !isStopped()) {
+            List<LocationInfo> infos = prepareBatch(batch, uploadedRecordIds);
+            if (infos.isEmpty()) {
+                // The whole batch has been uploaded already, drop it and continue.
+                int size = queue.size();
+                queue.remove(batch.size());
+                if (queue.size() == size) {
+                    Logger.error("Geo-fence events were uploaded but not removed from the queue");
+                    return Result.retry();
+                }
+
+                batch = queue.peek(maxBatchSize);
+                continue;
             }
 
-            long scheduledTimestamp = getInputData().getLong(INPUT_DATA_SCHEDULED_TIMESTAMP, -1);
-            LocationEventHelper.logEventUploadAttempted(location, eventType, source, jobId, scheduledTimestamp);
-
-            long attemptTimestamp = System.currentTimeMillis();
-            ConnectionApiClient client = location.connectionApiClient;
-            Response<Void> uploadResponse
-                = new RetrofitLocationApi.Client(client.interceptor()).api.upload(Collections.singletonList(info))
-                .execute();
-            int code = uploadResponse.code();
-            if (!uploadResponse.isSuccessful()) {
-                Logger.error("Geo-fence event upload failed with status code: " + code);
-                if (code == 401) {
-                    LocationEventHelper.logEventUploadFailed(location,
-                        eventType,
-                        source,
-                        jobId,
-                        LocationEventAttributes.ErrorType.Network,
-                        "401"
-                    );
+            for (PendingLocationEvent event : batch) {
+                LocationEventHelper.logEventUploadAttempted(location,
+                    event.eventType(),
+                    event.source,
+                    event.info.recordId,
+                    event.scheduledAt
+                );
+            }
+
+            try {
+                long attemptTimestamp = System.currentTimeMillis();
+                Response<Void> uploadResponse = api.upload(infos).execute();
+                int code = uploadResponse.code();
+                if (!uploadResponse.isSuccessful()) {
+                    Logger.error("Geo-fence event upload failed with status code: " + code);
+                    if (code == 401) {
+                        logUploadFailed(location, batch, "401");
+
+                        // The token is invalid, unregister all geo-fences, clear token and event caches and return.
+                        location.deactivate(getApplicationContext(), null);
+                        new SharedPreferenceUserTokenCache(getApplicationContext()).clear();
+                        queue.clear();
+                        return Result.failure();
+                    }
 
-                    // The token is invalid, unregister all geo-fences, clear token cache and return.
-                    location.deactivate(getApplicationContext(), null);
-                    new SharedPreferenceUserTokenCache(getApplicationContext()).clear();
-                    return Result.failure();
+                    if (isRejected(code)) {
+                        // Retrying the same batch won't succeed, drop it and continue with the rest of the queue.
+                        logUploadFailed(location, batch, String.valueOf(code));
+                        queue.remove(batch.size());
+                        batch = queue.peek(maxBatchSize);
+                        continue;
+                    }
+
+                    return failureResult(location, queue, batch, !uploaded, String.valueOf(code));
                 }
 
-                return failureResult(location, eventType, source, jobId, String.valueOf(code));
+                Logger.log("Geo-fence event upload successful, events: " + infos.size());
+                uploaded = true;
+                List<String> recordIds = new ArrayList<>(infos.size());
+                for (LocationInfo info : infos) {
+                    recordIds.add(info.recordId);
+                }
+                uploadedRecordIds.addAll(recordIds);
+                queue.markUploaded(recordIds);
+                queue.remove(batch.size());
+                for (PendingLocationEvent event : batch) {
+                    LocationEventHelper.logEventUploadSuccessful(location,
+                        event.eventType(),
+                        event.source,
+                        event.info.recordId,
+                        attemptTimestamp
+                    );
+                }
+            } catch (IOException e) {
+                Logger.error("Geo-fence event upload failed with an IOException");
+                return failureResult(location, queue, batch, !uploaded, e.getMessage());
             }
-            Logger.log("Geo-fence event upload successful");
-            LocationEventHelper.logEventUploadSuccessful(location, eventType, source, jobId, attemptTimestamp);
 
-            return Result.success();
-        } catch (IOException e) {
-            Logger.error("Geo-fence event upload failed with an IOException");
-            return failureResult(location, eventType, source, jobId, e.getMessage());
+            batch = queue.peek(maxBatchSize);
+        }
+
+        return Result.success();
+    }
+
+    /**
+     * Work enqueued by a previous version of the SDK carries a single event in its input data, and may still run
+     * after the SDK is updated. Add its event to the {@link LocationEventQueue}, and let the unique upload work upload
+     * it, so that the queue is never drained by two workers at the same time.
+     *
+     * The job id of the work is used as the record id of the event, so that retries of the work don't queue the event
+     * again.
+     */
+    private Result queueLegacyEvent(Data input) {
+        String stepId = input.getString(LEGACY_INPUT_DATA_STEP_ID);
+        String eventTypeString = input.getString(LEGACY_INPUT_DATA_EVENT_TYPE);
+        String sourceString = input.getString(LEGACY_INPUT_DATA_LOCATION_DATA_SOURCE);
+        EventType eventType;
+        LocationDataSource source;
+        try {
+            eventType = EventType.valueOf(eventTypeString);
+            source = LocationDataSource.valueOf(sourceString);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            Logger.error("Dropping geo-fence event with invalid type: "
+                + eventTypeString
+                + ", source: "
+                + sourceString);
+            return Result.failure();
+        }
+
+        String recordId = input.getString(LEGACY_INPUT_DATA_JOB_ID);
+        if (recordId == null) {
+            recordId = getId().toString();
         }
+        long scheduledAt = input.getLong(LEGACY_INPUT_DATA_SCHEDULED_TIMESTAMP, -1L);
+        if (scheduledAt < 0L) {
+            scheduledAt = System.currentTimeMillis();
+        }
+
+        Context context = getApplicationContext();
+        LocationEventQueue queue = LocationEventQueue.get(context);
+        if (!queue.contains(recordId)) {
+            LocationInfo info = LocationInfo.create(eventType,
+                stepId,
+                recordId,
+                scheduledAt,
+                getInstallationId(context)
+            );
+            try {
+                queue.add(new PendingLocationEvent(info, source, scheduledAt));
+            } catch (IOException e) {
+                Logger.error("Could not add geo-fence event to the upload queue");
+                return Result.retry();
+            }
+        }
+
+        enqueueUpload(context, 0L);
+        return Result.success();
+    }
+
+    /**
+     * Prepare the request body for a batch of queued events. The queue keeps the events in the order they were
+     * reported, which is the order they are sent in. Events whose record id has already been uploaded, or appears
+     * earlier in the batch, are left out. The record id is assigned when the event is queued, so it identifies the
+     * event across retries.
+     */
+    static List<LocationInfo> prepareBatch(List<PendingLocationEvent> batch, Set<String> uploadedRecordIds) {
+        Set<String> recordIds = new HashSet<>(uploadedRecordIds);
+        List<LocationInfo> infos = new ArrayList<>(batch.size());
+        for (PendingLocationEvent event : batch) {
+            if (recordIds.add(event.info.recordId)) {
+                infos.add(event.info);
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * @return true if the server rejected the batch itself, as opposed to a failure that may succeed on retry.
+     */
+    private static boolean isRejected(int code) {
+        return code >= 400 && code < 500 && code != 408 && code != 429;
     }
 
     private Result failureResult(
         ConnectLocation connectLocation,
-        EventType eventType,
-        LocationDataSource source,
-        @Nullable String jobId,
+        LocationEventQueue queue,
+        List<PendingLocationEvent> batch,
+        boolean noProgress,
         @Nullable String error
     ) {
-        if (getRunAttemptCount() > MAX_RETRY) {
+        // Runs that uploaded at least one batch don't count towards the retry limit.
+        if (noProgress && getRunAttemptCount() > MAX_RETRY) {
+            // Drop the failing batch, so that the rest of the queue can be uploaded in the next run.
+            logUploadFailed(connectLocation, batch, error);
+            queue.remove(batch.size());
+            return Result.failure();
+        } else {
+            return Result.retry();
+        }
+    }
+
+    private static void logUploadFailed(
+        ConnectLocation connectLocation, List<PendingLocationEvent> batch, @Nullable String error
+    ) {
+        for (PendingLocationEvent event : batch) {
             LocationEventHelper.logEventUploadFailed(connectLocation,
-                eventType,
-                source,
-                jobId,
+                event.eventType(),
+                event.source,
+                event.info.recordId,
                 LocationEventAttributes.ErrorType.Network,
                 error
             );
-            return Result.failure();
-        } else {
-            return Result.retry();
         }
     }
 
@@ -142,19 +296,59 @@ public final class LocationEventUploader extends Worker {
     ) {
         Logger.log("Scheduling geo-fence event upload");
 
-        String jobId = UUID.randomUUID().toString();
-        WorkManager workManager = WorkManager.getInstance(context);
-        Data input = new Data.Builder().putString(INPUT_DATA_STEP_ID, stepId)
-            .putString(INPUT_DATA_EVENT_TYPE,
-                eventType.name()
-            )
-            .putString(INPUT_DATA_JOB_ID, jobId)
-            .putLong(INPUT_DATA_SCHEDULED_TIMESTAMP, System.currentTimeMillis())
-            .putString(
-                INPUT_DATA_LOCATION_DATA_SOURCE,
-                source.name()
-            )
-            .build();
-        workManager.enqueue(new OneTimeWorkRequest.Builder(LocationEventUploader.class).setInputData(input).build());
+        String installationId = getInstallationId(context);
+        LocationInfo info;
+        switch (eventType) {
+            case Entry:
+                info = LocationInfo.entry(stepId, installationId);
+                break;
+            case Exit:
+                info = LocationInfo.exit(stepId, installationId);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported type: " + eventType);
+        }
+
+        try {
+            LocationEventQueue.get(context).add(new PendingLocationEvent(info, source, System.currentTimeMillis()));
+        } catch (IOException e) {
+            Logger.error("Could not add geo-fence event to the upload queue");
+            if (ConnectLocation.isInitialized()) {
+                LocationEventHelper.logEventUploadFailed(ConnectLocation.getInstance(),
+                    eventType,
+                    source,
+                    info.recordId,
+                    LocationEventAttributes.ErrorType.Sdk,
+                    e.getMessage()
+                );
+            }
+            return;
+        }
+
+        enqueueUpload(context, maxLatencyMillis);
+    }
+
+    /**
+     * Schedule an upload for the events remaining in the {@link LocationEventQueue}, if there is any.
+     */
+    static void uploadPending(Context context) {
+        if (LocationEventQueue.get(context).size() > 0) {
+            enqueueUpload(context, 0L);
+        }
+    }
+
+    private static void enqueueUpload(Context context, long delayMillis) {
+        // Keep the existing upload work if it hasn't started yet, the events will be uploaded together. Otherwise the
+        // existing work may be running and past its last peek of the queue, so append a new upload after it. Appending
+        // after failed or finished work replaces it.
+        ExistingWorkPolicy policy = uploadEnqueued.getAndSet(true)
+            ? ExistingWorkPolicy.KEEP
+            : ExistingWorkPolicy.APPEND_OR_REPLACE;
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_ID_LOCATION_EVENT_UPLOAD,
+            policy,
+            new OneTimeWorkRequest.Builder(LocationEventUploader.class).setInitialDelay(delayMillis,
+                TimeUnit.MILLISECONDS
+            ).setConstraints(new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build()).build()
+        );
     }
 }
@@ -8,39 +8,72 @@ import java.util.UUID;
 
 final class LocationInfo {
 
+    static final String EVENT_TYPE_ENTRY = "entry";
+    static final String EVENT_TYPE_EXIT = "exit";
+
     private static final DateFormat LOCATION_EVENT_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX",
         Locale.US
     );
 
     @Json(name = "channel_id") final String channelId = "941030000";
     @Json(name = "trigger_subscription_id") final String triggerSubscriptionId;
-    @Json(name = "record_id") final String recordId = UUID.randomUUID().toString();
+    @Json(name = "record_id") final String recordId;
     @Json(name = "occurred_at") final String occurredAt;
     @Json(name = "event_type") final String eventType;
     @Json(name = "region_type") final String regionType = "geo";
     @Json(name = "installation_id") final String installationId;
 
     private LocationInfo(
-        String triggerSubscriptionId, String occurredAt, String eventType, String installationId
+        String triggerSubscriptionId, String recordId, String occurredAt, String eventType, String installationId
     ) {
         this.triggerSubscriptionId = triggerSubscriptionId;
+        this.recordId = recordId;
         this.occurredAt = occurredAt;
         this.eventType = eventType;
         this.installationId = installationId;
     }
 
+    /**
+     * {@link DateFormat} is not thread-safe, and events can be reported from multiple threads.
+     */
+    private static String formatTimestamp(long timestamp) {
+        synchronized (LOCATION_EVENT_DATE_FORMAT) {
+            return LOCATION_EVENT_DATE_FORMAT.format(timestamp);
+        }
+    }
+
     static LocationInfo entry(String triggerSubscriptionId, String installationId) {
-        return new LocationInfo(triggerSubscriptionId,
-            LOCATION_EVENT_DATE_FORMAT.format(System.currentTimeMillis()),
-            "entry",
+        return create(LocationEventUploader.EventType.Entry,
+            triggerSubscriptionId,
+            UUID.randomUUID().toString(),
+            System.currentTimeMillis(),
             installationId
         );
     }
 
     static LocationInfo exit(String triggerSubscriptionId, String installationId) {
+        return create(LocationEventUploader.EventType.Exit,
+            triggerSubscriptionId,
+            UUID.randomUUID().toString(),
+            System.currentTimeMillis(),
+            installationId
+        );
+    }
+
+    /**
+     * @return an event with an existing record id, that occurred at the given time.
+     */
+    static LocationInfo create(
+        LocationEventUploader.EventType eventType,
+        String triggerSubscriptionId,
+        String recordId,
+        long occurredAt,
+        String installationId
+    ) {
         return new LocationInfo(triggerSubscriptionId,
-            LOCATION_EVENT_DATE_FORMAT.format(System.currentTimeMillis()),
-            "exit",
+            recordId,
+            formatTimestamp(occurredAt),
+            eventType == LocationEventUploader.EventType.Entry ? EVENT_TYPE_ENTRY : EVENT_TYPE_EXIT,
             installationId
         );
     }
@@ -0,0 +1,27 @@
+package com.ifttt.location;
+
+import com.ifttt.location.LocationEventAttributes.LocationDataSource;
+import com.squareup.moshi.Json;
+
+/**
+ * A {@link LocationInfo} waiting in the {@link LocationEventQueue} to be uploaded, along with the metadata used for
+ * reporting its upload status to {@link LocationEventListener}.
+ */
+final class PendingLocationEvent {
+
+    @Json(name = "info") final LocationInfo info;
+    @Json(name = "source") final LocationDataSource source;
+    @Json(name = "scheduled_at") final long scheduledAt;
+
+    PendingLocationEvent(LocationInfo info, LocationDataSource source, long scheduledAt) {
+        this.info = info;
+        this.source = source;
+        this.scheduledAt = scheduledAt;
+    }
+
+    LocationEventUploader.EventType eventType() {
+        return LocationInfo.EVENT_TYPE_ENTRY.equals(info.eventType)
+            ? LocationEventUploader.EventType.Entry
+            : LocationEventUploader.EventType.Exit;
+    }
+}
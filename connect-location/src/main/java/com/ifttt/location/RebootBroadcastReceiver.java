@@ -16,6 +16,8 @@ public final class RebootBroadcastReceiver extends BroadcastReceiver {
             return;
         }
 
+        // Fences are not kept across reboots, so the next update must register them again.
+        new AppliedFenceCache(context).clear();
         ConnectionRefresher.executeIfExists(context);
     }
 }
@@ -1,5 +1,7 @@
 package com.ifttt.location;
 
+import com.ifttt.connect.api.GzipRequestInterceptor;
+import com.ifttt.connect.api.SdkHttpClient;
 import java.util.List;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
@@ -18,7 +20,11 @@ interface RetrofitLocationApi {
         final RetrofitLocationApi api;
 
         Client(Interceptor tokenInterceptor) {
-            OkHttpClient client = new OkHttpClient.Builder().addInterceptor(tokenInterceptor).build();
+            OkHttpClient client = SdkHttpClient.get()
+                .newBuilder()
+                .addInterceptor(tokenInterceptor)
+                .addInterceptor(GzipRequestInterceptor.get())
+                .build();
             Retrofit retrofit = new Retrofit.Builder().client(client)
                 .baseUrl("https://connectapi.ifttt.com")
                 .addConverterFactory(MoshiConverterFactory.create())
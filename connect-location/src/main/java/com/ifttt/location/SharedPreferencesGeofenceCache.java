@@ -14,23 +14,18 @@ final class SharedPreferencesGeofenceCache implements Cache<Map<String, Monitore
 
     private static final String PREFS_GEOFENCE_MONITOR = "ifttt_geofence_monitor";
     private static final String PREF_KEY_MONITORED_GEOFENCES = "monitored_geofences";
-    private static final Moshi MOSHI_INSTANCE = new Moshi.Builder().build();
+    private static final JsonAdapter<Map<String, MonitoredGeofence>> JSON_ADAPTER = new Moshi.Builder().build()
+        .adapter(Types.newParameterizedType(Map.class, String.class, MonitoredGeofence.class));
 
     private final SharedPreferences sharedPreferences;
-    private final JsonAdapter<Map<String, MonitoredGeofence>> jsonAdapter;
 
     SharedPreferencesGeofenceCache(Context context) {
-        jsonAdapter = MOSHI_INSTANCE.adapter(Types.newParameterizedType(
-            Map.class,
-            String.class,
-            MonitoredGeofence.class
-        ));
         sharedPreferences = context.getSharedPreferences(PREFS_GEOFENCE_MONITOR, Context.MODE_PRIVATE);
     }
 
     @Override
     public void write(Map<String, MonitoredGeofence> data) {
-        String geofencesString = jsonAdapter.toJson(data);
+        String geofencesString = JSON_ADAPTER.toJson(data);
         sharedPreferences.edit().putString(PREF_KEY_MONITORED_GEOFENCES, geofencesString).apply();
     }
 
@@ -42,7 +37,7 @@ final class SharedPreferencesGeofenceCache implements Cache<Map<String, Monitore
         }
 
         try {
-            return jsonAdapter.fromJson(monitoredGeofencesString);
+            return JSON_ADAPTER.fromJson(monitoredGeofencesString);
         } catch (IOException e) {
             return Collections.emptyMap();
         }
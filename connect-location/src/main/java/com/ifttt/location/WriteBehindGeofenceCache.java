@@ -0,0 +1,149 @@
+package com.ifttt.location;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide {@link Cache} for the monitored geofences, which keeps the geofence map in memory and persists it to a
+ * delegate {@link Cache} asynchronously.
+ *
+ * {@link #read()} returns the in-memory map itself. A single geofence is updated with
+ * {@link #put(String, MonitoredGeofence)}, which holds the same lock as the flush, so the map is never modified while it
+ * is being persisted. Writes are coalesced into a single delayed flush to the delegate, so updating one geofence does
+ * not re-serialize the whole map every time.
+ *
+ * Changes made from a BroadcastReceiver must use {@link #putAndFlush(String, MonitoredGeofence)} instead: the process
+ * may be killed as soon as the receiver returns, before a delayed flush runs.
+ */
+final class WriteBehindGeofenceCache implements Cache<Map<String, MonitoredGeofence>> {
+
+    /**
+     * Delay before the in-memory map is persisted after a write. Additional writes within the window are included in
+     * the same flush.
+     */
+    private static final long FLUSH_DELAY_MILLIS = 500L;
+
+    private static WriteBehindGeofenceCache INSTANCE;
+
+    private final Cache<Map<String, MonitoredGeofence>> delegate;
+    private final ScheduledExecutorService executor;
+
+    @Nullable private LinkedHashMap<String, MonitoredGeofence> geofences;
+    @Nullable private ScheduledFuture<?> pendingFlush;
+
+    /**
+     * Incremented whenever a geofence is added, removed or moved. State changes of the existing geofences keep the
+     * version, so that data derived from the geofence locations only needs to be rebuilt when the version changes.
+     */
+    private int version;
+
+    static synchronized WriteBehindGeofenceCache get(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new WriteBehindGeofenceCache(
+                new SharedPreferencesGeofenceCache(context.getApplicationContext()),
+                Executors.newSingleThreadScheduledExecutor()
+            );
+        }
+
+        return INSTANCE;
+    }
+
+    @VisibleForTesting
+    WriteBehindGeofenceCache(Cache<Map<String, MonitoredGeofence>> delegate, ScheduledExecutorService executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void write(Map<String, MonitoredGeofence> data) {
+        if (data != geofences) {
+            geofences = new LinkedHashMap<>(data);
+            version++;
+        }
+
+        if (pendingFlush == null) {
+            pendingFlush = executor.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Update a single geofence in the in-memory map, and schedule a flush.
+     */
+    synchronized void put(String fenceKey, MonitoredGeofence geofence) {
+        replace(fenceKey, geofence);
+        write(geofences);
+    }
+
+    /**
+     * Update a single geofence in the in-memory map, and persist the map right away. The delegate writes with
+     * SharedPreferences#apply(), which the system waits for before a BroadcastReceiver is considered finished.
+     */
+    synchronized void putAndFlush(String fenceKey, MonitoredGeofence geofence) {
+        replace(fenceKey, geofence);
+        flush();
+    }
+
+    /**
+     * @return the version of the geofence set, which changes whenever a geofence is added, removed, or its location
+     * changes. Reads in between calls returning the same version have the same geofence locations.
+     */
+    synchronized int version() {
+        read();
+        return version;
+    }
+
+    /**
+     * @return the in-memory geofence map. Use {@link #put(String, MonitoredGeofence)} to update a single geofence.
+     */
+    @Override
+    public synchronized Map<String, MonitoredGeofence> read() {
+        if (geofences == null) {
+            geofences = new LinkedHashMap<>(delegate.read());
+            version++;
+        }
+
+        return geofences;
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+
+        geofences = new LinkedHashMap<>();
+        version++;
+        delegate.clear();
+    }
+
+    private void replace(String fenceKey, MonitoredGeofence geofence) {
+        MonitoredGeofence previous = read().put(fenceKey, geofence);
+        if (previous == null || previous.value != geofence.value) {
+            version++;
+        }
+    }
+
+    /**
+     * Persist the in-memory geofence map to the delegate immediately.
+     */
+    @VisibleForTesting
+    synchronized void flush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+
+        if (geofences != null) {
+            delegate.write(geofences);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import com.google.android.gms.awareness.fence.AwarenessFence;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.ifttt.connect.api.Connection;
 import com.ifttt.connect.api.Feature;
@@ -22,6 +23,7 @@ import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -264,4 +266,100 @@ public final class AwarenessGeofenceProviderTest {
             }
         );
     }
+
+    @Test
+    public void shouldSkipUnchangedGeofences() {
+        Map<String, String> applied = AwarenessGeofenceProvider.fenceFingerprint(Connection.Status.enabled,
+            ImmutableList.of(feature)
+        );
+        assertThat(applied).containsExactly("ifttt_step_id", "enter:1.0,1.0,100.0");
+
+        AwarenessGeofenceProvider.diffFences(Connection.Status.enabled,
+            ImmutableList.of(feature),
+            ImmutableSet.of("ifttt_step_id"),
+            applied,
+            enter,
+            exit,
+            new AwarenessGeofenceProvider.DiffCallback() {
+                @Override
+                public void onAddFence(
+                    String key,
+                    AwarenessFence fence,
+                    PendingIntent pendingIntent
+                ) {
+                    fail();
+                }
+
+                @Override
+                public void onRemoveFence(String key) {
+                    fail();
+                }
+            }
+        );
+    }
+
+    @Test
+    public void shouldReplaceChangedGeofences() {
+        AtomicReference<String> ref = new AtomicReference<>();
+        AwarenessGeofenceProvider.diffFences(Connection.Status.enabled,
+            ImmutableList.of(feature),
+            ImmutableSet.of("ifttt_step_id"),
+            ImmutableMap.of("ifttt_step_id", "enter:2.0,2.0,100.0"),
+            enter,
+            exit,
+            new AwarenessGeofenceProvider.DiffCallback() {
+                @Override
+                public void onAddFence(
+                    String key,
+                    AwarenessFence fence,
+                    PendingIntent pendingIntent
+                ) {
+                    ref.set(key);
+                }
+
+                @Override
+                public void onRemoveFence(String key) {
+                    fail();
+                }
+            }
+        );
+
+        assertThat(ref.get()).isEqualTo("ifttt_step_id");
+    }
+
+    @Test
+    public void shouldReAddAppliedGeofencesMissingFromRegistry() {
+        AtomicReference<String> ref = new AtomicReference<>();
+        AwarenessGeofenceProvider.diffFences(Connection.Status.enabled,
+            ImmutableList.of(feature),
+            ImmutableSet.of(),
+            ImmutableMap.of("ifttt_step_id", "enter:1.0,1.0,100.0"),
+            enter,
+            exit,
+            new AwarenessGeofenceProvider.DiffCallback() {
+                @Override
+                public void onAddFence(
+                    String key,
+                    AwarenessFence fence,
+                    PendingIntent pendingIntent
+                ) {
+                    ref.set(key);
+                }
+
+                @Override
+                public void onRemoveFence(String key) {
+                    fail();
+                }
+            }
+        );
+
+        assertThat(ref.get()).isEqualTo("ifttt_step_id");
+    }
+
+    @Test
+    public void shouldHaveEmptyFingerprintWhenConnectionDisabled() {
+        assertThat(AwarenessGeofenceProvider.fenceFingerprint(Connection.Status.disabled,
+            ImmutableList.of(feature)
+        )).isEmpty();
+    }
 }
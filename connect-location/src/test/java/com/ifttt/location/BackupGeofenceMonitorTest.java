@@ -14,9 +14,12 @@ import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 import com.squareup.moshi.Types;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -44,6 +47,7 @@ public final class BackupGeofenceMonitorTest {
 
     @Before
     public void setUp() {
+        BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext()).clear();
         preferences = ApplicationProvider.getApplicationContext().getSharedPreferences(
             PREFS_GEOFENCE_MONITOR,
             Context.MODE_PRIVATE
@@ -55,6 +59,11 @@ public final class BackupGeofenceMonitorTest {
         ));
     }
 
+    @After
+    public void tearDown() {
+        BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext()).setReportEventFiltering(0D, 0L);
+    }
+
     @Test
     public void cacheShouldRegisterEntry() throws IOException {
         BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
@@ -145,8 +154,8 @@ public final class BackupGeofenceMonitorTest {
         );
         monitor.updateMonitoredGeofences(ImmutableList.of(feature1, feature2));
 
-        monitor.setState("ifttt_id_1", Exited);
-        monitor.setState("ifttt_id_2", Exited);
+        monitor.setState(fence("ifttt_id_1"), Exited);
+        monitor.setState(fence("ifttt_id_2"), Exited);
 
         monitor.updateMonitoredGeofences(ImmutableList.of(feature1, feature2));
 
@@ -156,6 +165,47 @@ public final class BackupGeofenceMonitorTest {
         assertThat(cache.get("ifttt_id_2").state).isEqualTo(Exited);
     }
 
+    @Test
+    public void cacheShouldMaintainExistingBoth() throws IOException {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_ENTER_EXIT, "id");
+
+        monitor.setState(fence("ifttt_id/enter"), Entered);
+        monitor.setState(fence("ifttt_id/exit"), Entered);
+
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_ENTER_EXIT, "id");
+
+        Map<String, BackupGeofenceMonitor.MonitoredGeofence> cache = cache();
+        assertThat(cache).hasSize(2);
+        assertThat(cache.get("ifttt_id/enter").state).isEqualTo(Entered);
+        assertThat(cache.get("ifttt_id/enter").type).isEqualTo(Entry);
+        assertThat(cache.get("ifttt_id/exit").state).isEqualTo(Entered);
+        assertThat(cache.get("ifttt_id/exit").type).isEqualTo(Exit);
+    }
+
+    @Test
+    public void refreshShouldKeepEnterExitGeofencesSeparate() throws IOException {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_ENTER_EXIT, "id");
+        monitor.setState(fence("ifttt_id/enter"), Exited);
+        monitor.setState(fence("ifttt_id/exit"), Entered);
+
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_ENTER_EXIT, "id");
+
+        // Neither state is stored under the key of the step.
+        assertThat(cache()).doesNotContainKey("ifttt_id");
+
+        // Both geofences still report their own event after the refresh.
+        RecordingListener listener = new RecordingListener();
+        monitor.checkMonitoredGeofences(0.0, 0.0, listener);
+        assertThat(listener.events).containsExactly("ifttt_id/enter:Entry");
+        monitor.checkMonitoredGeofences(0.5, 0.5, listener);
+        assertThat(listener.events).containsExactly("ifttt_id/enter:Entry",
+            "ifttt_id/enter:skipped",
+            "ifttt_id/exit:Exit"
+        ).inOrder();
+    }
+
     @Test
     public void cacheShouldNotClearWithEmptyMap() throws IOException {
         BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
@@ -181,15 +231,15 @@ public final class BackupGeofenceMonitorTest {
         updateMonitorCache(monitor, FIELD_TYPE_LOCATION_EXIT, "id");
 
         AtomicReference<String> keyRef = new AtomicReference<>();
-        monitor.checkMonitoredGeofences(0.5, 0.5, new OnEventUploadListener() {
+        monitor.checkMonitoredGeofences(0.5, 0.5, new BackupGeofenceMonitor.TransitionListener() {
             @Override
-            public void onUploadEvent(String fenceKey, LocationEventUploader.EventType eventType) {
+            public void onTransition(int fenceId, LocationEventUploader.EventType eventType) {
                 fail();
             }
 
             @Override
-            public void onUploadSkipped(String fenceKey, String reason) {
-                keyRef.set(fenceKey);
+            public void onTransitionSkipped(int fenceId, String reason) {
+                keyRef.set(FenceKeyRegistry.fenceKey(fenceId));
             }
         });
 
@@ -202,19 +252,19 @@ public final class BackupGeofenceMonitorTest {
         updateMonitorCache(monitor, FIELD_TYPE_LOCATION_EXIT, "id");
 
         String fenceKey = "ifttt_id";
-        monitor.setState(fenceKey, Entered);
+        monitor.setState(fence(fenceKey), Entered);
 
         AtomicReference<LocationEventUploader.EventType> typeRef = new AtomicReference<>();
         AtomicReference<String> keyRef = new AtomicReference<>();
-        monitor.checkMonitoredGeofences(0.5, 0.5, new OnEventUploadListener() {
+        monitor.checkMonitoredGeofences(0.5, 0.5, new BackupGeofenceMonitor.TransitionListener() {
             @Override
-            public void onUploadEvent(String fenceKey, LocationEventUploader.EventType eventType) {
-                keyRef.set(fenceKey);
+            public void onTransition(int fenceId, LocationEventUploader.EventType eventType) {
+                keyRef.set(FenceKeyRegistry.fenceKey(fenceId));
                 typeRef.set(eventType);
             }
 
             @Override
-            public void onUploadSkipped(String fenceKey, String reason) {
+            public void onTransitionSkipped(int fenceId, String reason) {
                 fail();
             }
         });
@@ -229,20 +279,20 @@ public final class BackupGeofenceMonitorTest {
         updateMonitorCache(monitor, FIELD_TYPE_LOCATION_EXIT, "id");
 
         String fenceKey = "ifttt_id";
-        monitor.setState(fenceKey, Exited);
+        monitor.setState(fence(fenceKey), Exited);
 
         AtomicReference<LocationEventUploader.EventType> typeRef = new AtomicReference<>();
         AtomicReference<String> keyRef = new AtomicReference<>();
 
-        monitor.checkMonitoredGeofences(0.5, 0.5, new OnEventUploadListener() {
+        monitor.checkMonitoredGeofences(0.5, 0.5, new BackupGeofenceMonitor.TransitionListener() {
             @Override
-            public void onUploadEvent(String fenceKey, LocationEventUploader.EventType eventType) {
-                keyRef.set(fenceKey);
+            public void onTransition(int fenceId, LocationEventUploader.EventType eventType) {
+                keyRef.set(FenceKeyRegistry.fenceKey(fenceId));
                 typeRef.set(eventType);
             }
 
             @Override
-            public void onUploadSkipped(String fenceKey, String reason) {
+            public void onTransitionSkipped(int fenceId, String reason) {
                 fail();
             }
         });
@@ -251,6 +301,135 @@ public final class BackupGeofenceMonitorTest {
         assertThat(typeRef.get()).isNull();
     }
 
+    @Test
+    public void getShouldReturnSingleInstance() {
+        assertThat(BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext())).isSameInstanceAs(
+            BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext()));
+    }
+
+    @Test
+    public void transitionStateShouldOnlySucceedOnce() throws IOException {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_ENTER, "id");
+
+        assertThat(monitor.transitionState(fence("ifttt_id"), Entered)).isTrue();
+        assertThat(monitor.transitionState(fence("ifttt_id"), Entered)).isFalse();
+        assertThat(cache().get("ifttt_id").state).isEqualTo(Entered);
+
+        // Unknown fences are not tracked by the monitor.
+        assertThat(monitor.transitionState(fence("ifttt_unknown"), Entered)).isTrue();
+    }
+
+    @Test
+    public void checkMonitoredGeofencesShouldSkipNearbyLocations() {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_EXIT, "id");
+        monitor.setState(fence("ifttt_id"), Exited);
+
+        RecordingListener listener = new RecordingListener();
+        monitor.checkMonitoredGeofences(0.015, 0.005, listener);
+        assertThat(listener.events).isEmpty();
+
+        // Change the state behind the monitor: a location that is checked again reports an exit.
+        WriteBehindGeofenceCache cache = WriteBehindGeofenceCache.get(ApplicationProvider.getApplicationContext());
+        cache.put("ifttt_id",
+            new BackupGeofenceMonitor.MonitoredGeofence(Exit, Entered, cache.read().get("ifttt_id").value)
+        );
+
+        // About 11 meters from the last check, the fence boundary is more than a kilometer away.
+        monitor.checkMonitoredGeofences(0.0151, 0.005, listener);
+        assertThat(listener.events).isEmpty();
+
+        monitor.checkMonitoredGeofences(0.05, 0.05, listener);
+        assertThat(listener.events).containsExactly("ifttt_id:Exit");
+    }
+
+    @Test
+    public void checkMonitoredGeofencesShouldFindMovedGeofences() {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_ENTER, "id");
+        monitor.setState(fence("ifttt_id"), Exited);
+
+        RecordingListener listener = new RecordingListener();
+        monitor.checkMonitoredGeofences(0.5, 0.5, listener);
+        assertThat(listener.events).isEmpty();
+
+        // Move the fence behind the monitor, the number of monitored geofences doesn't change.
+        WriteBehindGeofenceCache.get(ApplicationProvider.getApplicationContext()).put("ifttt_id",
+            new BackupGeofenceMonitor.MonitoredGeofence(Entry, Exited, new LocationFieldValue(0.5, 0.5, 100.0, ""))
+        );
+
+        monitor.checkMonitoredGeofences(0.5, 0.5, listener);
+        assertThat(listener.events).containsExactly("ifttt_id:Entry");
+    }
+
+    @Test
+    public void checkMonitoredGeofencesShouldApplyHysteresis() {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        monitor.setReportEventFiltering(50D, 0L);
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_EXIT, "id");
+        monitor.setState(fence("ifttt_id"), Entered);
+
+        // About 120 meters from the center of the 100 meter fence.
+        RecordingListener listener = new RecordingListener();
+        monitor.checkMonitoredGeofences(0.00108, 0.0, listener);
+        assertThat(listener.events).isEmpty();
+
+        // About 160 meters from the center.
+        monitor.checkMonitoredGeofences(0.00144, 0.0, listener);
+        assertThat(listener.events).containsExactly("ifttt_id:Exit");
+    }
+
+    @Test
+    public void checkMonitoredGeofencesShouldWaitForDwellTime() {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        monitor.setReportEventFiltering(0D, 1000L);
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_EXIT, "id");
+        monitor.setState(fence("ifttt_id"), Entered);
+
+        RecordingListener listener = new RecordingListener();
+        monitor.checkMonitoredGeofences(0.5, 0.5, 0L, listener);
+        monitor.checkMonitoredGeofences(0.5, 0.5, 500L, listener);
+        assertThat(listener.events).isEmpty();
+
+        // Back inside the fence, the pending exit is dropped.
+        monitor.checkMonitoredGeofences(0.0, 0.0, 600L, listener);
+        monitor.checkMonitoredGeofences(0.5, 0.5, 1000L, listener);
+        assertThat(listener.events).isEmpty();
+
+        monitor.checkMonitoredGeofences(0.5, 0.5, 2000L, listener);
+        assertThat(listener.events).containsExactly("ifttt_id:Exit");
+    }
+
+    @Test
+    public void changingFilteringShouldCheckLocationsAgain() {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        monitor.setReportEventFiltering(50D, 0L);
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_EXIT, "id");
+        monitor.setState(fence("ifttt_id"), Entered);
+
+        // About 120 meters from the center of the 100 meter fence, within the hysteresis.
+        RecordingListener listener = new RecordingListener();
+        monitor.checkMonitoredGeofences(0.00108, 0.0, listener);
+        assertThat(listener.events).isEmpty();
+
+        // Without hysteresis the same location is outside of the fence, and is not skipped.
+        monitor.setReportEventFiltering(0D, 0L);
+        monitor.checkMonitoredGeofences(0.00108, 0.0, listener);
+        assertThat(listener.events).containsExactly("ifttt_id:Exit");
+    }
+
+    @Test
+    public void distanceToNearestBoundary() {
+        BackupGeofenceMonitor monitor = BackupGeofenceMonitor.get(ApplicationProvider.getApplicationContext());
+        assertThat(monitor.distanceToNearestBoundary(0.0, 0.0)).isPositiveInfinity();
+
+        updateMonitorCache(monitor, FIELD_TYPE_LOCATION_ENTER, "id");
+        assertThat(monitor.distanceToNearestBoundary(0.0, 0.0)).isWithin(0.01).of(100.0);
+        // About 1112 meters from the center of the 100 meter fence.
+        assertThat(monitor.distanceToNearestBoundary(0.01, 0.0)).isWithin(1.0).of(1012.0);
+    }
+
     static void updateMonitorCache(BackupGeofenceMonitor monitor, String fieldType, String id) {
         LocationFieldValue locationFieldValue = new LocationFieldValue(0.0, 0.0, 100.0, "");
         UserFeatureField<LocationFieldValue> locationFieldValueUserFeatureField = new UserFeatureField<>(
@@ -276,6 +455,26 @@ public final class BackupGeofenceMonitorTest {
     }
 
     private Map<String, BackupGeofenceMonitor.MonitoredGeofence> cache() throws IOException {
+        WriteBehindGeofenceCache.get(ApplicationProvider.getApplicationContext()).flush();
         return jsonAdapter.fromJson(preferences.getString(PREF_KEY_MONITORED_GEOFENCES, null));
     }
+
+    private static int fence(String fenceKey) {
+        return FenceKeyRegistry.intern(fenceKey);
+    }
+
+    private static final class RecordingListener implements BackupGeofenceMonitor.TransitionListener {
+
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onTransition(int fenceId, LocationEventUploader.EventType eventType) {
+            events.add(FenceKeyRegistry.fenceKey(fenceId) + ":" + eventType);
+        }
+
+        @Override
+        public void onTransitionSkipped(int fenceId, String reason) {
+            events.add(FenceKeyRegistry.fenceKey(fenceId) + ":skipped");
+        }
+    }
 }
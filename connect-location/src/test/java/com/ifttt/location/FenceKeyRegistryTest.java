@@ -0,0 +1,78 @@
+package com.ifttt.location;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_ENTER;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_EXIT;
+import static com.ifttt.location.FenceKeyRegistry.DIRECTION_NONE;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public final class FenceKeyRegistryTest {
+
+    @Test
+    public void registerShouldBuildFenceKeys() {
+        int none = FenceKeyRegistry.register("registry_step", DIRECTION_NONE);
+        int enter = FenceKeyRegistry.register("registry_step", DIRECTION_ENTER);
+        int exit = FenceKeyRegistry.register("registry_step", DIRECTION_EXIT);
+
+        assertThat(FenceKeyRegistry.fenceKey(none)).isEqualTo("ifttt_registry_step");
+        assertThat(FenceKeyRegistry.fenceKey(enter)).isEqualTo("ifttt_registry_step/enter");
+        assertThat(FenceKeyRegistry.fenceKey(exit)).isEqualTo("ifttt_registry_step/exit");
+
+        assertThat(FenceKeyRegistry.stepId(none)).isEqualTo("registry_step");
+        assertThat(FenceKeyRegistry.stepId(enter)).isEqualTo("registry_step");
+        assertThat(FenceKeyRegistry.stepId(exit)).isEqualTo("registry_step");
+
+        assertThat(FenceKeyRegistry.direction(none)).isEqualTo(DIRECTION_NONE);
+        assertThat(FenceKeyRegistry.direction(enter)).isEqualTo(DIRECTION_ENTER);
+        assertThat(FenceKeyRegistry.direction(exit)).isEqualTo(DIRECTION_EXIT);
+    }
+
+    @Test
+    public void idsShouldBeStable() {
+        int id = FenceKeyRegistry.register("stable_step", DIRECTION_ENTER);
+
+        assertThat(FenceKeyRegistry.register("stable_step", DIRECTION_ENTER)).isEqualTo(id);
+        assertThat(FenceKeyRegistry.intern("ifttt_stable_step/enter")).isEqualTo(id);
+        assertThat(FenceKeyRegistry.register("stable_step", DIRECTION_EXIT)).isNotEqualTo(id);
+
+        // Keys of the same fence share the registered instance.
+        String fenceKey = FenceKeyRegistry.fenceKey(FenceKeyRegistry.register("stable_step", DIRECTION_ENTER));
+        assertThat(fenceKey).isSameInstanceAs(FenceKeyRegistry.fenceKey(id));
+    }
+
+    @Test
+    public void registerShouldFindInternedKeys() {
+        int enter = FenceKeyRegistry.intern("ifttt_interned_step/enter");
+        assertThat(FenceKeyRegistry.register("interned_step", DIRECTION_ENTER)).isEqualTo(enter);
+
+        // Keys that register doesn't build are not returned for the step.
+        int unprefixed = FenceKeyRegistry.intern("interned_step/exit");
+        int exit = FenceKeyRegistry.register("interned_step", DIRECTION_EXIT);
+        assertThat(exit).isNotEqualTo(unprefixed);
+        assertThat(FenceKeyRegistry.fenceKey(exit)).isEqualTo("ifttt_interned_step/exit");
+    }
+
+    @Test
+    public void internShouldParseUnknownKeys() {
+        int enter = FenceKeyRegistry.intern("ifttt_parsed_step/enter");
+        assertThat(FenceKeyRegistry.stepId(enter)).isEqualTo("parsed_step");
+        assertThat(FenceKeyRegistry.direction(enter)).isEqualTo(DIRECTION_ENTER);
+
+        int exit = FenceKeyRegistry.intern("parsed_step/exit");
+        assertThat(FenceKeyRegistry.stepId(exit)).isEqualTo("parsed_step");
+        assertThat(FenceKeyRegistry.direction(exit)).isEqualTo(DIRECTION_EXIT);
+
+        int plain = FenceKeyRegistry.intern("parsed_step");
+        assertThat(FenceKeyRegistry.stepId(plain)).isEqualTo("parsed_step");
+        assertThat(FenceKeyRegistry.direction(plain)).isEqualTo(DIRECTION_NONE);
+
+        int other = FenceKeyRegistry.intern("ifttt_parsed_step/other");
+        assertThat(FenceKeyRegistry.stepId(other)).isEqualTo("parsed_step");
+        assertThat(FenceKeyRegistry.direction(other)).isEqualTo(DIRECTION_NONE);
+    }
+}
@@ -0,0 +1,64 @@
+package com.ifttt.location;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.ifttt.connect.api.LocationFieldValue;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Init;
+import static com.ifttt.location.LocationEventUploader.EventType.Entry;
+
+@RunWith(AndroidJUnit4.class)
+public final class GeofenceIndexTest {
+
+    @Test
+    public void shouldOnlyReturnNearbyCandidates() {
+        Map<String, BackupGeofenceMonitor.MonitoredGeofence> geofences = new LinkedHashMap<>();
+        geofences.put("sf", geofence(37.7749D, -122.4194D, 100D));
+        geofences.put("nyc", geofence(40.7128D, -74.0060D, 100D));
+        GeofenceIndex index = GeofenceIndex.from(geofences);
+
+        assertThat(index.candidates(37.7750D, -122.4195D)).asList().containsExactly(0);
+        assertThat(index.candidates(40.7129D, -74.0061D)).asList().containsExactly(1);
+        assertThat(index.candidates(0D, 0D)).isEmpty();
+    }
+
+    @Test
+    public void shouldIncludeFencesSpanningCells() {
+        Map<String, BackupGeofenceMonitor.MonitoredGeofence> geofences = new LinkedHashMap<>();
+        geofences.put("small", geofence(37.7749D, -122.4194D, 100D));
+        geofences.put("large", geofence(37.7749D, -122.4194D, 5000D));
+        GeofenceIndex index = GeofenceIndex.from(geofences);
+
+        // About 4.4km north of the center, only inside the large fence.
+        int[] candidates = index.candidates(37.8149D, -122.4194D);
+        assertThat(candidates).asList().contains(1);
+        assertThat(index.contains(1, 37.8149D, -122.4194D)).isTrue();
+        assertThat(index.contains(0, 37.8149D, -122.4194D)).isFalse();
+    }
+
+    @Test
+    public void shouldWrapAroundAntiMeridian() {
+        Map<String, BackupGeofenceMonitor.MonitoredGeofence> geofences = new LinkedHashMap<>();
+        geofences.put("fence", geofence(0D, 179.9999D, 1000D));
+        GeofenceIndex index = GeofenceIndex.from(geofences);
+
+        assertThat(index.candidates(0D, -179.9999D)).asList().containsExactly(0);
+        assertThat(index.contains(0, 0D, -179.9999D)).isTrue();
+    }
+
+    @Test
+    public void distanceShouldMatchKnownValue() {
+        // San Francisco to New York is roughly 4130km.
+        double distance = GeofenceIndex.distanceMeters(37.7749D, -122.4194D, 40.7128D, -74.0060D);
+        assertThat(distance).isWithin(10000D).of(4130000D);
+        assertThat(GeofenceIndex.distanceMeters(1D, 1D, 1D, 1D)).isEqualTo(0D);
+    }
+
+    private static BackupGeofenceMonitor.MonitoredGeofence geofence(double lat, double lng, double radius) {
+        return new BackupGeofenceMonitor.MonitoredGeofence(Entry, Init, new LocationFieldValue(lat, lng, radius, ""));
+    }
+}
@@ -0,0 +1,278 @@
+package com.ifttt.location;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.work.Configuration;
+import androidx.work.Data;
+import androidx.work.ListenableWorker;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.TestListenableWorkerBuilder;
+import androidx.work.testing.WorkManagerTestInitHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import okhttp3.ResponseBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.mock.Calls;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.ifttt.location.LocationEventAttributes.LocationDataSource.Awareness;
+import static com.ifttt.location.LocationEventAttributes.LocationDataSource.LocationReport;
+import static com.ifttt.location.LocationEventUploader.EventType.Entry;
+import static com.ifttt.location.LocationEventUploader.EventType.Exit;
+
+@RunWith(AndroidJUnit4.class)
+public final class LocationEventUploaderTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        Configuration config = new Configuration.Builder().setMinimumLoggingLevel(Log.DEBUG)
+            .setExecutor(new SynchronousExecutor())
+            .build();
+        WorkManagerTestInitHelper.initializeTestWorkManager(context, config);
+
+        LocationEventQueue.get(context).clear();
+        LocationEventUploader.uploadEnqueued.set(false);
+    }
+
+    @After
+    public void tearDown() {
+        LocationEventUploader.maxBatchSize = LocationEventUploader.DEFAULT_MAX_BATCH_SIZE;
+    }
+
+    @Test
+    public void shouldQueueEventsForSingleUpload() throws ExecutionException, InterruptedException {
+        LocationEventUploader.schedule(context, Entry, Awareness, "step_1");
+        LocationEventUploader.schedule(context, Exit, LocationReport, "step_2");
+        LocationEventUploader.schedule(context, Entry, Awareness, "step_3");
+
+        List<PendingLocationEvent> events = LocationEventQueue.get(context).peek(10);
+        assertThat(events).hasSize(3);
+        assertThat(events.get(0).info.triggerSubscriptionId).isEqualTo("step_1");
+        assertThat(events.get(1).eventType()).isEqualTo(Exit);
+        assertThat(events.get(1).source).isEqualTo(LocationReport);
+
+        List<WorkInfo> infoList = WorkManager.getInstance(context)
+            .getWorkInfosByTag(LocationEventUploader.class.getName())
+            .get();
+        assertThat(infoList).hasSize(1);
+        assertThat(infoList.get(0).getState()).isEqualTo(WorkInfo.State.ENQUEUED);
+    }
+
+    @Test
+    public void shouldReadBatchSize() {
+        for (int i = 0; i < LocationEventUploader.DEFAULT_MAX_BATCH_SIZE + 1; i++) {
+            LocationEventUploader.schedule(context, Entry, Awareness, "step_" + i);
+        }
+
+        LocationEventQueue queue = LocationEventQueue.get(context);
+        assertThat(queue.size()).isEqualTo(LocationEventUploader.DEFAULT_MAX_BATCH_SIZE + 1);
+        assertThat(queue.peek(LocationEventUploader.maxBatchSize)).hasSize(LocationEventUploader.DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    @Test
+    public void prepareBatchShouldDeduplicate() {
+        PendingLocationEvent first = event("step_1", Entry, Awareness);
+        PendingLocationEvent second = event("step_1", Exit, LocationReport);
+        PendingLocationEvent third = event("step_2", Entry, Awareness);
+
+        List<LocationInfo> infos = LocationEventUploader.prepareBatch(ImmutableList.of(first,
+            second,
+            third,
+            first
+        ), Collections.emptySet());
+        assertThat(infos).containsExactly(first.info, second.info, third.info).inOrder();
+
+        // Events that have been uploaded already are not sent again.
+        infos = LocationEventUploader.prepareBatch(ImmutableList.of(first, second),
+            ImmutableSet.of(first.info.recordId)
+        );
+        assertThat(infos).containsExactly(second.info);
+    }
+
+    @Test
+    public void prepareBatchShouldKeepEventsInTheSameSecond() {
+        // Enter, exit and enter again within the same second share the step, type and occurrence time.
+        PendingLocationEvent first = event("step_1", Entry, Awareness);
+        PendingLocationEvent second = event("step_1", Exit, Awareness);
+        PendingLocationEvent third = event("step_1", Entry, Awareness);
+        assertThat(first.info.occurredAt).isEqualTo(third.info.occurredAt);
+
+        List<LocationInfo> infos = LocationEventUploader.prepareBatch(ImmutableList.of(first, second, third),
+            Collections.emptySet()
+        );
+        assertThat(infos).containsExactly(first.info, second.info, third.info).inOrder();
+    }
+
+    @Test
+    public void doWorkShouldDropUploadedEvents() throws Exception {
+        FakeLocationApi api = fakeLocationApi();
+        LocationEventQueue queue = LocationEventQueue.get(context);
+        PendingLocationEvent first = event("step_1", Entry, Awareness);
+        PendingLocationEvent second = event("step_2", Entry, Awareness);
+        queue.add(first);
+        queue.add(second);
+        // A previous run uploaded the first event, but didn't get to remove it from the queue.
+        queue.markUploaded(Collections.singleton(first.info.recordId));
+
+        ListenableWorker.Result result = TestListenableWorkerBuilder.from(context, LocationEventUploader.class)
+            .build()
+            .doWork();
+
+        assertThat(result).isEqualTo(ListenableWorker.Result.success());
+        assertThat(api.uploads).hasSize(1);
+        assertThat(api.uploads.get(0)).hasSize(1);
+        assertThat(api.uploads.get(0).get(0).recordId).isEqualTo(second.info.recordId);
+        assertThat(queue.size()).isEqualTo(0);
+        assertThat(queue.uploadedRecordIds()).isEmpty();
+    }
+
+    @Test
+    public void doWorkShouldUploadInBatches() {
+        FakeLocationApi api = fakeLocationApi();
+        LocationEventUploader.maxBatchSize = 2;
+        for (int i = 0; i < 5; i++) {
+            LocationEventUploader.schedule(context, Entry, Awareness, "step_" + i);
+        }
+
+        ListenableWorker.Result result = TestListenableWorkerBuilder.from(context, LocationEventUploader.class)
+            .build()
+            .doWork();
+
+        assertThat(result).isEqualTo(ListenableWorker.Result.success());
+        assertThat(api.uploads).hasSize(3);
+        assertThat(api.uploads.get(0)).hasSize(2);
+        assertThat(api.uploads.get(1)).hasSize(2);
+        assertThat(api.uploads.get(2)).hasSize(1);
+        assertThat(api.uploads.get(2).get(0).triggerSubscriptionId).isEqualTo("step_4");
+        assertThat(LocationEventQueue.get(context).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void doWorkShouldRetryRemainingEvents() {
+        FakeLocationApi api = fakeLocationApi();
+        api.codes.add(200);
+        api.codes.add(500);
+        LocationEventUploader.maxBatchSize = 2;
+        for (int i = 0; i < 3; i++) {
+            LocationEventUploader.schedule(context, Entry, Awareness, "step_" + i);
+        }
+
+        ListenableWorker.Result result = TestListenableWorkerBuilder.from(context, LocationEventUploader.class)
+            .build()
+            .doWork();
+
+        assertThat(result).isEqualTo(ListenableWorker.Result.retry());
+        assertThat(api.uploads).hasSize(2);
+
+        // Only the acknowledged batch is removed.
+        List<PendingLocationEvent> remaining = LocationEventQueue.get(context).peek(10);
+        assertThat(remaining).hasSize(1);
+        assertThat(remaining.get(0).info.triggerSubscriptionId).isEqualTo("step_2");
+    }
+
+    @Test
+    public void shouldAppendUploadForEventsAddedAfterUploadStarted() throws Exception {
+        fakeLocationApi();
+        LocationEventUploader.schedule(context, Entry, Awareness, "step_1");
+        LocationEventUploader.schedule(context, Entry, Awareness, "step_2");
+        assertThat(uploadWorkInfos()).hasSize(1);
+
+        // Once an upload has started, the next event can't rely on it.
+        TestListenableWorkerBuilder.from(context, LocationEventUploader.class).build().doWork();
+        LocationEventUploader.schedule(context, Entry, Awareness, "step_3");
+        LocationEventUploader.schedule(context, Entry, Awareness, "step_4");
+        assertThat(uploadWorkInfos()).hasSize(2);
+    }
+
+    @Test
+    public void doWorkShouldQueueLegacyEvent() throws Exception {
+        FakeLocationApi api = fakeLocationApi();
+        Data data = new Data.Builder().putString(LocationEventUploader.LEGACY_INPUT_DATA_EVENT_TYPE, Exit.name())
+            .putString(LocationEventUploader.LEGACY_INPUT_DATA_STEP_ID, "step_1")
+            .putString(LocationEventUploader.LEGACY_INPUT_DATA_JOB_ID, "job_1")
+            .putLong(LocationEventUploader.LEGACY_INPUT_DATA_SCHEDULED_TIMESTAMP, 1000L)
+            .putString(LocationEventUploader.LEGACY_INPUT_DATA_LOCATION_DATA_SOURCE, Awareness.name())
+            .build();
+
+        ListenableWorker.Result result = TestListenableWorkerBuilder.from(context, LocationEventUploader.class)
+            .setInputData(data)
+            .build()
+            .doWork();
+
+        assertThat(result).isEqualTo(ListenableWorker.Result.success());
+        // The event is left to the unique upload work.
+        assertThat(api.uploads).isEmpty();
+        assertThat(uploadWorkInfos()).hasSize(1);
+        List<PendingLocationEvent> events = LocationEventQueue.get(context).peek(10);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).info.recordId).isEqualTo("job_1");
+        assertThat(events.get(0).info.triggerSubscriptionId).isEqualTo("step_1");
+        assertThat(events.get(0).eventType()).isEqualTo(Exit);
+        assertThat(events.get(0).source).isEqualTo(Awareness);
+
+        // A retry of the same work doesn't queue the event again.
+        TestListenableWorkerBuilder.from(context, LocationEventUploader.class).setInputData(data).build().doWork();
+        assertThat(LocationEventQueue.get(context).size()).isEqualTo(1);
+    }
+
+    private List<WorkInfo> uploadWorkInfos() throws ExecutionException, InterruptedException {
+        return WorkManager.getInstance(context).getWorkInfosForUniqueWork("location_event_upload").get();
+    }
+
+    private static PendingLocationEvent event(
+        String stepId, LocationEventUploader.EventType eventType, LocationEventAttributes.LocationDataSource source
+    ) {
+        return new PendingLocationEvent(LocationInfo.create(eventType,
+            stepId,
+            UUID.randomUUID().toString(),
+            0L,
+            "id"
+        ), source, 0L);
+    }
+
+    private FakeLocationApi fakeLocationApi() {
+        FakeLocationApi api = new FakeLocationApi();
+        ConnectLocation.init(context).locationApi = api;
+        return api;
+    }
+
+    /**
+     * {@link RetrofitLocationApi} that records the uploaded batches, and responds with the queued status codes, or
+     * 200 if there is none.
+     */
+    private static final class FakeLocationApi implements RetrofitLocationApi {
+
+        final List<List<LocationInfo>> uploads = new ArrayList<>();
+        final Deque<Integer> codes = new ArrayDeque<>();
+
+        @Override
+        public Call<Void> upload(List<LocationInfo> locationInfoList) {
+            uploads.add(new ArrayList<>(locationInfoList));
+
+            Integer code = codes.poll();
+            if (code == null || code == 200) {
+                return Calls.response((Void) null);
+            }
+            return Calls.response(Response.<Void>error(code, ResponseBody.create(new byte[0], null)));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.ifttt.location;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.ifttt.connect.api.LocationFieldValue;
+import com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Entered;
+import static com.ifttt.location.BackupGeofenceMonitor.MonitoredGeofence.GeofenceState.Init;
+import static com.ifttt.location.LocationEventUploader.EventType.Entry;
+
+@RunWith(AndroidJUnit4.class)
+public final class WriteBehindGeofenceCacheTest {
+
+    private final MonitoredGeofence geofence = new MonitoredGeofence(Entry,
+        Init,
+        new LocationFieldValue(0D, 0D, 100D, "")
+    );
+
+    private CountingCache delegate;
+    private WriteBehindGeofenceCache cache;
+
+    @Before
+    public void setUp() {
+        delegate = new CountingCache();
+        cache = new WriteBehindGeofenceCache(delegate, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @Test
+    public void shouldCoalesceWrites() {
+        cache.write(Collections.singletonMap("id", geofence));
+
+        Map<String, MonitoredGeofence> map = cache.read();
+        map.put("id", new MonitoredGeofence(Entry, Entered, geofence.value));
+        cache.write(map);
+        cache.write(map);
+        cache.flush();
+
+        assertThat(delegate.writeCount).isEqualTo(1);
+        assertThat(delegate.data.get("id").state).isEqualTo(Entered);
+    }
+
+    @Test
+    public void putAndFlushShouldWriteThrough() {
+        cache.write(Collections.singletonMap("id", geofence));
+        cache.putAndFlush("id", new MonitoredGeofence(Entry, Entered, geofence.value));
+
+        // Persisted without waiting for the delayed flush, together with the pending write.
+        assertThat(delegate.writeCount).isEqualTo(1);
+        assertThat(delegate.data.get("id").state).isEqualTo(Entered);
+    }
+
+    @Test
+    public void shouldReadFromDelegateOnce() {
+        delegate.data = Collections.singletonMap("id", geofence);
+
+        assertThat(cache.read()).containsKey("id");
+        delegate.data = Collections.emptyMap();
+        assertThat(cache.read()).containsKey("id");
+    }
+
+    @Test
+    public void clearShouldDropPendingWrites() {
+        cache.write(Collections.singletonMap("id", geofence));
+        cache.clear();
+        cache.flush();
+
+        assertThat(cache.read()).isEmpty();
+        assertThat(delegate.data).isEmpty();
+    }
+
+    @Test
+    public void versionShouldOnlyChangeWithGeofences() {
+        cache.write(Collections.singletonMap("id", geofence));
+        int version = cache.version();
+
+        // State changes keep the version.
+        cache.put("id", new MonitoredGeofence(Entry, Entered, geofence.value));
+        cache.putAndFlush("id", new MonitoredGeofence(Entry, Init, geofence.value));
+        cache.write(cache.read());
+        assertThat(cache.version()).isEqualTo(version);
+
+        cache.put("id", new MonitoredGeofence(Entry, Init, new LocationFieldValue(1D, 1D, 100D, "")));
+        assertThat(cache.version()).isGreaterThan(version);
+
+        version = cache.version();
+        cache.put("other", geofence);
+        assertThat(cache.version()).isGreaterThan(version);
+
+        version = cache.version();
+        cache.write(Collections.singletonMap("id", geofence));
+        assertThat(cache.version()).isGreaterThan(version);
+
+        version = cache.version();
+        cache.clear();
+        assertThat(cache.version()).isGreaterThan(version);
+    }
+
+    private static final class CountingCache implements Cache<Map<String, MonitoredGeofence>> {
+
+        Map<String, MonitoredGeofence> data = Collections.emptyMap();
+        int writeCount = 0;
+
+        @Override
+        public void write(Map<String, MonitoredGeofence> map) {
+            data = new LinkedHashMap<>(map);
+            writeCount++;
+        }
+
+        @Override
+        public Map<String, MonitoredGeofence> read() {
+            return data;
+        }
+
+        @Override
+        public void clear() {
+            data = Collections.emptyMap();
+        }
+    }
+}